@@ -0,0 +1,179 @@
+/**
+ * Cell storage for a bounded grid, held in byte array tiles indexed by cell
+ * id.
+ *
+ * Forking a store shares its tiles with the copy, and a tile is only copied
+ * when one of the stores first writes to it after the fork. The tiles
+ * written since changedTiles was last called are noted apart from that,
+ * since any number of forks may be taken in between.
+ *
+ * @author arlsr
+ * @date 2014
+ */
+
+package tld.minegrid;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.BitSet;
+
+class ArrayCellStore extends CellStore {
+	private static final int TILE_BITS = 12;
+	private static final int TILE_MASK = (1 << TILE_BITS) - 1;
+
+	private byte[][] tiles;
+	// Whether each tile belongs to this store alone rather than being shared
+	// with a fork.
+	private boolean[] owned;
+	// Whether each tile has been written since changedTiles was last called.
+	private boolean[] written;
+
+	/**
+	 * Constructs a store of the given number of cells, all clear.
+	 */
+	public ArrayCellStore(int numCells) {
+		tiles = new byte[(numCells + TILE_MASK) >> TILE_BITS][];
+		owned = new boolean[tiles.length];
+		written = new boolean[tiles.length];
+		for (int i = 0; i < tiles.length; i++) {
+			tiles[i] = new byte[Math.min(TILE_MASK + 1, numCells - (i << TILE_BITS))];
+			owned[i] = true;
+		}
+		Arrays.fill(written, true);
+	}
+
+	/**
+	 * Constructs a fork of the given store, sharing all of its tiles.
+	 */
+	private ArrayCellStore(ArrayCellStore other) {
+		tiles = other.tiles.clone();
+		owned = new boolean[tiles.length];
+		written = new boolean[tiles.length];
+		Arrays.fill(written, true);
+	}
+
+	@Override
+	int get(long cell) {
+		return tiles[(int)(cell >> TILE_BITS)][(int)cell & TILE_MASK] & 0xFF;
+	}
+
+	@Override
+	void set(long cell, int bits) {
+		int tile = (int)(cell >> TILE_BITS);
+
+		if (!owned[tile]) {
+			ownTile(tile);
+		}
+		if (!written[tile]) {
+			written[tile] = true;
+		}
+		tiles[tile][(int)cell & TILE_MASK] = (byte)bits;
+	}
+
+	@Override
+	void revealAll(CellChanges changes) {
+		byte[] cells;
+
+		for (int tile = 0; tile < tiles.length; tile++) {
+			cells = tiles[tile];
+			for (int i = 0; i < cells.length; i++) {
+				if ((cells[i] & REVEALED_BIT) == 0) {
+					if (!owned[tile]) {
+						cells = ownTile(tile);
+					}
+					written[tile] = true;
+					cells[i] |= REVEALED_BIT;
+					changes.add(((long)tile << TILE_BITS) + i, MineGrid.stateOf(cells[i] & 0xFF));
+				}
+			}
+		}
+	}
+
+	@Override
+	boolean canFork() {
+		return true;
+	}
+
+	@Override
+	CellStore fork() {
+		// Neither store may write the shared tiles from now on.
+		Arrays.fill(owned, false);
+		return new ArrayCellStore(this);
+	}
+
+	@Override
+	void clear() {
+		for (int tile = 0; tile < tiles.length; tile++) {
+			if (owned[tile]) {
+				Arrays.fill(tiles[tile], (byte)0);
+			}
+			else {
+				tiles[tile] = new byte[tiles[tile].length];
+				owned[tile] = true;
+			}
+		}
+		Arrays.fill(written, true);
+	}
+
+	@Override
+	int getTileCells() {
+		return TILE_MASK + 1;
+	}
+
+	@Override
+	void changedTiles(BitSet dest) {
+		for (int tile = 0; tile < tiles.length; tile++) {
+			if (written[tile]) {
+				dest.set(tile);
+				written[tile] = false;
+			}
+		}
+	}
+
+	@Override
+	void write(FileChannel channel) throws IOException {
+		writeFully(channel, wrapTiles());
+	}
+
+	@Override
+	void read(FileChannel channel) throws IOException {
+		unshare();
+		readFully(channel, wrapTiles());
+		Arrays.fill(written, true);
+	}
+
+	@Override
+	void unshare() {
+		for (int tile = 0; tile < tiles.length; tile++) {
+			if (!owned[tile]) {
+				ownTile(tile);
+			}
+		}
+	}
+
+	/**
+	 * Returns a buffer over each tile, for reading or writing them in bulk.
+	 */
+	private ByteBuffer[] wrapTiles() {
+		ByteBuffer[] buffers = new ByteBuffer[tiles.length];
+
+		for (int i = 0; i < tiles.length; i++) {
+			buffers[i] = ByteBuffer.wrap(tiles[i]);
+		}
+		return buffers;
+	}
+
+	/**
+	 * Replaces a shared tile with this store's own copy.
+	 *
+	 * @return	the copied tile
+	 */
+	private byte[] ownTile(int tile) {
+		tiles[tile] = tiles[tile].clone();
+		owned[tile] = true;
+		return tiles[tile];
+	}
+
+}
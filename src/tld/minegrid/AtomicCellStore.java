@@ -0,0 +1,83 @@
+/**
+ * Cell storage that several threads can update at once. Four cells are
+ * packed into each int word and a cell is changed by compare-and-set on its
+ * word, so no locks are taken.
+ *
+ * @author arlsr
+ * @date 2014
+ */
+
+package tld.minegrid;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+class AtomicCellStore extends CellStore {
+	private AtomicIntegerArray words;
+	private int numCells;
+
+	/**
+	 * Constructs a store of the given number of cells, all clear.
+	 */
+	public AtomicCellStore(int numCells) {
+		this.numCells = numCells;
+		words = new AtomicIntegerArray((numCells + 3) / 4);
+	}
+
+	@Override
+	int get(long cell) {
+		return (words.get((int)(cell >> 2)) >>> shift(cell)) & 0xFF;
+	}
+
+	@Override
+	void set(long cell, int bits) {
+		int word;
+
+		do {
+			word = words.get((int)(cell >> 2));
+		} while (!words.compareAndSet((int)(cell >> 2), word, replace(word, cell, bits)));
+	}
+
+	/**
+	 * Changes the bits of a cell only if they still hold the expected value.
+	 *
+	 * @return	whether the cell was changed
+	 */
+	boolean compareAndSet(long cell, int expect, int bits) {
+		int index = (int)(cell >> 2);
+		int word;
+
+		do {
+			word = words.get(index);
+			if (((word >>> shift(cell)) & 0xFF) != expect) {
+				return false;
+			}
+		} while (!words.compareAndSet(index, word, replace(word, cell, bits)));
+		return true;
+	}
+
+	@Override
+	void revealAll(CellChanges changes) {
+		int bits;
+
+		for (int cell = 0; cell < numCells; cell++) {
+			do {
+				bits = get(cell);
+			} while ((bits & REVEALED_BIT) == 0 && !compareAndSet(cell, bits, bits | REVEALED_BIT));
+		}
+	}
+
+	/**
+	 * Returns the position of a cell's bits within its word.
+	 */
+	private static int shift(long cell) {
+		return ((int)cell & 3) << 3;
+	}
+
+	/**
+	 * Returns a word with one cell's bits replaced.
+	 */
+	private static int replace(int word, long cell, int bits) {
+		return (word & ~(0xFF << shift(cell))) | ((bits & 0xFF) << shift(cell));
+	}
+
+}
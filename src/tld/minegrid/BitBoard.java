@@ -0,0 +1,293 @@
+/**
+ * A bounded grid held as bit planes, one bit per cell, for working on many
+ * cells at once.
+ *
+ * Each plane stores its rows one after another, every row starting on a new
+ * long word so that bit x of word y * rowWords + x / 64 is the cell at
+ * (x, y). Neighbour counts are found 64 cells at a time by shifting rows
+ * against each other and adding the shifted words as bit-sliced counters.
+ *
+ * @author arlsr
+ * @date 2014
+ */
+
+package tld.minegrid;
+
+import java.util.Arrays;
+
+public class BitBoard {
+	private int width;
+	private int height;
+	private int rowWords;
+	private long[] mines;
+	private long[] revealed;
+	private long[] flags;
+	// The four bit planes of the counts for the row being counted.
+	private long[] sums;
+
+	/**
+	 * Constructs an empty board of the given size.
+	 */
+	public BitBoard(int width, int height) {
+		this(width, height, true);
+	}
+
+	/**
+	 * Constructs an empty board of the given size, optionally without the
+	 * revealed and flag planes.
+	 */
+	private BitBoard(int width, int height, boolean allPlanes) {
+		this.width = width;
+		this.height = height;
+		rowWords = (width + 63) >>> 6;
+		mines = new long[rowWords * height];
+		if (allPlanes) {
+			revealed = new long[rowWords * height];
+			flags = new long[rowWords * height];
+		}
+		sums = new long[rowWords * 4];
+	}
+
+	/**
+	 * Returns an empty board of the given size holding only the mines plane,
+	 * for counting the neighbours of mines being planted. Its revealed and
+	 * flag planes are null.
+	 */
+	static BitBoard minesOnly(int width, int height) {
+		return new BitBoard(width, height, false);
+	}
+
+	/**
+	 * Returns a board of what a player can see in the given view. Only the
+	 * revealed mines are set in the mines plane.
+	 */
+	public static BitBoard fromView(GridView view) {
+		BitBoard board = new BitBoard(view.getWidth(), view.getHeight());
+		int[] row = new int[view.getWidth()];
+
+		for (int y = 0; y < board.height; y++) {
+			view.readRow(y, row, 0);
+			for (int x = 0; x < board.width; x++) {
+				if (row[x] == MineGrid.FLAG) {
+					board.set(board.flags, x, y);
+				}
+				else if (row[x] != MineGrid.UNKNOWN) {
+					board.set(board.revealed, x, y);
+					if (row[x] == MineGrid.MINE) {
+						board.set(board.mines, x, y);
+					}
+				}
+			}
+		}
+		return board;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Returns the number of words in each row of a plane.
+	 */
+	public int getRowWords() {
+		return rowWords;
+	}
+
+	public long[] getMines() {
+		return mines;
+	}
+
+	public long[] getRevealed() {
+		return revealed;
+	}
+
+	public long[] getFlags() {
+		return flags;
+	}
+
+	/**
+	 * Clears every cell of the mines plane, so the board can be used again.
+	 */
+	void clearMines() {
+		Arrays.fill(mines, 0);
+	}
+
+	/**
+	 * Returns whether the cell at the given coordinates is set in a plane.
+	 */
+	public boolean get(long[] plane, int x, int y) {
+		return (plane[y * rowWords + (x >>> 6)] & (1L << x)) != 0;
+	}
+
+	/**
+	 * Sets the cell at the given coordinates in a plane.
+	 */
+	public void set(long[] plane, int x, int y) {
+		plane[y * rowWords + (x >>> 6)] |= 1L << x;
+	}
+
+	/**
+	 * Finds the number of neighbours set in a plane for each cell of a row.
+	 *
+	 * @param	plane	the plane to count
+	 * @param	y		the row to count
+	 * @param	dest	the array to write the count of each cell x to
+	 */
+	public void countNeighbours(long[] plane, int y, byte[] dest) {
+		long any;
+		int bit;
+		int x;
+
+		sumNeighbours(plane, y);
+		Arrays.fill(dest, 0, width, (byte)0);
+		for (int i = 0; i < rowWords; i++) {
+			any = sums[i] | sums[rowWords + i] | sums[2 * rowWords + i] | sums[3 * rowWords + i];
+			// Only cells with some neighbours set need their counts gathered.
+			while (any != 0) {
+				bit = Long.numberOfTrailingZeros(any);
+				any &= any - 1;
+				x = (i << 6) + bit;
+				if (x < width) {
+					dest[x] = (byte)((int)(sums[i] >>> bit) & 1
+							| ((int)(sums[rowWords + i] >>> bit) & 1) << 1
+							| ((int)(sums[2 * rowWords + i] >>> bit) & 1) << 2
+							| ((int)(sums[3 * rowWords + i] >>> bit) & 1) << 3);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns a plane of the cells that aren't set in the given plane but are
+	 * next to a cell that is.
+	 */
+	public long[] neighboursOf(long[] plane) {
+		long[] result = new long[plane.length];
+		long spread;
+		int start;
+
+		for (int y = 0; y < height; y++) {
+			start = y * rowWords;
+			for (int i = 0; i < rowWords; i++) {
+				// Spread each row sideways, then onto the rows above and below.
+				spread = west(plane, start, i) | plane[start + i] | east(plane, start, i);
+				result[start + i] |= west(plane, start, i) | east(plane, start, i);
+				if (y > 0) {
+					result[start - rowWords + i] |= spread;
+				}
+				if (y < height - 1) {
+					result[start + rowWords + i] |= spread;
+				}
+			}
+		}
+		for (int i = 0; i < result.length; i++) {
+			result[i] &= ~plane[i];
+		}
+		clearPadding(result);
+		return result;
+	}
+
+	/**
+	 * Returns a plane of the unknown, unflagged cells next to a revealed
+	 * number. The neighbours of a revealed zero are always revealed, so
+	 * these are the cells the revealed numbers say something about.
+	 */
+	public long[] frontier() {
+		long[] safe = new long[revealed.length];
+		long[] result;
+
+		for (int i = 0; i < safe.length; i++) {
+			safe[i] = revealed[i] & ~mines[i];
+		}
+		result = neighboursOf(safe);
+		for (int i = 0; i < result.length; i++) {
+			result[i] &= ~revealed[i] & ~flags[i];
+		}
+		return result;
+	}
+
+	/**
+	 * Adds up the eight neighbours of each cell of a row into four bit planes
+	 * of sums, using carry-save adders across the shifted words.
+	 */
+	private void sumNeighbours(long[] plane, int y) {
+		int start = y * rowWords;
+		int above = start - rowWords;
+		int below = start + rowWords;
+		long w;
+		long e;
+		long nw;
+		long n;
+		long ne;
+		long sw;
+		long s;
+		long se;
+		long ones1;
+		long twos1;
+		long ones2;
+		long twos2;
+		long ones3;
+		long twos3;
+		long twos4;
+		long twos;
+		long fours1;
+		long fours2;
+
+		for (int i = 0; i < rowWords; i++) {
+			w = west(plane, start, i);
+			e = east(plane, start, i);
+			nw = y > 0 ? west(plane, above, i) : 0;
+			n = y > 0 ? plane[above + i] : 0;
+			ne = y > 0 ? east(plane, above, i) : 0;
+			sw = y < height - 1 ? west(plane, below, i) : 0;
+			s = y < height - 1 ? plane[below + i] : 0;
+			se = y < height - 1 ? east(plane, below, i) : 0;
+
+			// Add the neighbours in threes, then add up the partial sums.
+			ones1 = w ^ e ^ nw;
+			twos1 = (w & e) | (nw & (w ^ e));
+			ones2 = n ^ ne ^ sw;
+			twos2 = (n & ne) | (sw & (n ^ ne));
+			ones3 = s ^ se;
+			twos3 = s & se;
+			sums[i] = ones1 ^ ones2 ^ ones3;
+			twos4 = (ones1 & ones2) | (ones3 & (ones1 ^ ones2));
+			twos = twos1 ^ twos2 ^ twos3;
+			fours1 = (twos1 & twos2) | (twos3 & (twos1 ^ twos2));
+			fours2 = twos & twos4;
+			sums[rowWords + i] = twos ^ twos4;
+			sums[2 * rowWords + i] = fours1 ^ fours2;
+			sums[3 * rowWords + i] = fours1 & fours2;
+		}
+	}
+
+	/**
+	 * Returns the cells to the west of each cell in a word of a row.
+	 */
+	private long west(long[] plane, int rowStart, int i) {
+		return plane[rowStart + i] << 1 | (i > 0 ? plane[rowStart + i - 1] >>> 63 : 0);
+	}
+
+	/**
+	 * Returns the cells to the east of each cell in a word of a row.
+	 */
+	private long east(long[] plane, int rowStart, int i) {
+		return plane[rowStart + i] >>> 1 | (i < rowWords - 1 ? plane[rowStart + i + 1] << 63 : 0);
+	}
+
+	/**
+	 * Clears the bits past the end of each row.
+	 */
+	private void clearPadding(long[] plane) {
+		long mask = (width & 63) == 0 ? -1L : (1L << width) - 1;
+
+		for (int y = 0; y < height; y++) {
+			plane[y * rowWords + rowWords - 1] &= mask;
+		}
+	}
+
+}
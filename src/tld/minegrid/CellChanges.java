@@ -0,0 +1,132 @@
+/**
+ * A list of the cells changed by a game action along with their new states,
+ * held in primitive arrays that are reused from one action to the next.
+ * An action that changes more cells than the list holds, such as a loss
+ * revealing a very large grid, empties it and asks for a full refresh
+ * instead.
+ *
+ * @author arlsr
+ * @date 2014
+ */
+
+package tld.minegrid;
+
+import java.util.Arrays;
+
+public class CellChanges {
+	// The most changes listed before asking for a full refresh, enough for
+	// the largest cascade on an infinite grid.
+	static final int MAX_CHANGES = 1 << 21;
+
+	private MineGrid grid;
+	private long[] cells = new long[16];
+	private byte[] states = new byte[16];
+	private int size;
+	private boolean fullRefresh;
+
+	/**
+	 * Constructs an empty list for the given grid.
+	 */
+	CellChanges(MineGrid grid) {
+		this.grid = grid;
+	}
+
+	/**
+	 * Returns the number of changes in the list.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns whether the action changed too many cells to list, in which
+	 * case the list is empty and the whole grid should be read again.
+	 */
+	public boolean isFullRefresh() {
+		return fullRefresh;
+	}
+
+	/**
+	 * Returns the id of the changed cell, which is
+	 * (z * height + y) * width + x on a bounded grid.
+	 *
+	 * @param	i	the position of the change in the list
+	 */
+	public long getCell(int i) {
+		return cells[i];
+	}
+
+	/**
+	 * Returns the x coordinate of the changed cell.
+	 *
+	 * @param	i	the position of the change in the list
+	 */
+	public int getX(int i) {
+		return grid.cellX(cells[i]);
+	}
+
+	/**
+	 * Returns the y coordinate of the changed cell.
+	 *
+	 * @param	i	the position of the change in the list
+	 */
+	public int getY(int i) {
+		return grid.cellY(cells[i]);
+	}
+
+	/**
+	 * Returns the layer of the changed cell, which is always zero on a grid
+	 * of one layer.
+	 *
+	 * @param	i	the position of the change in the list
+	 */
+	public int getZ(int i) {
+		return grid.cellZ(cells[i]);
+	}
+
+	/**
+	 * Returns the new state of the changed cell.
+	 *
+	 * @param	i	the position of the change in the list
+	 */
+	public int getState(int i) {
+		return states[i];
+	}
+
+	/**
+	 * Adds a change to the end of the list.
+	 */
+	void add(long cell, int state) {
+		if (fullRefresh) {
+			return;
+		}
+		if (size == MAX_CHANGES) {
+			fullRefresh = true;
+			size = 0;
+			return;
+		}
+		if (size == cells.length) {
+			cells = Arrays.copyOf(cells, Math.min(size * 2, MAX_CHANGES));
+			states = Arrays.copyOf(states, cells.length);
+		}
+		cells[size] = cell;
+		states[size] = (byte)state;
+		size++;
+	}
+
+	/**
+	 * Empties the list, keeping its storage for the next action.
+	 */
+	void clear() {
+		size = 0;
+		fullRefresh = false;
+	}
+
+	/**
+	 * Returns whether the action changed any cells.
+	 */
+	boolean isEmpty() {
+		return size == 0 && !fullRefresh;
+	}
+
+}
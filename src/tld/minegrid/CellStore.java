@@ -0,0 +1,125 @@
+/**
+ * Storage for the packed state of each cell in a grid.
+ *
+ * Each cell is a single byte: the low five bits hold the number of
+ * neighbouring mines, enough for the 26 neighbours of a layered grid, and
+ * the upper bits hold the cell's flags. Cells are addressed by a long cell
+ * id whose meaning is up to the grid using the store.
+ *
+ * @author arlsr
+ * @date 2014
+ */
+
+package tld.minegrid;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.BitSet;
+
+abstract class CellStore {
+	static final int SCORE_MASK = 0x1F;
+	static final int MINE_BIT = 0x20;
+	static final int REVEALED_BIT = 0x40;
+	static final int FLAG_BIT = 0x80;
+
+	/**
+	 * Returns the packed bits of a cell, from 0 to 255.
+	 */
+	abstract int get(long cell);
+
+	/**
+	 * Replaces the packed bits of a cell.
+	 */
+	abstract void set(long cell, int bits);
+
+	/**
+	 * Reveals every cell held by the store, recording each cell that changes.
+	 */
+	abstract void revealAll(CellChanges changes);
+
+	/**
+	 * Returns whether the store can be forked.
+	 */
+	boolean canFork() {
+		return false;
+	}
+
+	/**
+	 * Returns a copy of the store that shares its cells with this one until
+	 * either store changes them.
+	 */
+	CellStore fork() {
+		throw new UnsupportedOperationException("This storage can't be forked");
+	}
+
+	/**
+	 * Clears every cell, ready for a new game.
+	 */
+	void clear() {
+		throw new UnsupportedOperationException("This storage can't be cleared");
+	}
+
+	/**
+	 * Gives the store its own copy of any cells shared with a fork, so that
+	 * separate cells can then be written from several threads.
+	 */
+	void unshare() {
+	}
+
+	/**
+	 * Returns the number of cells in each tile reported by changedTiles.
+	 */
+	int getTileCells() {
+		throw new UnsupportedOperationException("This storage doesn't track changes");
+	}
+
+	/**
+	 * Notes in the given set each tile of cells written since the last call,
+	 * with every tile counting as written before the first, and starts
+	 * noting them afresh. Tiles are runs of getTileCells cells in cell id
+	 * order.
+	 */
+	void changedTiles(BitSet dest) {
+		throw new UnsupportedOperationException("This storage doesn't track changes");
+	}
+
+	/**
+	 * Writes the packed bits of every cell to a channel in cell id order.
+	 */
+	void write(FileChannel channel) throws IOException {
+		throw new UnsupportedOperationException("This storage can't be saved");
+	}
+
+	/**
+	 * Replaces the packed bits of every cell with those read from a channel,
+	 * as written by write.
+	 */
+	void read(FileChannel channel) throws IOException {
+		throw new UnsupportedOperationException("This storage can't be loaded");
+	}
+
+	/**
+	 * Writes the remaining bytes of the buffers to a channel, gathering as
+	 * many buffers into each write as the channel takes.
+	 */
+	static void writeFully(FileChannel channel, ByteBuffer[] buffers) throws IOException {
+		while (buffers[buffers.length - 1].hasRemaining()) {
+			channel.write(buffers);
+		}
+	}
+
+	/**
+	 * Fills the remaining bytes of the buffers from a channel, scattering
+	 * each read over as many buffers as the channel takes.
+	 */
+	static void readFully(FileChannel channel, ByteBuffer[] buffers) throws IOException {
+		while (buffers[buffers.length - 1].hasRemaining()) {
+			if (channel.read(buffers) < 0) {
+				throw new EOFException("The file ended before every cell was read");
+			}
+		}
+	}
+
+}
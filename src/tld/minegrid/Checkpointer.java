@@ -0,0 +1,323 @@
+/**
+ * Keeps a checkpoint of the game being played in a file, written on a
+ * background thread so the player never waits for the disk.
+ *
+ * A checkpoint starts as a saved game. Each later checkpoint only appends
+ * the tiles of cells changed since the one before, as a record with the
+ * game's counters and a checksum, and the file is rewritten as a whole once
+ * the records outgrow the grid. Taking a checkpoint forks the game, which
+ * costs about as much as the tiles changed, and the cell store notes which
+ * those are whatever other forks are taken in between. Restoring loads the
+ * saved game and replays every complete record, so a checkpoint cut short
+ * by a crash is simply skipped.
+ *
+ * @author arlsr
+ * @date 2014
+ */
+
+package tld.minegrid;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+public class Checkpointer {
+	private static final int RECORD_MAGIC = 0x4D47434B;
+	// A record is its magic number and length, the counters, the number of
+	// tiles, each tile's first cell, length and cells, and then a checksum.
+	private static final int RECORD_HEADER_SIZE = 8;
+	private static final int RECORD_TILE_SIZE = 12;
+	private static final int RECORD_CHECKSUM_SIZE = 8;
+
+	private File file;
+	// Writes the checkpoints one at a time, without keeping the program
+	// running once everything else has stopped.
+	private ExecutorService writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "Checkpointer");
+
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	// The checkpoint being written, and what it was taken from.
+	private Future<?> pending;
+	private MineGrid lastGame;
+	private long lastVersion;
+	private long lastTimeTaken;
+	// Set once closed, after which no more checkpoints are taken.
+	private boolean closed;
+	// Set by the writer when a checkpoint fails, so the next is written whole.
+	private volatile boolean failed;
+	private volatile Exception lastError;
+	// The writer's open file and the size of the records written to it.
+	private FileChannel channel;
+	private long recordsSize;
+
+	/**
+	 * Constructs an instance that keeps its checkpoints in the given file.
+	 */
+	public Checkpointer(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Loads the game kept by checkpoints in the given file.
+	 *
+	 * @throws	IOException	if the file can't be read or isn't a checkpoint
+	 */
+	public static MineGrid restore(File file) throws IOException {
+		MineGrid game = MineGrid.load(file);
+		CellStore store = game.getStore();
+		long start = MineGrid.SAVE_HEADER_SIZE + (long)game.getWidth() * game.getHeight() * game.getDepth();
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		MappedByteBuffer records;
+		ByteBuffer body;
+		CRC32 checksum = new CRC32();
+		int length;
+		int numTiles;
+		long cell;
+
+		try {
+			records = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.max(0, channel.size() - start));
+		}
+		finally {
+			channel.close();
+		}
+
+		while (records.remaining() >= RECORD_HEADER_SIZE && records.getInt() == RECORD_MAGIC) {
+			length = records.getInt();
+			if (length < 0 || records.remaining() < length + RECORD_CHECKSUM_SIZE) {
+				break;
+			}
+			body = records.slice();
+			body.limit(length);
+			records.position(records.position() + length);
+			checksum.reset();
+			checksum.update(body.duplicate());
+			if (records.getLong() != checksum.getValue()) {
+				break;
+			}
+
+			game.readCounters(body);
+			numTiles = body.getInt();
+			for (int i = 0; i < numTiles; i++) {
+				cell = body.getLong();
+				length = body.getInt();
+				for (int j = 0; j < length; j++) {
+					store.set(cell + j, body.get() & 0xFF);
+				}
+			}
+		}
+		return game;
+	}
+
+	/**
+	 * Starts writing a checkpoint of the game if it has changed since the
+	 * last one, unless the last one is still being written. The clock of a
+	 * game being played counts as a change, so a record of only the counters
+	 * keeps the time taken while the player pauses. Only the time it takes
+	 * to fork the game is spent on the calling thread. A finished game
+	 * removes the checkpoint instead. Infinite grids and grids kept off the
+	 * heap can't be forked cheaply, so they are never checkpointed, and
+	 * nothing is checkpointed once closed.
+	 *
+	 * @return	whether a checkpoint was started
+	 */
+	public boolean checkpoint(MineGrid game) {
+		final MineGrid snapshot;
+		final BitSet changedTiles = new BitSet();
+		final boolean whole = game != lastGame || failed;
+
+		if (closed || game == null || game.isInfinite() || !game.canFork() || isWriting()) {
+			return false;
+		}
+		if (!whole && game.getView().getVersion() == lastVersion && game.getTimeTaken() == lastTimeTaken) {
+			return false;
+		}
+		snapshot = game.checkpoint(changedTiles);
+		failed = false;
+		lastGame = game;
+		lastVersion = game.getView().getVersion();
+		lastTimeTaken = game.getTimeTaken();
+
+		pending = writer.submit(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					write(snapshot, changedTiles, whole);
+				}
+				catch (IOException e) {
+					fail(e);
+				}
+				catch (RuntimeException e) {
+					fail(e);
+				}
+			}
+		});
+		return true;
+	}
+
+	/**
+	 * Returns the error that stopped the last failed checkpoint from being
+	 * written, or null if none has failed.
+	 */
+	public Exception getLastError() {
+		return lastError;
+	}
+
+	/**
+	 * Returns whether a checkpoint is still being written.
+	 */
+	public boolean isWriting() {
+		return pending != null && !pending.isDone();
+	}
+
+	/**
+	 * Takes a last checkpoint of the game and stops the writer once it has
+	 * been written, without waiting for it. Closing again does nothing.
+	 */
+	public void close(MineGrid game) {
+		if (closed) {
+			return;
+		}
+		if (isWriting()) {
+			// Whatever changed after the checkpoint being written is written
+			// whole once it finishes.
+			failed = true;
+			pending = null;
+		}
+		checkpoint(game);
+		closed = true;
+		writer.submit(new Runnable() {
+			@Override
+			public void run() {
+				closeChannel();
+			}
+		});
+		writer.shutdown();
+	}
+
+	/**
+	 * Waits for the writer to stop after close.
+	 *
+	 * @return	whether the writer stopped in time
+	 */
+	public boolean awaitClose(long timeout, TimeUnit unit) throws InterruptedException {
+		return writer.awaitTermination(timeout, unit);
+	}
+
+	/**
+	 * Writes a checkpoint, whole or as a record of the changed tiles. A
+	 * record can't follow a finished game, since its file was removed.
+	 */
+	private void write(MineGrid snapshot, BitSet changedTiles, boolean whole) throws IOException {
+		MineGrid.GameState state = snapshot.getGameState();
+		long numCells = (long)snapshot.getWidth() * snapshot.getHeight() * snapshot.getDepth();
+		ByteBuffer record;
+
+		if (state == MineGrid.GameState.WON || state == MineGrid.GameState.LOST) {
+			closeChannel();
+			file.delete();
+			return;
+		}
+		if (!whole && channel != null && recordsSize + recordSize(snapshot, changedTiles) <= numCells) {
+			record = createRecord(snapshot, changedTiles);
+			while (record.hasRemaining()) {
+				channel.write(record);
+			}
+			channel.force(false);
+			recordsSize += record.limit();
+			return;
+		}
+
+		closeChannel();
+		snapshot.save(file);
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		recordsSize = 0;
+	}
+
+	/**
+	 * Returns the size of the record of the given changed tiles.
+	 */
+	private static long recordSize(MineGrid snapshot, BitSet changedTiles) {
+		return RECORD_HEADER_SIZE + MineGrid.SAVE_COUNTERS_SIZE + 4
+				+ (long)changedTiles.cardinality() * (RECORD_TILE_SIZE + snapshot.getStore().getTileCells())
+				+ RECORD_CHECKSUM_SIZE;
+	}
+
+	/**
+	 * Returns a record of the game's counters and the cells of the changed
+	 * tiles, ready to be written.
+	 */
+	private static ByteBuffer createRecord(MineGrid snapshot, BitSet changedTiles) {
+		CellStore store = snapshot.getStore();
+		long numCells = (long)snapshot.getWidth() * snapshot.getHeight() * snapshot.getDepth();
+		ByteBuffer record = ByteBuffer.allocate((int)recordSize(snapshot, changedTiles));
+		CRC32 checksum = new CRC32();
+		ByteBuffer body;
+		long cell;
+		int length;
+
+		record.putInt(RECORD_MAGIC);
+		record.putInt(0);
+		snapshot.writeCounters(record);
+		record.putInt(changedTiles.cardinality());
+		for (int tile = changedTiles.nextSetBit(0); tile >= 0; tile = changedTiles.nextSetBit(tile + 1)) {
+			cell = (long)tile * store.getTileCells();
+			length = (int)Math.min(store.getTileCells(), numCells - cell);
+			record.putLong(cell);
+			record.putInt(length);
+			for (int i = 0; i < length; i++) {
+				record.put((byte)store.get(cell + i));
+			}
+		}
+
+		// The last tile may be short, so the length is only known now.
+		record.putInt(4, record.position() - RECORD_HEADER_SIZE);
+		body = record.duplicate();
+		body.flip();
+		body.position(RECORD_HEADER_SIZE);
+		checksum.update(body);
+		record.putLong(checksum.getValue());
+		record.flip();
+		return record;
+	}
+
+	/**
+	 * Notes a checkpoint that couldn't be written, so the next is written
+	 * whole.
+	 */
+	private void fail(Exception e) {
+		lastError = e;
+		failed = true;
+		closeChannel();
+	}
+
+	/**
+	 * Closes the writer's file, if it is open.
+	 */
+	private void closeChannel() {
+		if (channel != null) {
+			try {
+				channel.close();
+			}
+			catch (IOException e) {
+				// The records already written are all that matter.
+			}
+			channel = null;
+		}
+	}
+
+}
@@ -0,0 +1,275 @@
+/**
+ * Automated JUnit tests against the background checkpoints.
+ *
+ * @author arlsr
+ * @date 2014
+ */
+
+package tld.minegrid;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class CheckpointerTest {
+
+	private static final Long RANDOM_SEED = 1L;
+	private MineGridSettings settings;
+	private File file;
+
+	@Before
+	public void setUp() throws Exception {
+		settings = new MineGridSettings();
+		settings.setSeed(RANDOM_SEED);
+		settings.setGridSize(200, 150);
+		settings.setMines(3000);
+		settings.setLives(MineGrid.MAX_LIVES);
+		file = File.createTempFile("minegrid", ".sav");
+		file.deleteOnExit();
+	}
+
+	/**
+	 * Tests a game restores to its last checkpoint, through both appended
+	 * records and rewrites of the whole game.
+	 */
+	@Test
+	public void testRestore() throws Exception {
+		Checkpointer checkpointer = new Checkpointer(file);
+		MineGrid game = new MineGrid(settings);
+		MineGrid restored;
+		long length;
+		boolean rewritten = false;
+
+		assertTrue(checkpointer.checkpoint(game));
+		awaitCheckpoint(checkpointer);
+		// Nothing has changed since.
+		assertFalse(checkpointer.checkpoint(game));
+
+		for (int i = 0; i < 40; i++) {
+			length = file.length();
+			game.revealCell(i * 37 % 200, i * 23 % 150);
+			game.flagCell(i * 11 % 200, i * 7 % 150);
+			checkpointer.checkpoint(game);
+			awaitCheckpoint(checkpointer);
+			assertRestored(game, Checkpointer.restore(file));
+			rewritten |= file.length() < length;
+		}
+		// The records outgrew the grid at some point and were folded in.
+		assertTrue(rewritten);
+
+		// A record cut short is ignored, leaving the checkpoint before it.
+		restored = Checkpointer.restore(file);
+		game.revealCell(199, 149);
+		checkpointer.checkpoint(game);
+		awaitCheckpoint(checkpointer);
+		truncate(file, file.length() - 1);
+		assertRestored(restored, Checkpointer.restore(file));
+		checkpointer.close(game);
+	}
+
+	/**
+	 * Tests a record holds every tile changed since the last checkpoint,
+	 * even when the game was forked in between.
+	 */
+	@Test
+	public void testForked() throws Exception {
+		Checkpointer checkpointer = new Checkpointer(file);
+		MineGrid game = new MineGrid(settings);
+
+		checkpointer.checkpoint(game);
+		awaitCheckpoint(checkpointer);
+		game.flagCell(0, 0);
+		game.fork();
+		game.flagCell(100, 75);
+		game.forkWithHistory();
+		game.flagCell(50, 140);
+		new Sampler(game);
+		game.flagCell(199, 149);
+		assertTrue(checkpointer.checkpoint(game));
+		awaitCheckpoint(checkpointer);
+		assertRestored(game, Checkpointer.restore(file));
+		assertNull(checkpointer.getLastError());
+		checkpointer.close(game);
+	}
+
+	/**
+	 * Tests a finished game that is played on after an undo is checkpointed
+	 * again from scratch.
+	 */
+	@Test
+	public void testUndoFinished() throws Exception {
+		Checkpointer checkpointer = new Checkpointer(file);
+		MineGrid game;
+		CellStore store;
+		long flagged = -1;
+		long zero = -1;
+		long mine = -1;
+
+		// With a few mines, losing and undoing it only change a few tiles.
+		settings.setMines(5);
+		settings.setLives(1);
+		game = new MineGrid(settings);
+		store = game.getStore();
+		for (long cell = 0; cell < 200 * 150; cell++) {
+			if ((store.get(cell) & CellStore.MINE_BIT) != 0) {
+				mine = cell;
+			}
+			else if (flagged < 0) {
+				flagged = cell;
+			}
+			else if ((store.get(cell) & CellStore.SCORE_MASK) == 0) {
+				zero = cell;
+			}
+		}
+		// A flagged safe cell keeps the cascade from winning the game.
+		game.flagCell(game.cellX(flagged), game.cellY(flagged));
+		game.revealCell(game.cellX(zero), game.cellY(zero));
+		checkpointer.checkpoint(game);
+		awaitCheckpoint(checkpointer);
+		game.revealCell(game.cellX(mine), game.cellY(mine));
+		assertEquals(MineGrid.GameState.LOST, game.getGameState());
+		assertTrue(checkpointer.checkpoint(game));
+		awaitCheckpoint(checkpointer);
+		assertFalse(file.exists());
+
+		assertTrue(game.undo());
+		game.flagCell(game.cellX(mine), game.cellY(mine));
+		assertTrue(checkpointer.checkpoint(game));
+		awaitCheckpoint(checkpointer);
+		assertRestored(game, Checkpointer.restore(file));
+		game.flagCell(game.cellX(mine), game.cellY(mine));
+		assertTrue(checkpointer.checkpoint(game));
+		awaitCheckpoint(checkpointer);
+		assertRestored(game, Checkpointer.restore(file));
+		assertNull(checkpointer.getLastError());
+		checkpointer.close(game);
+	}
+
+	/**
+	 * Tests games that can't be forked cheaply are turned away before
+	 * anything is written.
+	 */
+	@Test
+	public void testUnsupported() throws Exception {
+		Checkpointer checkpointer = new Checkpointer(file);
+		MineGrid offHeap;
+		MineGrid infinite;
+
+		settings.setStorage(MineGrid.STORAGE_OFF_HEAP, null);
+		offHeap = new MineGrid(settings);
+		offHeap.revealCell(10, 10);
+		assertFalse(checkpointer.checkpoint(offHeap));
+
+		settings.setStorage(MineGrid.STORAGE_HEAP, null);
+		settings.setInfinite(true);
+		infinite = new MineGrid(settings);
+		infinite.revealCell(10, 10);
+		assertTrue(infinite.canFork());
+		assertFalse(checkpointer.checkpoint(infinite));
+
+		assertFalse(checkpointer.isWriting());
+		assertNull(checkpointer.getLastError());
+		assertEquals(0, file.length());
+		checkpointer.close(infinite);
+		assertTrue(checkpointer.awaitClose(10, TimeUnit.SECONDS));
+	}
+
+	/**
+	 * Tests the time taken is checkpointed while the player pauses, with
+	 * nothing else changed.
+	 */
+	@Test
+	public void testElapsed() throws Exception {
+		Checkpointer checkpointer = new Checkpointer(file);
+		MineGrid game = new MineGrid(settings);
+		long length;
+		long timeTaken;
+
+		game.revealCell(10, 10);
+		checkpointer.checkpoint(game);
+		awaitCheckpoint(checkpointer);
+		length = file.length();
+		Thread.sleep(50);
+		timeTaken = game.getTimeTaken();
+		assertTrue(checkpointer.checkpoint(game));
+		awaitCheckpoint(checkpointer);
+		assertTrue(file.length() > length);
+		assertTrue(Checkpointer.restore(file).getTimeTaken() >= timeTaken);
+		checkpointer.close(game);
+	}
+
+	/**
+	 * Tests closing writes the last checkpoint, and a finished game leaves
+	 * nothing to restore. Nothing more is checkpointed once closed.
+	 */
+	@Test
+	public void testClose() throws Exception {
+		Checkpointer checkpointer = new Checkpointer(file);
+		MineGrid game = new MineGrid(settings);
+
+		checkpointer.checkpoint(game);
+		game.revealCell(10, 10);
+		checkpointer.close(game);
+		assertTrue(checkpointer.awaitClose(10, TimeUnit.SECONDS));
+		assertRestored(game, Checkpointer.restore(file));
+		// A tick after closing is ignored rather than given to the stopped
+		// writer.
+		game.revealCell(100, 100);
+		assertFalse(checkpointer.checkpoint(game));
+		checkpointer.close(game);
+		assertNull(checkpointer.getLastError());
+
+		checkpointer = new Checkpointer(file);
+		settings.setLives(1);
+		game = new MineGrid(settings);
+		for (int i = 0; game.getGameState() != MineGrid.GameState.LOST; i++) {
+			game.revealCell(i % 200, i / 200);
+		}
+		checkpointer.close(game);
+		assertTrue(checkpointer.awaitClose(10, TimeUnit.SECONDS));
+		assertFalse(file.exists());
+	}
+
+	/**
+	 * Waits for the checkpoint being written to finish.
+	 */
+	private void awaitCheckpoint(Checkpointer checkpointer) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 10000;
+
+		while (checkpointer.isWriting() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(1);
+		}
+		assertFalse(checkpointer.isWriting());
+	}
+
+	/**
+	 * Checks a restored game matches the original.
+	 */
+	private void assertRestored(MineGrid game, MineGrid restored) {
+		assertArrayEquals(game.getGrid(), restored.getGrid());
+		assertEquals(game.getGameState(), restored.getGameState());
+		assertEquals(game.getLives(), restored.getLives());
+		assertEquals(game.getNumFlags(), restored.getNumFlags());
+	}
+
+	/**
+	 * Cuts a file down to the given length.
+	 */
+	private void truncate(File file, long length) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+
+		try {
+			raf.setLength(length);
+		}
+		finally {
+			raf.close();
+		}
+	}
+
+}
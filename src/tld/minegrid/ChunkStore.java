@@ -0,0 +1,318 @@
+/**
+ * Cell storage for an infinite grid, split into square chunks that are
+ * generated the first time they are needed.
+ *
+ * Cell ids pack the y coordinate into the high 32 bits and the x coordinate
+ * into the low 32 bits. The mines of each chunk are chosen from a hash of
+ * the game seed and the chunk coordinates, so a chunk the player hasn't
+ * touched can be dropped and later regenerated exactly as it was. Forks
+ * share chunks until one of the stores writes to them.
+ *
+ * @author arlsr
+ * @date 2014
+ */
+
+package tld.minegrid;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+class ChunkStore extends CellStore {
+	static final int CHUNK_BITS = 6;
+	static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+	static final int CHUNK_CELLS = CHUNK_SIZE * CHUNK_SIZE;
+	// Untouched chunks kept before they are evicted.
+	private static final int MAX_IDLE_CHUNKS = 256;
+	// Mine layouts kept for counting mines across chunk borders.
+	private static final int MAX_LAYOUTS = 1024;
+
+	/**
+	 * The cells of a chunk along with whether the player has changed any.
+	 */
+	private static class Chunk {
+		private byte[] cells = new byte[CHUNK_CELLS];
+		private boolean touched = false;
+		// Whether the chunk is held by more than one store since a fork.
+		private boolean shared = false;
+	}
+
+	private long seed;
+	private int chunkMines;
+	private HashMap<Long, Chunk> chunks = new HashMap<Long, Chunk>();
+	private int idleChunks;
+	// Mine bits of recently generated chunks, one bit per cell.
+	private LinkedHashMap<Long, long[]> layouts = new LinkedHashMap<Long, long[]>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, long[]> eldest) {
+			return size() > MAX_LAYOUTS;
+		}
+	};
+	// The last chunk used, since runs of lookups tend to stay in one chunk.
+	private long lastKey;
+	private Chunk lastChunk;
+
+	/**
+	 * Constructs an empty store.
+	 *
+	 * @param	seed		the game seed that every chunk layout is derived from
+	 * @param	chunkMines	the number of mines in each chunk
+	 */
+	public ChunkStore(long seed, int chunkMines) {
+		this.seed = seed;
+		this.chunkMines = chunkMines;
+	}
+
+	/**
+	 * Returns the cell id of the given coordinates.
+	 */
+	static long cellId(int x, int y) {
+		return ((long)y << 32) | (x & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Returns the x coordinate of a cell id.
+	 */
+	static int cellX(long cell) {
+		return (int)cell;
+	}
+
+	/**
+	 * Returns the y coordinate of a cell id.
+	 */
+	static int cellY(long cell) {
+		return (int)(cell >> 32);
+	}
+
+	@Override
+	int get(long cell) {
+		return chunkOf(cell).cells[localIndex(cell)] & 0xFF;
+	}
+
+	@Override
+	void set(long cell, int bits) {
+		Chunk chunk = chunkOf(cell);
+
+		if (chunk.shared) {
+			chunk = copyChunk(cell, chunk);
+		}
+		chunk.cells[localIndex(cell)] = (byte)bits;
+		if (!chunk.touched && (bits & (REVEALED_BIT | FLAG_BIT)) != 0) {
+			chunk.touched = true;
+			idleChunks--;
+		}
+	}
+
+	/**
+	 * Reveals every cell of the chunks the player has touched.
+	 */
+	@Override
+	void revealAll(CellChanges changes) {
+		long key;
+		int originX;
+		int originY;
+		byte[] cells;
+
+		for (Map.Entry<Long, Chunk> entry : chunks.entrySet()) {
+			if (entry.getValue().touched) {
+				key = entry.getKey();
+				originX = cellX(key) << CHUNK_BITS;
+				originY = cellY(key) << CHUNK_BITS;
+				if (entry.getValue().shared) {
+					entry.setValue(copyOf(entry.getValue()));
+				}
+				cells = entry.getValue().cells;
+				for (int i = 0; i < CHUNK_CELLS; i++) {
+					if ((cells[i] & REVEALED_BIT) == 0) {
+						cells[i] |= REVEALED_BIT;
+						changes.add(cellId(originX + (i & (CHUNK_SIZE - 1)), originY + (i >> CHUNK_BITS)),
+								MineGrid.stateOf(cells[i] & 0xFF));
+					}
+				}
+			}
+		}
+		lastChunk = null;
+	}
+
+	@Override
+	boolean canFork() {
+		return true;
+	}
+
+	@Override
+	CellStore fork() {
+		ChunkStore copy = new ChunkStore(seed, chunkMines);
+
+		for (Chunk chunk : chunks.values()) {
+			chunk.shared = true;
+		}
+		copy.chunks.putAll(chunks);
+		copy.idleChunks = idleChunks;
+		// Layouts are never changed once generated.
+		copy.layouts.putAll(layouts);
+		return copy;
+	}
+
+	/**
+	 * Returns the number of chunks currently held.
+	 */
+	int getLoadedChunks() {
+		return chunks.size();
+	}
+
+	/**
+	 * Returns the index of a cell within its chunk.
+	 */
+	private static int localIndex(long cell) {
+		return ((cellY(cell) & (CHUNK_SIZE - 1)) << CHUNK_BITS) | (cellX(cell) & (CHUNK_SIZE - 1));
+	}
+
+	/**
+	 * Returns the chunk holding a cell, generating it if needed.
+	 */
+	private Chunk chunkOf(long cell) {
+		long key = cellId(cellX(cell) >> CHUNK_BITS, cellY(cell) >> CHUNK_BITS);
+		Chunk chunk;
+
+		if (lastChunk != null && key == lastKey) {
+			return lastChunk;
+		}
+		chunk = chunks.get(key);
+		if (chunk == null) {
+			if (idleChunks >= MAX_IDLE_CHUNKS) {
+				evictIdleChunks();
+			}
+			chunk = createChunk(cellX(key), cellY(key));
+			chunks.put(key, chunk);
+			idleChunks++;
+		}
+		lastKey = key;
+		lastChunk = chunk;
+		return chunk;
+	}
+
+	/**
+	 * Replaces a shared chunk with this store's own copy.
+	 *
+	 * @return	the copied chunk
+	 */
+	private Chunk copyChunk(long cell, Chunk chunk) {
+		Chunk copy = copyOf(chunk);
+
+		chunks.put(cellId(cellX(cell) >> CHUNK_BITS, cellY(cell) >> CHUNK_BITS), copy);
+		lastChunk = copy;
+		return copy;
+	}
+
+	/**
+	 * Returns an unshared copy of a chunk.
+	 */
+	private static Chunk copyOf(Chunk chunk) {
+		Chunk copy = new Chunk();
+
+		System.arraycopy(chunk.cells, 0, copy.cells, 0, CHUNK_CELLS);
+		copy.touched = chunk.touched;
+		return copy;
+	}
+
+	/**
+	 * Drops every chunk the player hasn't touched.
+	 */
+	private void evictIdleChunks() {
+		Iterator<Chunk> it = chunks.values().iterator();
+
+		while (it.hasNext()) {
+			if (!it.next().touched) {
+				it.remove();
+			}
+		}
+		idleChunks = 0;
+		lastChunk = null;
+	}
+
+	/**
+	 * Generates a chunk's mines and the neighbour count of each of its cells,
+	 * looking at the layouts of the surrounding chunks for cells on its edges.
+	 */
+	private Chunk createChunk(int chunkX, int chunkY) {
+		Chunk chunk = new Chunk();
+		long[][] around = new long[9][];
+		int lx;
+		int ly;
+
+		for (int i = 0; i < 9; i++) {
+			around[i] = layoutOf(chunkX + i % 3 - 1, chunkY + i / 3 - 1);
+		}
+
+		// Add each mine in or bordering the chunk to its neighbours' counts.
+		for (int y = -1; y <= CHUNK_SIZE; y++) {
+			for (int x = -1; x <= CHUNK_SIZE; x++) {
+				if (isMine(around, x, y)) {
+					for (int ny = Math.max(0, y - 1); ny <= Math.min(CHUNK_SIZE - 1, y + 1); ny++) {
+						for (int nx = Math.max(0, x - 1); nx <= Math.min(CHUNK_SIZE - 1, x + 1); nx++) {
+							if (nx != x || ny != y) {
+								chunk.cells[(ny << CHUNK_BITS) | nx]++;
+							}
+						}
+					}
+					if (x >= 0 && x < CHUNK_SIZE && y >= 0 && y < CHUNK_SIZE) {
+						chunk.cells[(y << CHUNK_BITS) | x] |= MINE_BIT;
+					}
+				}
+			}
+		}
+		return chunk;
+	}
+
+	/**
+	 * Returns whether there is a mine at the given position relative to the
+	 * centre chunk of a 3x3 block of layouts.
+	 */
+	private static boolean isMine(long[][] around, int x, int y) {
+		int chunk = ((y + CHUNK_SIZE) >> CHUNK_BITS) * 3 + ((x + CHUNK_SIZE) >> CHUNK_BITS);
+		int local = ((y & (CHUNK_SIZE - 1)) << CHUNK_BITS) | (x & (CHUNK_SIZE - 1));
+
+		return (around[chunk][local >> 6] & (1L << local)) != 0;
+	}
+
+	/**
+	 * Returns the mine bits of a chunk, choosing them by Floyd's sampling
+	 * algorithm from a random generator seeded for that chunk.
+	 */
+	private long[] layoutOf(int chunkX, int chunkY) {
+		long key = cellId(chunkX, chunkY);
+		long[] layout = layouts.get(key);
+		Random rand;
+		int mine;
+
+		if (layout == null) {
+			layout = new long[CHUNK_CELLS / 64];
+			rand = new Random(chunkSeed(chunkX, chunkY));
+			for (int j = CHUNK_CELLS - chunkMines; j < CHUNK_CELLS; j++) {
+				mine = rand.nextInt(j + 1);
+				if ((layout[mine >> 6] & (1L << mine)) != 0) {
+					mine = j;
+				}
+				layout[mine >> 6] |= 1L << mine;
+			}
+			layouts.put(key, layout);
+		}
+		return layout;
+	}
+
+	/**
+	 * Mixes the game seed with the chunk coordinates.
+	 */
+	private long chunkSeed(int chunkX, int chunkY) {
+		long h = seed ^ (chunkX * 0x9E3779B97F4A7C15L) ^ (chunkY * 0xC2B2AE3D27D4EB4FL);
+
+		h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+		h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+		return h ^ (h >>> 31);
+	}
+
+}
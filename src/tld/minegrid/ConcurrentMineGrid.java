@@ -0,0 +1,377 @@
+/**
+ * A bounded game that many threads can play at once, for boards shared by
+ * several players.
+ *
+ * Cells are updated by compare-and-set so each cell is revealed or flagged
+ * by exactly one thread, and the counters are atomic. The game's status
+ * only ever moves forward by compare-and-set, so whichever action ends the
+ * game does so exactly once and every thread agrees on the result. Layouts
+ * match a MineGrid built from the same settings.
+ *
+ * @author arlsr
+ * @date 2014
+ */
+
+package tld.minegrid;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class ConcurrentMineGrid {
+
+	/**
+	 * The game state along with when it began and ended, replaced as a whole
+	 * so readers always see a consistent set.
+	 */
+	private static class Status {
+		private final MineGrid.GameState state;
+		private final long startTime;
+		private final long endTime;
+
+		public Status(MineGrid.GameState state, long startTime, long endTime) {
+			this.state = state;
+			this.startTime = startTime;
+			this.endTime = endTime;
+		}
+	}
+
+	/**
+	 * Read-only view of the grid's visible state.
+	 */
+	private class View implements GridView {
+
+		@Override
+		public int getWidth() {
+			return gridWidth;
+		}
+
+		@Override
+		public int getHeight() {
+			return gridHeight;
+		}
+
+		@Override
+		public int getDepth() {
+			return 1;
+		}
+
+		@Override
+		public int stateAt(int x, int y) {
+			return MineGrid.stateOf(store.get((long)y * gridWidth + x));
+		}
+
+		@Override
+		public int stateAt(int x, int y, int z) {
+			return stateAt(x, y);
+		}
+
+		@Override
+		public void readRow(int y, int[] dest, int offset) {
+			long cell = (long)y * gridWidth;
+
+			for (int x = 0; x < gridWidth; x++) {
+				dest[offset + x] = MineGrid.stateOf(store.get(cell + x));
+			}
+		}
+
+		@Override
+		public void readSlice(int z, int[] dest, int offset) {
+			for (int y = 0; y < gridHeight; y++) {
+				readRow(y, dest, offset + y * gridWidth);
+			}
+		}
+
+		@Override
+		public long getVersion() {
+			return version.get();
+		}
+	}
+
+	private int gridWidth;
+	private int gridHeight;
+	private int numMines;
+	private AtomicCellStore store;
+	private Topology topology;
+	private AtomicReference<Status> status = new AtomicReference<Status>(
+			new Status(MineGrid.GameState.PRESTART, 0, 0));
+	private AtomicLong possibles;
+	private AtomicInteger lives;
+	private AtomicInteger numFlags;
+	private AtomicLong version = new AtomicLong();
+	private GridView view = new View();
+	// Each thread's work list for flood reveals.
+	private ThreadLocal<long[]> revealStacks = new ThreadLocal<long[]>() {
+		@Override
+		protected long[] initialValue() {
+			return new long[64];
+		}
+	};
+	// Each thread's buffer for the neighbours of the cell being expanded.
+	private ThreadLocal<long[]> neighbourBuffers = new ThreadLocal<long[]>() {
+		@Override
+		protected long[] initialValue() {
+			return new long[topology.getMaxNeighbours()];
+		}
+	};
+
+	/**
+	 * Constructs an instance using the given game settings, which must
+	 * describe a bounded grid of one layer. Layouts that need no guesses
+	 * aren't offered, since there's no one first cell to plant them around.
+	 *
+	 * @param	settings	game settings to use for this game
+	 */
+	public ConcurrentMineGrid(MineGridSettings settings) {
+		Long seed = settings.getSeed();
+
+		if (settings.isInfinite()) {
+			throw new IllegalArgumentException("Shared grids must be bounded");
+		}
+		if (settings.getDepth() != 1) {
+			throw new IllegalArgumentException("Shared grids can only have one layer");
+		}
+		if (settings.isNoGuess()) {
+			throw new IllegalArgumentException("Shared grids can't wait for a first cell to plant around");
+		}
+		gridWidth = settings.getGridWidth();
+		gridHeight = settings.getGridHeight();
+		numMines = settings.getMines();
+		store = new AtomicCellStore(gridWidth * gridHeight);
+		topology = new Topology(settings.getTopology(), gridWidth, gridHeight, 1);
+		possibles = new AtomicLong((long)gridWidth * gridHeight);
+		lives = new AtomicInteger(settings.getLives());
+		numFlags = new AtomicInteger(numMines);
+
+		if (seed == null) {
+			seed = new Random().nextLong();
+		}
+		new MinePlanter(topology, gridWidth, gridHeight, 1).plant(store, numMines, settings.getGeneratorVersion(),
+				seed.longValue(), true);
+	}
+
+	/**
+	 * Toggles a flag at the target cell coordinates.
+	 *
+	 * @param	x	the x coordinate of the cell
+	 * @param	y	the y coordinate of the cell
+	 * @return	whether a flag is now present
+	 * @throws	IndexOutOfBoundsException	if the cell is outside the grid
+	 */
+	public boolean flagCell(int x, int y) {
+		long cell = cellId(x, y);
+		int bits;
+
+		if (!playerActed()) {
+			return (store.get(cell) & CellStore.FLAG_BIT) != 0;
+		}
+		do {
+			bits = store.get(cell);
+			// Only allow flag operations on unknown cells.
+			if ((bits & CellStore.REVEALED_BIT) != 0) {
+				return false;
+			}
+		} while (!store.compareAndSet(cell, bits, bits ^ CellStore.FLAG_BIT));
+
+		if ((bits & CellStore.FLAG_BIT) == 0) {
+			numFlags.decrementAndGet();
+		}
+		else {
+			numFlags.incrementAndGet();
+		}
+		version.incrementAndGet();
+		return (bits & CellStore.FLAG_BIT) == 0;
+	}
+
+	/**
+	 * Reveals the cell at the given coordinates, along with any cells opened
+	 * up by it. A mine that is already revealed doesn't cost another life.
+	 *
+	 * @param	x	the x coordinate of the cell
+	 * @param	y	the y coordinate of the cell
+	 * @return	the state of the cell
+	 * @throws	IndexOutOfBoundsException	if the cell is outside the grid
+	 */
+	public int revealCell(int x, int y) {
+		long cell = cellId(x, y);
+		int bits;
+
+		if (playerActed() && revealBits(cell)) {
+			bits = store.get(cell);
+			if ((bits & CellStore.MINE_BIT) != 0) {
+				if (lives.decrementAndGet() <= 0) {
+					endGame(MineGrid.GameState.LOST);
+				}
+			}
+			else {
+				if ((bits & CellStore.SCORE_MASK) == 0) {
+					floodReveal(cell);
+				}
+				if (possibles.get() == numMines && lives.get() > 0) {
+					endGame(MineGrid.GameState.WON);
+				}
+			}
+			version.incrementAndGet();
+		}
+		return MineGrid.stateOf(store.get(cell));
+	}
+
+	/**
+	 * Returns the current game state.
+	 */
+	public MineGrid.GameState getGameState() {
+		return status.get().state;
+	}
+
+	/**
+	 * Returns the number of cells that make up the height of the grid.
+	 */
+	public int getHeight() {
+		return gridHeight;
+	}
+
+	/**
+	 * Returns the number of lives remaining.
+	 */
+	public int getLives() {
+		return lives.get();
+	}
+
+	/**
+	 * Returns the number of flags remaining.
+	 */
+	public int getNumFlags() {
+		return numFlags.get();
+	}
+
+	/**
+	 * Returns the time taken playing the game so far.
+	 */
+	public long getTimeTaken() {
+		Status current = status.get();
+		long timeTaken = 0;
+
+		if (current.state == MineGrid.GameState.STARTED) {
+			timeTaken = System.currentTimeMillis() - current.startTime;
+		}
+		else if (current.state != MineGrid.GameState.PRESTART) {
+			timeTaken = current.endTime - current.startTime;
+		}
+		return timeTaken;
+	}
+
+	/**
+	 * Returns the number of mines in total.
+	 */
+	public int getTotalMines() {
+		return numMines;
+	}
+
+	/**
+	 * Returns a read-only view of the grid.
+	 */
+	public GridView getView() {
+		return view;
+	}
+
+	/**
+	 * Returns the number of cells that make up the width of the grid.
+	 */
+	public int getWidth() {
+		return gridWidth;
+	}
+
+	/**
+	 * Returns the cell id of the given coordinates.
+	 *
+	 * @throws	IndexOutOfBoundsException	if the coordinates lie outside the grid
+	 */
+	private long cellId(int x, int y) {
+		if (x < 0 || x >= gridWidth || y < 0 || y >= gridHeight) {
+			throw new IndexOutOfBoundsException("No cell at " + x + ", " + y);
+		}
+		return (long)y * gridWidth + x;
+	}
+
+	/**
+	 * Moves a started game to the given end state unless another thread has
+	 * already ended it, then reveals the grid.
+	 */
+	private void endGame(MineGrid.GameState endState) {
+		Status current = status.get();
+
+		while (current.state == MineGrid.GameState.STARTED) {
+			if (status.compareAndSet(current, new Status(endState, current.startTime, System.currentTimeMillis()))) {
+				store.revealAll(null);
+				return;
+			}
+			current = status.get();
+		}
+	}
+
+	/**
+	 * Reveals every unknown cell connected to the given zero cell through
+	 * other zero cells, using the calling thread's work list.
+	 */
+	private void floodReveal(long start) {
+		long[] stack = revealStacks.get();
+		long[] around = neighbourBuffers.get();
+		int top = 0;
+		int count;
+
+		stack[top++] = start;
+		while (top > 0) {
+			count = topology.neighbours(stack[--top], around);
+			for (int i = 0; i < count; i++) {
+				// Only the thread that reveals a zero cell expands it.
+				if (revealBits(around[i]) && (store.get(around[i]) & CellStore.SCORE_MASK) == 0) {
+					if (top == stack.length) {
+						stack = Arrays.copyOf(stack, top * 2);
+						revealStacks.set(stack);
+					}
+					stack[top++] = around[i];
+				}
+			}
+		}
+	}
+
+	/**
+	 * Starts the game on the first action.
+	 *
+	 * @return	whether the game is still being played
+	 */
+	private boolean playerActed() {
+		Status current = status.get();
+
+		while (current.state == MineGrid.GameState.PRESTART) {
+			status.compareAndSet(current, new Status(MineGrid.GameState.STARTED, System.currentTimeMillis(), 0));
+			current = status.get();
+		}
+		return current.state == MineGrid.GameState.STARTED;
+	}
+
+	/**
+	 * Sets the revealed bit of an unknown, unflagged cell, counting it off
+	 * the possibles if it is safe.
+	 *
+	 * @return	whether this call revealed the cell
+	 */
+	private boolean revealBits(long cell) {
+		int bits;
+
+		do {
+			bits = store.get(cell);
+			if ((bits & (CellStore.REVEALED_BIT | CellStore.FLAG_BIT)) != 0) {
+				return false;
+			}
+		} while (!store.compareAndSet(cell, bits, bits | CellStore.REVEALED_BIT));
+
+		if ((bits & CellStore.MINE_BIT) == 0) {
+			possibles.decrementAndGet();
+		}
+		return true;
+	}
+
+}
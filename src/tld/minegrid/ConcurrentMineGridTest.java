@@ -0,0 +1,208 @@
+/**
+ * Automated JUnit tests against the concurrent game.
+ * 
+ * @author arlsr
+ * @date 2014
+ */
+
+package tld.minegrid;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ConcurrentMineGridTest {
+
+	private static final Long RANDOM_SEED = 1L;
+	private static final int THREADS = 4;
+	private MineGridSettings settings;
+	// The layout of the game, found by revealing a single-threaded copy.
+	private int[][] layout;
+
+	@Before
+	public void setUp() throws Exception {
+		MineGrid mg;
+
+		settings = new MineGridSettings();
+		settings.setSeed(RANDOM_SEED);
+		settings.setGridSize(120, 80);
+		settings.setMines(900);
+
+		settings.setLives(Integer.MAX_VALUE);
+		mg = new MineGrid(settings);
+		for (int y = 0; y < mg.getHeight(); y++) {
+			for (int x = 0; x < mg.getWidth(); x++) {
+				mg.revealCell(x, y);
+			}
+		}
+		layout = mg.getGrid();
+		settings.setLives(THREADS);
+	}
+
+	/**
+	 * Tests the concurrent game has the same layout as a MineGrid.
+	 */
+	@Test
+	public void testLayout() {
+		ConcurrentMineGrid game = new ConcurrentMineGrid(settings);
+
+		for (int y = 0; y < 80; y++) {
+			for (int x = 0; x < 120; x++) {
+				if (layout[y][x] != MineGrid.MINE) {
+					assertEquals(layout[y][x], game.revealCell(x, y));
+				}
+			}
+		}
+		assertEquals(MineGrid.GameState.WON, game.getGameState());
+		assertEquals(THREADS, game.getLives());
+
+		// Cells off the grid are refused rather than wrapping onto the next row.
+		try {
+			game.flagCell(120, 0);
+			fail("There is no cell at 120, 0");
+		}
+		catch (IndexOutOfBoundsException e) {
+		}
+	}
+
+	/**
+	 * Tests settings the concurrent game can't play are turned down.
+	 */
+	@Test
+	public void testUnsupported() {
+		settings.setInfinite(true);
+		try {
+			new ConcurrentMineGrid(settings);
+			fail("Shared grids can't be infinite");
+		}
+		catch (IllegalArgumentException e) {
+		}
+		settings.setInfinite(false);
+
+		settings.setDepth(2);
+		try {
+			new ConcurrentMineGrid(settings);
+			fail("Shared grids can't be layered");
+		}
+		catch (IllegalArgumentException e) {
+		}
+		settings.setDepth(1);
+
+		settings.setNoGuess(true);
+		try {
+			new ConcurrentMineGrid(settings);
+			fail("Shared grids can't plant around a first cell");
+		}
+		catch (IllegalArgumentException e) {
+		}
+	}
+
+	/**
+	 * Tests threads revealing overlapping areas at once win the game exactly
+	 * once with every safe cell revealed.
+	 */
+	@Test
+	public void testConcurrentReveals() throws InterruptedException {
+		for (int round = 0; round < 10; round++) {
+			final ConcurrentMineGrid game = new ConcurrentMineGrid(settings);
+
+			runThreads(new Action() {
+				@Override
+				public void run(int thread) {
+					// Each thread sweeps the whole grid from a different row.
+					for (int i = 0; i < 80; i++) {
+						int y = (i + thread * 20) % 80;
+						for (int x = 0; x < 120; x++) {
+							if (layout[y][x] != MineGrid.MINE) {
+								game.revealCell(x, y);
+							}
+						}
+					}
+				}
+			});
+			assertEquals(MineGrid.GameState.WON, game.getGameState());
+			assertArrayEquals(layout[0], row(game, 0));
+			assertArrayEquals(layout[79], row(game, 79));
+		}
+	}
+
+	/**
+	 * Tests flag counts stay exact when threads flag at once, and the game is
+	 * lost exactly when the last life goes.
+	 */
+	@Test
+	public void testConcurrentFlagsAndLosing() throws InterruptedException {
+		final ConcurrentMineGrid game = new ConcurrentMineGrid(settings);
+
+		runThreads(new Action() {
+			@Override
+			public void run(int thread) {
+				for (int y = thread; y < 80; y += THREADS) {
+					for (int x = 0; x < 120; x++) {
+						if (layout[y][x] == MineGrid.MINE) {
+							game.flagCell(x, y);
+						}
+					}
+				}
+			}
+		});
+		assertEquals(0, game.getNumFlags());
+		assertEquals(MineGrid.GameState.STARTED, game.getGameState());
+
+		runThreads(new Action() {
+			@Override
+			public void run(int thread) {
+				// Each thread unflags and reveals one mine of its own.
+				for (int x = 0; x < 120; x++) {
+					if (layout[thread][x] == MineGrid.MINE) {
+						game.flagCell(x, thread);
+						game.revealCell(x, thread);
+						return;
+					}
+				}
+			}
+		});
+		assertEquals(MineGrid.GameState.LOST, game.getGameState());
+		assertEquals(0, game.getLives());
+	}
+
+	/**
+	 * Something each test thread does, given its number.
+	 */
+	private interface Action {
+		public void run(int thread);
+	}
+
+	/**
+	 * Runs the action on several threads at once and waits for them all.
+	 */
+	private void runThreads(final Action action) throws InterruptedException {
+		Thread[] threads = new Thread[THREADS];
+
+		for (int i = 0; i < THREADS; i++) {
+			final int thread = i;
+			threads[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					action.run(thread);
+				}
+			});
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+	}
+
+	/**
+	 * Returns the visible states of a row of the game.
+	 */
+	private int[] row(ConcurrentMineGrid game, int y) {
+		int[] row = new int[game.getWidth()];
+
+		game.getView().readRow(y, row, 0);
+		return row;
+	}
+
+}
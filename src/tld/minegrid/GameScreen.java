@@ -9,11 +9,17 @@ package tld.minegrid;
 
 import java.awt.*;
 import java.awt.event.*;
+import java.util.concurrent.ExecutionException;
 
 import javax.swing.*;
+import javax.swing.event.*;
 
 public class GameScreen extends MineGridScreen {
 
+	// The largest grid that can be displayed with a button per cell.
+	public static final int MAX_WIDTH = 50;
+	public static final int MAX_HEIGHT = 50;
+
 	private static final long serialVersionUID = 1L;
 	private static final ImageIcon HEADER_LOGO = new ImageIcon(
 			new ImageIcon("header.png").getImage().getScaledInstance(159, 26, Image.SCALE_SMOOTH));
@@ -27,6 +33,9 @@ public class GameScreen extends MineGridScreen {
 	private JLabel lblTimer = new JLabel();
 	private JLabel lblScore = new JLabel();
 	private JButton btnHome = new JButton("home");
+	// The layer of a three-dimensional grid shown by the buttons.
+	private int layer;
+	private JSpinner spinLayer;
 
 	private String playerName = System.getProperty("user.name");
 
@@ -78,11 +87,15 @@ public class GameScreen extends MineGridScreen {
 
 			// Left click.
 			if (mouseButton == MouseEvent.BUTTON1) {
-				game.revealCell(x, y);
+				game.revealCell(x, y, layer);
+			}
+			// Middle click reveals around a satisfied number.
+			else if (mouseButton == MouseEvent.BUTTON2) {
+				game.chordCell(x, y, layer);
 			}
 			// Right click or any other kind of click.
 			else {
-				game.flagCell(x, y);
+				game.flagCell(x, y, layer);
 			}
 			update();
 		}
@@ -101,6 +114,7 @@ public class GameScreen extends MineGridScreen {
 	 */
 	public void newGame(MineGrid game) {
 		this.game = game;
+		layer = 0;
 		this.removeAll();
 		create();
 	}
@@ -121,16 +135,31 @@ public class GameScreen extends MineGridScreen {
 	}
 
 	/**
-	 * Updates the grid buttons to reflect the state of the grid.
+	 * Updates the grid buttons changed by the last game action.
+	 */
+	private void updateButtons(CellChanges changes) {
+		if (changes.isFullRefresh()) {
+			updateButtons();
+			return;
+		}
+		for (int i = 0; i < changes.size(); i++) {
+			if (changes.getZ(i) == layer) {
+				cellButtons[changes.getY(i)][changes.getX(i)].setState(changes.getState(i));
+			}
+		}
+	}
+
+	/**
+	 * Updates the grid buttons to reflect the state of the layer shown.
 	 */
 	private void updateButtons() {
-		int grid[][] = game.getGrid();
-		int state;
+		GridView view = game.getView();
+		int[] states = new int[view.getWidth() * view.getHeight()];
 
-		for (int y = 0; y < game.getHeight(); y++) {
-			for (int x = 0; x < game.getWidth(); x++) {
-				state = grid[y][x];
-				cellButtons[y][x].setState(state);
+		view.readSlice(layer, states, 0);
+		for (int y = 0; y < view.getHeight(); y++) {
+			for (int x = 0; x < view.getWidth(); x++) {
+				cellButtons[y][x].setState(states[y * view.getWidth() + x]);
 			}
 		}
 	}
@@ -193,6 +222,21 @@ public class GameScreen extends MineGridScreen {
 		centre.add(Box.createHorizontalStrut(20));
 		centre.add(lblScore);
 
+		// A three-dimensional grid is shown one layer at a time.
+		if (game.getDepth() > 1) {
+			spinLayer = new JSpinner(new SpinnerNumberModel(1, 1, game.getDepth(), 1));
+			spinLayer.addChangeListener(new ChangeListener() {
+				@Override
+				public void stateChanged(ChangeEvent e) {
+					layer = (int)spinLayer.getValue() - 1;
+					updateButtons();
+				}
+			});
+			centre.add(Box.createHorizontalStrut(20));
+			centre.add(new JLabel("Layer:"));
+			centre.add(spinLayer);
+		}
+
 		gameDisplayPanel.add(lblHeader, BorderLayout.LINE_START);
 		gameDisplayPanel.add(btnHome, BorderLayout.LINE_END);
 		gameDisplayPanel.add(centre, BorderLayout.CENTER);
@@ -208,33 +252,58 @@ public class GameScreen extends MineGridScreen {
 	 */
 	private void update() {
 
-		updateButtons();
+		updateButtons(game.getChanges());
 		checkGameState();
 	}
 
 	/**
-	 * Requests the necessary information and submits the score.
+	 * Requests the necessary information and submits the score. The game is
+	 * played again to verify it on a background thread, and the result is
+	 * shown once it is known.
 	 */
 	private void submitScore() {
 
 		Object response;
-		boolean success = false;
+		final MineGrid won = game;
+		final String name;
 	
 		response = JOptionPane.showInputDialog(this, "Name:", "Score Submission",
 				JOptionPane.QUESTION_MESSAGE, null, null, playerName);
 		
 		if (response != null && response.toString().length() > 0) {
 			playerName = response.toString();
-			success = game.submitScore(playerName);
-			if (success) {
-				// TODO: Don't allow resubmitting the score this game.
-				JOptionPane.showMessageDialog(this, "Score submitted!", "Score Submission",
-					JOptionPane.INFORMATION_MESSAGE);
-			}
-			else {
-				JOptionPane.showMessageDialog(this, "Score submission failed, sorry.\nTry again later.",
-						"Score Submission",	JOptionPane.ERROR_MESSAGE);
-			}
+			name = playerName;
+			new SwingWorker<Boolean, Void>() {
+				@Override
+				protected Boolean doInBackground() {
+					return won.submitScore(name);
+				}
+
+				@Override
+				protected void done() {
+					boolean success;
+
+					try {
+						success = get();
+					}
+					catch (InterruptedException e) {
+						success = false;
+					}
+					catch (ExecutionException e) {
+						success = false;
+					}
+					if (success) {
+						// TODO: Don't allow resubmitting the score this game.
+						JOptionPane.showMessageDialog(GameScreen.this, "Score submitted!", "Score Submission",
+							JOptionPane.INFORMATION_MESSAGE);
+					}
+					else {
+						JOptionPane.showMessageDialog(GameScreen.this,
+								"Score submission failed, sorry.\nTry again later.",
+								"Score Submission",	JOptionPane.ERROR_MESSAGE);
+					}
+				}
+			}.execute();
 		}
 	}
 	
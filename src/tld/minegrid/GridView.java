@@ -0,0 +1,74 @@
+/**
+ * Read-only access to the visible state of a grid, read straight from the
+ * game's storage without copying the board.
+ *
+ * @author arlsr
+ * @date 2014
+ */
+
+package tld.minegrid;
+
+public interface GridView {
+
+	/**
+	 * Returns the number of cells that make up the width of the grid.
+	 */
+	public int getWidth();
+
+	/**
+	 * Returns the number of cells that make up the height of the grid.
+	 */
+	public int getHeight();
+
+	/**
+	 * Returns the number of layers in the grid.
+	 */
+	public int getDepth();
+
+	/**
+	 * Returns the visible state of a cell: a neighbour count, or one of
+	 * MineGrid.UNKNOWN, MineGrid.MINE or MineGrid.FLAG. On a grid with more
+	 * than one layer this reads the first layer.
+	 *
+	 * @param	x	the x coordinate of the cell
+	 * @param	y	the y coordinate of the cell
+	 */
+	public int stateAt(int x, int y);
+
+	/**
+	 * Returns the visible state of a cell in any layer of the grid.
+	 *
+	 * @param	x	the x coordinate of the cell
+	 * @param	y	the y coordinate of the cell
+	 * @param	z	the layer of the cell
+	 */
+	public int stateAt(int x, int y, int z);
+
+	/**
+	 * Writes the visible states of a row of cells of the first layer into the
+	 * given array.
+	 *
+	 * @param	y		the row to read
+	 * @param	dest	the array to write the states to
+	 * @param	offset	the position in the array of the first cell
+	 */
+	public void readRow(int y, int[] dest, int offset);
+
+	/**
+	 * Writes the visible states of a whole layer into the given array, one
+	 * row after another.
+	 *
+	 * @param	z		the layer to read
+	 * @param	dest	the array to write the states to, with room for
+	 * 					width * height states
+	 * @param	offset	the position in the array of the first cell
+	 */
+	public void readSlice(int z, int[] dest, int offset);
+
+	/**
+	 * Returns a counter that increases whenever any cell's state changes, so
+	 * readers can tell whether the board needs reading again.
+	 */
+	public long getVersion();
+
+}
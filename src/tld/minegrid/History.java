@@ -0,0 +1,303 @@
+/**
+ * The undo and redo log of a game.
+ *
+ * Every action flips either the revealed bit or the flag bit of each cell it
+ * changes, so an action is logged as the ids of its cells and the bit each
+ * one flipped, along with the game counters before and after it. Undoing or
+ * redoing an action flips the same bits again, costing as much as the
+ * action did. The oldest actions are forgotten once the log holds more
+ * cells than its limit, and every action is forgotten after one that
+ * changed more cells than the limit or too many to list. A copy shares
+ * the cell log with the original until either of them next logs an
+ * action.
+ *
+ * @author arlsr
+ * @date 2014
+ */
+
+package tld.minegrid;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+class History {
+
+	/**
+	 * The game counters at one point in the log.
+	 */
+	private static class Position {
+		private final MineGrid.GameState state;
+		private final int lives;
+		private final int flags;
+		private final long possibles;
+		private final long endTime;
+
+		public Position(MineGrid.GameState state, int lives, int flags, long possibles, long endTime) {
+			this.state = state;
+			this.lives = lives;
+			this.flags = flags;
+			this.possibles = possibles;
+			this.endTime = endTime;
+		}
+	}
+
+	/**
+	 * A logged action, covering a run of the cell log.
+	 */
+	private static class Entry {
+		private final int start;
+		private final int end;
+		private final Position before;
+		private final Position after;
+
+		public Entry(int start, int end, Position before, Position after) {
+			this.start = start;
+			this.end = end;
+			this.before = before;
+			this.after = after;
+		}
+	}
+
+	private int limit;
+	private long[] cells = new long[64];
+	// The bit flipped in each logged cell.
+	private byte[] bits = new byte[64];
+	private int numCells;
+	private ArrayList<Entry> entries = new ArrayList<Entry>();
+	// The number of entries currently applied, the rest having been undone.
+	private int applied;
+	private Position before;
+	private Position current;
+	// Whether the cell log is held by a copy as well.
+	private boolean shared;
+
+	/**
+	 * Constructs an empty log.
+	 *
+	 * @param	limit	the most cell changes to keep
+	 */
+	public History(int limit) {
+		this.limit = limit;
+	}
+
+	/**
+	 * Returns a copy of the log that can be undone and added to separately.
+	 */
+	History copy() {
+		History copy = new History(limit);
+
+		copy.cells = cells;
+		copy.bits = bits;
+		copy.numCells = numCells;
+		copy.entries = new ArrayList<Entry>(entries);
+		copy.applied = applied;
+		copy.before = before;
+		copy.current = current;
+		copy.shared = shared = true;
+		return copy;
+	}
+
+	/**
+	 * Notes the game counters at the start of an action.
+	 */
+	void begin(MineGrid.GameState state, int lives, int flags, long possibles, long endTime) {
+		before = new Position(state, lives, flags, possibles, endTime);
+	}
+
+	/**
+	 * Logs the action started by the last call to begin, forgetting any
+	 * actions that were undone.
+	 *
+	 * @param	changes	the cells changed by the action
+	 */
+	void record(CellChanges changes, MineGrid.GameState state, int lives, int flags, long possibles,
+			long endTime) {
+		int cellState;
+
+		if (changes.isEmpty() && before.state == state && before.lives == lives && before.flags == flags) {
+			return;
+		}
+		if (changes.isFullRefresh() || changes.size() > limit) {
+			// The action is too large to log, so it can't be undone and
+			// neither can any before it.
+			clear();
+			return;
+		}
+		if (applied < entries.size()) {
+			numCells = entries.get(applied).start;
+			entries.subList(applied, entries.size()).clear();
+		}
+
+		if (shared) {
+			cells = cells.clone();
+			bits = bits.clone();
+			shared = false;
+		}
+		if (numCells + changes.size() > cells.length) {
+			// The log never holds more than twice the limit before trimming.
+			cells = Arrays.copyOf(cells, Math.max(numCells + changes.size(),
+					(int)Math.min(cells.length * 2L, limit * 2L)));
+			bits = Arrays.copyOf(bits, cells.length);
+		}
+		for (int i = 0; i < changes.size(); i++) {
+			cells[numCells + i] = changes.getCell(i);
+			cellState = changes.getState(i);
+			bits[numCells + i] = (byte)(cellState == MineGrid.FLAG || cellState == MineGrid.UNKNOWN
+					? CellStore.FLAG_BIT : CellStore.REVEALED_BIT);
+		}
+		entries.add(new Entry(numCells, numCells + changes.size(), before,
+				new Position(state, lives, flags, possibles, endTime)));
+		numCells += changes.size();
+		applied++;
+
+		if (numCells > limit) {
+			trim();
+		}
+	}
+
+	/**
+	 * Returns whether there is an action to undo.
+	 */
+	boolean canUndo() {
+		return applied > 0;
+	}
+
+	/**
+	 * Returns whether there is an undone action to redo.
+	 */
+	boolean canRedo() {
+		return applied < entries.size();
+	}
+
+	/**
+	 * Reverses the cells of the last applied action.
+	 *
+	 * @param	store	the cells of the game
+	 * @param	changes	the list to add each restored cell to
+	 */
+	void undo(CellStore store, CellChanges changes) {
+		Entry entry = entries.get(--applied);
+
+		for (int i = entry.end - 1; i >= entry.start; i--) {
+			flip(store, changes, i);
+		}
+		current = entry.before;
+	}
+
+	/**
+	 * Applies the cells of the last undone action again.
+	 *
+	 * @param	store	the cells of the game
+	 * @param	changes	the list to add each changed cell to
+	 */
+	void redo(CellStore store, CellChanges changes) {
+		Entry entry = entries.get(applied++);
+
+		for (int i = entry.start; i < entry.end; i++) {
+			flip(store, changes, i);
+		}
+		current = entry.after;
+	}
+
+	/**
+	 * Returns the game state left by the last undo or redo.
+	 */
+	MineGrid.GameState getState() {
+		return current.state;
+	}
+
+	/**
+	 * Returns the lives left by the last undo or redo.
+	 */
+	int getLives() {
+		return current.lives;
+	}
+
+	/**
+	 * Returns the flags left by the last undo or redo.
+	 */
+	int getFlags() {
+		return current.flags;
+	}
+
+	/**
+	 * Returns the possibles left by the last undo or redo.
+	 */
+	long getPossibles() {
+		return current.possibles;
+	}
+
+	/**
+	 * Returns the end time left by the last undo or redo.
+	 */
+	long getEndTime() {
+		return current.endTime;
+	}
+
+	/**
+	 * Forgets every action and takes a new limit, keeping the cell log's
+	 * storage for the next game.
+	 */
+	void reset(int limit) {
+		this.limit = limit;
+		entries.clear();
+		numCells = 0;
+		applied = 0;
+		before = null;
+		current = null;
+	}
+
+	/**
+	 * Forgets every action, giving up the cell log's storage.
+	 */
+	private void clear() {
+		entries.clear();
+		numCells = 0;
+		applied = 0;
+		cells = new long[64];
+		bits = new byte[64];
+		shared = false;
+	}
+
+	/**
+	 * Flips the logged bit of a cell.
+	 */
+	private void flip(CellStore store, CellChanges changes, int i) {
+		int cellBits = store.get(cells[i]) ^ (bits[i] & 0xFF);
+
+		store.set(cells[i], cellBits);
+		changes.add(cells[i], MineGrid.stateOf(cellBits));
+	}
+
+	/**
+	 * Forgets the oldest actions until the log is no more than half full, so
+	 * the cost of moving the rest down is spread over many actions. The
+	 * storage shrinks when what's left would use less than a quarter of it.
+	 */
+	private void trim() {
+		int drop = 0;
+		int shift;
+		Entry entry;
+
+		while (drop < entries.size() && numCells - entries.get(drop).start > limit / 2) {
+			drop++;
+		}
+		shift = drop < entries.size() ? entries.get(drop).start : numCells;
+
+		System.arraycopy(cells, shift, cells, 0, numCells - shift);
+		System.arraycopy(bits, shift, bits, 0, numCells - shift);
+		numCells -= shift;
+		for (int i = drop; i < entries.size(); i++) {
+			entry = entries.get(i);
+			entries.set(i, new Entry(entry.start - shift, entry.end - shift, entry.before, entry.after));
+		}
+		entries.subList(0, drop).clear();
+		applied -= drop;
+
+		if (cells.length > Math.max(64, numCells * 4)) {
+			cells = Arrays.copyOf(cells, Math.max(64, numCells * 2));
+			bits = Arrays.copyOf(bits, cells.length);
+		}
+	}
+
+}
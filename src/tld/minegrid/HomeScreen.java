@@ -81,9 +81,9 @@ public class HomeScreen extends MineGridScreen {
 		// #
 		tblHighScores.getColumnModel().getColumn(0).setPreferredWidth(20);
 		tblHighScores.getColumnModel().getColumn(0).setMaxWidth(20);
-		// Grid
+		// Grid, which may name the kind of grid after its size
 		tblHighScores.getColumnModel().getColumn(2).setPreferredWidth(50);
-		tblHighScores.getColumnModel().getColumn(2).setMaxWidth(50);
+		tblHighScores.getColumnModel().getColumn(2).setMaxWidth(120);
 		// Mines
 		tblHighScores.getColumnModel().getColumn(3).setPreferredWidth(35);
 		tblHighScores.getColumnModel().getColumn(3).setMaxWidth(35);
@@ -1,5 +1,12 @@
 /**
  * The main game class that handles game logic. 
+ *
+ * A bounded grid is stored as one byte per cell in a flat, row-major array
+ * so the memory used by a game is predictable: width * height * depth bytes
+ * plus a small constant overhead. A grid with more than one layer is stored
+ * a layer at a time and each of its cells touches up to 26 others. An
+ * infinite grid is stored in chunks that are generated as the player
+ * explores.
  * 
  * @author arlsr
  * @date 2014
@@ -7,7 +14,18 @@
 
 package tld.minegrid;
 
-import java.util.ArrayList;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Random;
 
 public class MineGrid {
@@ -18,94 +36,76 @@ public class MineGrid {
 		WON,
 		LOST
 	}
-	private class Cell {
-		private int x;
-		private int y;
-		private boolean mine = false;
-		private boolean flagged = false;
-		private boolean revealed = false;
-		private int score;
+	/**
+	 * Read-only view of the grid's visible state.
+	 */
+	private class View implements GridView {
 
-		public Cell(int x, int y) {
-			this.x = x;
-			this.y = y;
-		}
-		
-		public ArrayList<Cell> getNeighbours() {
-			ArrayList<Cell> neighbours = new ArrayList<Cell>();
-
-			// For every possible surrounding coordinate.
-			for (int y = this.y - 1; y < this.y + 2; y++) {
-				for (int x = this.x - 1; x < this.x + 2; x++) {
-					// If the coordinate is valid, add the cell as a neighbour.
-					if (y >= 0 && y < gridHeight && x >= 0 && x < gridWidth && (x != this.x || y != this.y)) {
-						neighbours.add(grid[y][x]);
-					}
-				}
-			}
-			return neighbours;
+		@Override
+		public int getWidth() {
+			return gridWidth;
 		}
 
-		public int getState() {
-			int state = UNKNOWN;
-			if (revealed) {
-				if (mine) {
-					state = MINE;
-				}
-				else {
-					state = score;
-				}
-			}
-			else if (flagged) {
-				return FLAG;
-			}
-			return state;
+		@Override
+		public int getHeight() {
+			return gridHeight;
 		}
 
-		public int getX() {
-			return x;
+		@Override
+		public int getDepth() {
+			return gridDepth;
 		}
 
-		public int getY() {
-			return y;
+		@Override
+		public int stateAt(int x, int y) {
+			return getState(cellId(x, y));
 		}
 
-		public void incScore() {
-			score++;
+		@Override
+		public int stateAt(int x, int y, int z) {
+			return getState(cellId(x, y, z));
 		}
 
-		public void plantMine() {
-			mine = true;
-		}
+		@Override
+		public void readRow(int y, int[] dest, int offset) {
+			long cell = cellId(0, y);
 
-		public int reveal() {
-			revealed = true;
-			return getState();
+			for (int x = 0; x < gridWidth; x++) {
+				dest[offset + x] = getState(cell + x);
+			}
 		}
 
-		/**
-		 * Toggles whether the cell has a flag or not.
-		 * 
-		 * @return	whether cell has a flag
-		 */
-		public boolean toggleFlag() {
-			// Only allow flag operations on unknown cells.
-			if (!revealed) {
-				flagged = !flagged;
+		@Override
+		public void readSlice(int z, int[] dest, int offset) {
+			long cell = cellId(0, 0, z);
+			int numCells = gridWidth * gridHeight;
+
+			for (int i = 0; i < numCells; i++) {
+				dest[offset + i] = getState(cell + i);
 			}
-			return flagged;
+		}
+
+		@Override
+		public long getVersion() {
+			return version;
 		}
 	}
 	public static final int MIN_WIDTH = 3;
 	public static final int MIN_HEIGHT = 3;
+	public static final int MIN_DEPTH = 1;
 	public static final int MIN_MINES = MIN_WIDTH * MIN_HEIGHT - 5;
 	public static final int MIN_LIVES = 1;
-	public static final int MAX_WIDTH = 50;
-	public static final int MAX_HEIGHT = 50;
+	public static final int MAX_WIDTH = 10000;
+	public static final int MAX_HEIGHT = 10000;
+	public static final int MAX_DEPTH = 1000;
 	public static final int MAX_MINES = MAX_WIDTH * MAX_HEIGHT - 5;
+	// Limits for grids stored outside the Java heap.
+	public static final int MAX_OFF_HEAP_WIDTH = 1000000;
+	public static final int MAX_OFF_HEAP_HEIGHT = 1000000;
 	public static final int MAX_LIVES = 10;
 	public static final int DEFAULT_WIDTH = 10;
 	public static final int DEFAULT_HEIGHT = 10;
+	public static final int DEFAULT_DEPTH = 1;
 	
 	public static final int DEFAULT_MINES = 7;
 	public static final int DEFAULT_LIVES = 1;
@@ -114,26 +114,114 @@ public class MineGrid {
 	public static final int MINE = -2;;
 
 	public static final int FLAG = -3;
+
+	// Mine placement algorithms. Older versions are kept so seeded games can
+	// still be reproduced.
+	public static final int GENERATOR_LEGACY = 1;
+	public static final int GENERATOR_SAMPLED = 2;
+	public static final int DEFAULT_GENERATOR = GENERATOR_SAMPLED;
+
+	// Where the cells of a bounded grid are kept.
+	public static final int STORAGE_HEAP = 1;
+	public static final int STORAGE_OFF_HEAP = 2;
+	public static final int STORAGE_MAPPED = 3;
+
+	// How the cells of a bounded grid neighbour each other. A torus wraps
+	// around at its edges and a hexagonal grid shifts its odd rows half a
+	// cell to the right.
+	public static final int TOPOLOGY_SQUARE = 1;
+	public static final int TOPOLOGY_TORUS = 2;
+	public static final int TOPOLOGY_HEX = 3;
+
+	// Action codes for applyActions.
+	public static final int ACTION_REVEAL = 1;
+	public static final int ACTION_FLAG = 2;
+	public static final int ACTION_CHORD = 3;
+
+	// The most cell changes kept for undoing by default.
+	public static final int DEFAULT_HISTORY_LIMIT = 1 << 20;
+
+	// The most cells a single reveal uncovers on an infinite grid, since a
+	// sparse enough grid has openings that never end.
+	static final int INFINITE_CASCADE_LIMIT = 1 << 20;
+
+	// Saved games start with a fixed size header, followed by the packed
+	// bits of every cell in cell id order. The version changes whenever the
+	// header or the cell bits change meaning.
+	private static final int SAVE_MAGIC = 0x4D475356;
+	private static final int SAVE_VERSION = 1;
+	static final int SAVE_HEADER_SIZE = 75;
+	// The size of the counters that end the header.
+	static final int SAVE_COUNTERS_SIZE = 25;
+	// Bits of the header's option byte.
+	private static final int SAVE_SEEDED = 0x01;
+	private static final int SAVE_PARALLEL = 0x02;
+	private static final int SAVE_NO_GUESS = 0x04;
+
 	private GameState gameState;
 	private long startTime;
 	private long endTime;
 	private int gridWidth;
 	private int gridHeight;
+	private int gridDepth;
 	private int numMines;
 	private int numFlags;
 	private int lives;
 	private int totalLives;
 	// The number of possible mine cells remaining.
-	private int possibles;
+	private long possibles;
 	// The random seed.
 	private Long seed;
-	private Cell[][] grid;
+	// The mine placement algorithm version.
+	private int generator;
+	// Whether the grid has no edges.
+	private boolean infinite;
+	// One packed byte per cell. Bounded grids use
+	// (z * gridHeight + y) * gridWidth + x as the cell id and infinite grids
+	// pack both coordinates into it.
+	private CellStore store;
+	// The neighbours of each cell of a bounded grid.
+	private Topology topology;
+	// Work list of zero cells still to be expanded by a flood reveal, kept
+	// between reveals so cascades don't allocate.
+	private long[] revealStack = new long[64];
+	// Plants the mines of a bounded grid, or null until it is first needed.
+	private MinePlanter planter;
+	// The neighbours found by the last call to findNeighbours.
+	private long[] neighbours = new long[8];
+	// The neighbours of the cell being chorded, since revealing them finds
+	// neighbours of its own.
+	private long[] chordNeighbours = new long[8];
+	// Splits large cascades over every core, or null to reveal on the
+	// calling thread alone.
+	private ParallelReveal parallelReveal;
+	// The cells changed by the last action.
+	private CellChanges changes;
+	// Actions that can be undone and redone.
+	private History history;
+	// Every action played, or null for a fork or a loaded game, whose
+	// earlier actions aren't known.
+	private Recording recording;
+	// The clock time of the action being played.
+	private long actionTime;
+	// The clock time a replay is playing the actions at, or -1 to use the
+	// system clock.
+	private long replayTime = -1;
+	// Increased by every action that changes the state of a cell.
+	private long version;
+	private GridView view = new View();
 	private MineGridSettings settings = new MineGridSettings();
 
 	private Scoreboard scoreboard;;
 
 	public MineGrid(int gridWidth, int gridHeight, int numMines, int numLives) {
-		setup(gridWidth, gridHeight, numMines, numLives, null);
+		MineGridSettings settings = new MineGridSettings();
+
+		settings.setGridSize(gridWidth, gridHeight);
+		settings.setMines(numMines);
+		settings.setLives(numLives);
+		setup(settings, true);
+		plantMines();
 	}
 
 	/**
@@ -142,8 +230,169 @@ public class MineGrid {
 	 * @param	settings	game settings to use for this game
 	 */
 	public MineGrid(MineGridSettings settings) {
-		setup(settings.getGridWidth(), settings.getGridHeight(), settings.getMines(), settings.getLives(),
-				settings.getSeed());
+		setup(settings, true);
+		plantMines();
+	}
+
+	/**
+	 * Constructs a saved game without planting any mines, taking its
+	 * counters from the rest of the save header.
+	 * 
+	 * @param	settings	the saved game settings
+	 * @param	store		the saved cells, or null to create empty storage
+	 * 						for them to be read into
+	 * @param	header		the save header, positioned at the counters
+	 */
+	private MineGrid(MineGridSettings settings, CellStore store, ByteBuffer header) throws IOException {
+		this.store = store;
+		setup(settings, false);
+		readCounters(header);
+	}
+
+	/**
+	 * Constructs a fork of the given game in its current position.
+	 * 
+	 * @param	withHistory	whether the fork can undo the actions of the game
+	 */
+	private MineGrid(MineGrid other, boolean withHistory) {
+		if (!other.store.canFork()) {
+			throw new UnsupportedOperationException("Grids kept off the heap can't be forked");
+		}
+		gameState = other.gameState;
+		startTime = other.startTime;
+		endTime = other.endTime;
+		gridWidth = other.gridWidth;
+		gridHeight = other.gridHeight;
+		gridDepth = other.gridDepth;
+		numMines = other.numMines;
+		numFlags = other.numFlags;
+		lives = other.lives;
+		totalLives = other.totalLives;
+		possibles = other.possibles;
+		seed = other.seed;
+		generator = other.generator;
+		infinite = other.infinite;
+		store = other.store.fork();
+		topology = other.topology;
+		neighbours = other.neighbours.clone();
+		chordNeighbours = other.chordNeighbours.clone();
+		if (other.parallelReveal != null) {
+			parallelReveal = new ParallelReveal(store, topology, gridWidth, gridHeight * gridDepth);
+		}
+		changes = new CellChanges(this);
+		version = other.version;
+		replayTime = other.replayTime;
+		// The settings are never changed once the game is set up.
+		settings = other.settings;
+		history = withHistory ? other.history.copy() : new History(settings.getHistoryLimit());
+		scoreboard = other.scoreboard;
+	}
+
+	/**
+	 * Applies a batch of actions as a single move, so the game is only checked
+	 * for a win or loss once and getChanges holds the cells changed by the
+	 * whole batch. A cell changed more than once appears once per change.
+	 * The batch stops early if the game is decided part way through. On a
+	 * grid with more than one layer the actions apply to the first layer.
+	 * 
+	 * @param	actions	the actions packed as code, x, y triples using the
+	 * 					ACTION_ constants
+	 * @return	the number of actions applied
+	 * @throws	IllegalArgumentException	if an action code is unknown
+	 * @throws	IndexOutOfBoundsException	if an action's cell is outside a
+	 * 										bounded grid
+	 */
+	public int applyActions(int[] actions) {
+		int applied = 0;
+		long cell;
+
+		if (actions.length % 3 != 0) {
+			throw new IllegalArgumentException("Actions must be packed as code, x, y triples");
+		}
+		// Check the whole batch first, so a bad action leaves the game as it was.
+		for (int i = 0; i < actions.length; i += 3) {
+			if (actions[i] != ACTION_REVEAL && actions[i] != ACTION_FLAG && actions[i] != ACTION_CHORD) {
+				throw new IllegalArgumentException("Unknown action code " + actions[i]);
+			}
+			checkBounds(actions[i + 1], actions[i + 2], 0);
+		}
+
+		changes.clear();
+		playerActed();
+
+		for (int i = 0; i < actions.length && isPlaying(); i += 3) {
+			cell = cellId(actions[i + 1], actions[i + 2]);
+			if (actions[i] == ACTION_REVEAL) {
+				reveal(cell);
+			}
+			else if (actions[i] == ACTION_FLAG) {
+				flag(cell);
+			}
+			else {
+				chord(cell);
+			}
+			applied++;
+		}
+
+		updateGameState();
+		actionFinished();
+		if (recording != null) {
+			recording.addBatch(actionTime, actions);
+		}
+		return applied;
+	}
+
+	/**
+	 * Returns whether there is an undone action to redo.
+	 */
+	public boolean canRedo() {
+		return history.canRedo();
+	}
+
+	/**
+	 * Returns whether there is an action to undo.
+	 */
+	public boolean canUndo() {
+		return history.canUndo();
+	}
+
+	/**
+	 * Reveals every unknown neighbour of a revealed number once that many of
+	 * its neighbours are flagged, as a single action. A wrongly placed flag
+	 * means a mine is revealed.
+	 * 
+	 * @param	x	the x coordinate of the cell
+	 * @param	y	the y coordinate of the cell
+	 * @return	whether the neighbours were revealed
+	 */
+	public boolean chordCell(int x, int y) {
+		return chordCell(x, y, 0);
+	}
+
+	/**
+	 * Chords the cell at the given coordinates of a grid with more than one
+	 * layer.
+	 * 
+	 * @param	x	the x coordinate of the cell
+	 * @param	y	the y coordinate of the cell
+	 * @param	z	the layer of the cell
+	 * @return	whether the neighbours were revealed
+	 * @throws	IndexOutOfBoundsException	if the cell is outside a bounded grid
+	 */
+	public boolean chordCell(int x, int y, int z) {
+		boolean chorded;
+		long cell;
+
+		cell = cellId(x, y, z);
+		changes.clear();
+		playerActed();
+
+		chorded = chord(cell);
+
+		updateGameState();
+		actionFinished();
+		record(ACTION_CHORD, cell);
+		return chorded;
 	}
 
 	/**
@@ -156,25 +405,75 @@ public class MineGrid {
 	 * @return whether flag is now present
 	 */
 	public boolean flagCell(int x, int y) {
+		return flagCell(x, y, 0);
+	}
+
+	/**
+	 * Toggles a flag at the given coordinates of a grid with more than one
+	 * layer.
+	 * 
+	 * @param	x	the x coordinate of the cell
+	 * @param	y	the y coordinate of the cell
+	 * @param	z	the layer of the cell
+	 * @return	whether flag is now present
+	 * @throws	IndexOutOfBoundsException	if the cell is outside a bounded grid
+	 */
+	public boolean flagCell(int x, int y, int z) {
 		boolean flagPlanted;
-		int previousCellState = grid[y][x].getState();
+		long cell;
 		
+		cell = cellId(x, y, z);
+		changes.clear();
 		playerActed();
 		
-		flagPlanted = grid[y][x].toggleFlag();
-		if (flagPlanted) {
-			numFlags--;
-		}
-		// A flag was uprooted so return it to the inventory.
-		else if (previousCellState == FLAG) {
-			numFlags++;
-		}
+		flagPlanted = flag(cell);
 		
 		updateGameState();
+		actionFinished();
+		record(ACTION_FLAG, cell);
 		
 		return flagPlanted;
 	}
 	
+	/**
+	 * Returns a copy of the game in its current position that can be played
+	 * separately. The two games share any cells neither has changed since,
+	 * so a fork costs about as much as the cells later changed. Grids kept
+	 * off the heap can't be forked.
+	 *
+	 * @throws	UnsupportedOperationException	if the grid is kept off the heap
+	 * @see	#canFork()
+	 */
+	public MineGrid fork() {
+		return new MineGrid(this, false);
+	}
+
+	/**
+	 * Returns whether the game can be forked, which a grid kept off the heap
+	 * can't.
+	 */
+	public boolean canFork() {
+		return store.canFork();
+	}
+
+	/**
+	 * Returns the cells changed by the last reveal or flag action, including
+	 * any cells uncovered by the game ending, or a full refresh if there
+	 * were too many to list. The list is reused by the next action so it
+	 * should be read before acting again.
+	 */
+	public CellChanges getChanges() {
+		return changes;
+	}
+	
+	/**
+	 * Returns the number of layers in the grid, or zero if the grid is
+	 * infinite.
+	 */
+	public int getDepth() {
+		return gridDepth;
+	}
+	
 	/**
 	 * Returns the current game state for determining whether it has begun or finished.
 	 */
@@ -183,23 +482,37 @@ public class MineGrid {
 	}
 	
 	/**
-	 * Returns the state of each cell in the grid. 
+	 * Returns the state of each cell in the grid, or in the first layer of a
+	 * grid with more than one layer.
+	 * 
+	 * @throws	UnsupportedOperationException	if the grid is infinite
 	 */
 	public int[][] getGrid() {
 
+		if (infinite) {
+			throw new UnsupportedOperationException("An infinite grid can't be copied");
+		}
+
 		int[][] stateGrid = new int[gridHeight][gridWidth];
 
 		for (int y = 0; y < gridHeight; y++) {
-			for (int x = 0; x < gridWidth; x++) {
-				stateGrid[y][x] = grid[y][x].getState();
-			}
+			view.readRow(y, stateGrid[y], 0);
 		}
 
 		return stateGrid;
 	}
 	
 	/**
-	 * Returns the number of cells that make up the height of the grid.
+	 * Returns a read-only view of the grid that reads cell states without
+	 * copying the grid.
+	 */
+	public GridView getView() {
+		return view;
+	}
+	
+	/**
+	 * Returns the number of cells that make up the height of the grid, or zero
+	 * if the grid is infinite.
 	 */
 	public int getHeight() {
 		return gridHeight;
@@ -220,10 +533,23 @@ public class MineGrid {
 	}
 
 	/**
-	 * Calculates and returns the player's current score.
+	 * Returns every action played so far with the seed and settings needed to
+	 * play them again, or null if the game was forked or loaded.
+	 */
+	public Recording getRecording() {
+		return recording;
+	}
+
+	/**
+	 * Calculates and returns the player's current score. On an infinite grid
+	 * the score is the number of safe cells revealed.
 	 */
 	public int getScore() {
-		double mineRatio = (double)numMines / (gridWidth * gridHeight);
+		if (infinite) {
+			return (int)-possibles;
+		}
+
+		double mineRatio = (double)numMines / numCells();
 		double baseScore = (numMines * Math.min(gridWidth, gridHeight) * mineRatio) / totalLives;
 		double timeSec = getTimeTaken()/1000.0;
 		double timeBonus = Math.max(0, (baseScore * (4.0 - (timeSec / baseScore))));
@@ -241,7 +567,7 @@ public class MineGrid {
 	public long getTimeTaken() {
 		long timeTaken;
 		if (gameState == GameState.STARTED) {
-			timeTaken = System.currentTimeMillis() - startTime;
+			timeTaken = now() - startTime;
 		}
 		else if (gameState == GameState.WON || gameState == GameState.LOST) {
 			timeTaken = endTime - startTime;
@@ -253,19 +579,27 @@ public class MineGrid {
 	}
 
 	/**
-	 * Returns the number of mines in total.
+	 * Returns the number of mines in total, or zero if the grid is infinite.
 	 */
 	public int getTotalMines() {
 		return numMines;
 	}
 	
 	/**
-	 * Returns the number of cells that make up the width of the grid.
+	 * Returns the number of cells that make up the width of the grid, or zero
+	 * if the grid is infinite.
 	 */
 	public int getWidth() {
 		return gridWidth;
 	}
 	
+	/**
+	 * Returns whether the grid has no edges.
+	 */
+	public boolean isInfinite() {
+		return infinite;
+	}
+	
 	/**
 	 * Reacts to a request to reveal a cell at the given coordinates.
 	 * 
@@ -276,34 +610,210 @@ public class MineGrid {
 	 * @return	the cell state of the revealed cell
 	 */
 	public int revealCell(int x, int y) {
-		Cell targetCell = grid[y][x];
-		int cellState = targetCell.getState();
+		return revealCell(x, y, 0);
+	}
+	
+	/**
+	 * Reveals the cell at the given coordinates of a grid with more than one
+	 * layer.
+	 * 
+	 * @param	x	the x coordinate of the cell
+	 * @param	y	the y coordinate of the cell
+	 * @param	z	the layer of the cell
+	 * @return	the cell state of the revealed cell
+	 * @throws	IndexOutOfBoundsException	if the cell is outside a bounded grid
+	 */
+	public int revealCell(int x, int y, int z) {
+		int cellState;
+		long cell;
 		
+		cell = cellId(x, y, z);
+		changes.clear();
 		playerActed();
 		
-		if (cellState == UNKNOWN) {
-			cellState = targetCell.reveal();
-			if (cellState != MINE) {
-				possibles--;
+		cellState = reveal(cell);
+		
+		updateGameState();
+		actionFinished();
+		record(ACTION_REVEAL, cell);
+		return cellState;
+	}
+	
+	/**
+	 * Loads a game saved by save, in the position it was saved in. The cells
+	 * are read in one bulk read, or mapped from the file if the game was
+	 * kept in a mapped file, so no mines are planted again. Nothing written
+	 * to a mapped game's cells reaches the file, and the loaded game's
+	 * settings don't name the file, so nothing made from them maps over it.
+	 * The header is checked against the game's limits and the length of the
+	 * file before anything is allocated for the cells.
+	 *
+	 * @param	file	the saved game
+	 * @throws	IOException	if the file can't be read or isn't a saved game
+	 */
+	public static MineGrid load(File file) throws IOException {
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		ByteBuffer header = ByteBuffer.allocate(SAVE_HEADER_SIZE);
+		MineGridSettings settings = new MineGridSettings();
+		CellStore store = null;
+		MineGrid game;
+		int storage;
+		int options;
+		long seed;
+
+		try {
+			while (header.hasRemaining()) {
+				if (channel.read(header) < 0) {
+					throw new EOFException("The file is too short to be a saved game");
+				}
+			}
+			header.flip();
+			if (header.getInt() != SAVE_MAGIC) {
+				throw new IOException("The file isn't a saved game");
+			}
+			if (header.getInt() != SAVE_VERSION) {
+				throw new IOException("The saved game was written by another version");
+			}
+
+			settings.setGridSize(header.getInt(), header.getInt());
+			settings.setDepth(header.getInt());
+			settings.setMines(header.getInt());
+			settings.setLives(header.getInt());
+			settings.setGeneratorVersion(header.getInt());
+			settings.setTopology(header.getInt());
+			settings.setHistoryLimit(header.getInt());
+			storage = header.get();
+			options = header.get();
+			seed = header.getLong();
+			settings.setSeed((options & SAVE_SEEDED) != 0 ? Long.valueOf(seed) : null);
+			settings.setParallelReveal((options & SAVE_PARALLEL) != 0);
+			settings.setNoGuess((options & SAVE_NO_GUESS) != 0);
+			settings.setStorage(storage, null);
+			checkSaved(settings, channel.size() - SAVE_HEADER_SIZE);
+
+			if (storage == STORAGE_MAPPED) {
+				store = new OffHeapCellStore(file, SAVE_HEADER_SIZE,
+						(long)settings.getGridWidth() * settings.getGridHeight() * settings.getDepth());
+			}
+			game = new MineGrid(settings, store, header);
+			if (storage != STORAGE_MAPPED) {
+				game.store.read(channel);
 			}
 		}
+		finally {
+			channel.close();
+		}
+		return game;
+	}
 
-		// Reveal surrounding cells when zero cell is found.
-		if (cellState == 0) {
-			for (Cell neighbour : targetCell.getNeighbours()) {
-				if (neighbour.getState() == UNKNOWN) {
-					revealCell(neighbour.getX(), neighbour.getY());
-				}
+	/**
+	 * Checks the settings read from a save header describe a game that could
+	 * have been saved, with all of its cells in the rest of the file.
+	 *
+	 * @param	cellBytes	the length of the file after the header
+	 * @throws	IOException	if the header can't belong to a saved game
+	 */
+	private static void checkSaved(MineGridSettings settings, long cellBytes) throws IOException {
+		int storage = settings.getStorage();
+		int maxWidth = storage == STORAGE_HEAP ? MAX_WIDTH : MAX_OFF_HEAP_WIDTH;
+		int maxHeight = storage == STORAGE_HEAP ? MAX_HEIGHT : MAX_OFF_HEAP_HEIGHT;
+		long numCells = (long)settings.getGridWidth() * settings.getGridHeight() * settings.getDepth();
+
+		if (storage != STORAGE_HEAP && storage != STORAGE_OFF_HEAP && storage != STORAGE_MAPPED
+				|| settings.getGridWidth() < MIN_WIDTH || settings.getGridWidth() > maxWidth
+				|| settings.getGridHeight() < MIN_HEIGHT || settings.getGridHeight() > maxHeight
+				|| settings.getDepth() < MIN_DEPTH || settings.getDepth() > MAX_DEPTH
+				|| settings.getMines() < 0 || settings.getMines() > numCells
+				|| settings.getLives() < MIN_LIVES || settings.getLives() > MAX_LIVES
+				|| settings.getGeneratorVersion() != GENERATOR_LEGACY
+						&& settings.getGeneratorVersion() != GENERATOR_SAMPLED
+				|| settings.getTopology() < TOPOLOGY_SQUARE || settings.getTopology() > TOPOLOGY_HEX
+				|| settings.getTopology() == TOPOLOGY_HEX && settings.getDepth() != 1
+				|| settings.getHistoryLimit() < 0) {
+			throw new IOException("The saved game's header is corrupt");
+		}
+		if (cellBytes < numCells) {
+			throw new EOFException("The file ended before every cell was read");
+		}
+	}
+
+	/**
+	 * Applies the last undone action again.
+	 *
+	 * @return	whether there was an action to redo
+	 */
+	public boolean redo() {
+		changes.clear();
+		if (!history.canRedo()) {
+			return false;
+		}
+		history.redo(store, changes);
+		restoreHistory();
+		if (recording != null) {
+			recording.add(Recording.REDO, now());
+		}
+		return true;
+	}
+
+	/**
+	 * Saves the game in its current position to a file, replacing anything
+	 * already in it. The settings, counters and time taken are written in a
+	 * fixed size header followed by the cells exactly as they are stored, in
+	 * one bulk write. The undo history isn't saved.
+	 *
+	 * @param	file	the file to save to
+	 * @throws	UnsupportedOperationException	if the grid is infinite
+	 */
+	public void save(File file) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(SAVE_HEADER_SIZE);
+		// The game is written beside the file, forced to the disk and moved
+		// over it in one step, so a failed save or a crash leaves the last
+		// one whole and a game mapped from the file keeps its cells.
+		File temp = new File(file.getPath() + ".tmp");
+		FileChannel channel;
+
+		if (infinite) {
+			throw new UnsupportedOperationException("An infinite grid can't be saved");
+		}
+
+		header.putInt(SAVE_MAGIC);
+		header.putInt(SAVE_VERSION);
+		header.putInt(gridWidth);
+		header.putInt(gridHeight);
+		header.putInt(gridDepth);
+		header.putInt(numMines);
+		header.putInt(totalLives);
+		header.putInt(generator);
+		header.putInt(settings.getTopology());
+		header.putInt(settings.getHistoryLimit());
+		header.put((byte)settings.getStorage());
+		header.put((byte)((seed != null ? SAVE_SEEDED : 0) | (settings.isParallelReveal() ? SAVE_PARALLEL : 0)
+				| (settings.isNoGuess() ? SAVE_NO_GUESS : 0)));
+		header.putLong(seed != null ? seed.longValue() : 0);
+		writeCounters(header);
+		header.flip();
+
+		channel = FileChannel.open(temp.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		try {
+			while (header.hasRemaining()) {
+				channel.write(header);
 			}
+			store.write(channel);
+			channel.force(true);
 		}
-		else if (cellState == MINE) {
-			lives--;
+		finally {
+			channel.close();
+		}
+		try {
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (AtomicMoveNotSupportedException e) {
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
 		}
-		
-		updateGameState();
-		return cellState;
 	}
-	
+
 	/**
 	 * Sets the scoreboard system to use.
 	 * 
@@ -314,17 +824,19 @@ public class MineGrid {
 	}
 	
 	/**
-	 * Submits the game score to the high-score database.
+	 * Submits the game score to the high-score database. The score is only
+	 * accepted once the game's recording has been played again to verify it,
+	 * so forked and loaded games can't be submitted. Verifying takes as long
+	 * as replaying the game, so this is called off the event thread.
 	 */
 	public boolean submitScore(String name) {
 		
 		boolean submitted = false;
 		
-		if (scoreboard.enabled() && gameState == GameState.WON) { 
+		if (scoreboard.enabled() && gameState == GameState.WON && recording != null) { 
 		
 			try {
-				submitted = scoreboard.insertScore(name, this.getScore(), this.getTimeTaken(),
-					gridWidth, gridHeight, numMines, totalLives);
+				submitted = scoreboard.insertScore(name, recording, this.getScore(), this.getTimeTaken());
 			}
 			catch (java.sql.SQLException e) {
 				submitted = false;
@@ -333,96 +845,634 @@ public class MineGrid {
 		}
 		return submitted;
 	}
+
+	/**
+	 * Takes back the last reveal or flag action still applied, including any
+	 * cells it uncovered and the lives and flags it used.
+	 *
+	 * @return	whether there was an action to undo
+	 */
+	public boolean undo() {
+		changes.clear();
+		if (!history.canUndo()) {
+			return false;
+		}
+		history.undo(store, changes);
+		restoreHistory();
+		if (recording != null) {
+			recording.add(Recording.UNDO, now());
+		}
+		return true;
+	}
 	
+	/**
+	 * Returns a fork of the game for checkpointing, first noting in the given
+	 * set which tiles of its cells have changed since the last checkpoint.
+	 *
+	 * @throws	UnsupportedOperationException	if the grid is infinite or kept
+	 * 											off the heap
+	 */
+	MineGrid checkpoint(BitSet changedTiles) {
+		if (infinite || !store.canFork()) {
+			throw new UnsupportedOperationException("Only grids kept on the heap can be checkpointed");
+		}
+		store.changedTiles(changedTiles);
+		return fork();
+	}
+
+	/**
+	 * Returns a fork of the game that can also undo and redo the game's
+	 * actions, sharing the undo history until either game next acts.
+	 */
+	MineGrid forkWithHistory() {
+		return new MineGrid(this, true);
+	}
+
+	/**
+	 * Returns the storage for the grid's cells.
+	 */
+	CellStore getStore() {
+		return store;
+	}
+
+	/**
+	 * Returns the neighbours of each cell, or null if the grid is infinite.
+	 */
+	Topology getTopology() {
+		return topology;
+	}
+
+	/**
+	 * Restores the counters written by writeCounters, carrying the clock on
+	 * from the time taken.
+	 */
+	void readCounters(ByteBuffer buffer) throws IOException {
+		int state = buffer.get();
+		long timeTaken;
+
+		if (state < 0 || state >= GameState.values().length) {
+			throw new IOException("The saved game state is unknown");
+		}
+		gameState = GameState.values()[state];
+		lives = buffer.getInt();
+		numFlags = buffer.getInt();
+		possibles = buffer.getLong();
+		timeTaken = buffer.getLong();
+		if (lives < 0 || lives > totalLives || numFlags > numMines || numFlags < numMines - numCells()
+				|| possibles < 0 || possibles > numCells() || timeTaken < 0) {
+			throw new IOException("The saved game's counters are corrupt");
+		}
+		endTime = now();
+		startTime = endTime - timeTaken;
+	}
+
+	/**
+	 * Starts a new game with the given settings in place of this one, so an
+	 * engine can play game after game without allocating it again. A heap
+	 * store of the same size is cleared and kept, as are the neighbour
+	 * tables of the same shape, and the history and change list are emptied
+	 * for reuse. The new game isn't recorded.
+	 */
+	void restart(MineGridSettings settings) {
+		restart(settings, null);
+	}
+
+	/**
+	 * Starts a new game in place of this one as restart does, with the given
+	 * layout planted instead of one drawn from the seed, so a layout found
+	 * elsewhere is played without planting a random one first.
+	 *
+	 * @param	mines	whether each cell is a mine, or null to plant from
+	 * 					the seed
+	 */
+	void restart(MineGridSettings settings, boolean[] mines) {
+		boolean keepStore = store instanceof ArrayCellStore && !settings.isInfinite()
+				&& settings.getStorage() == STORAGE_HEAP
+				&& (long)settings.getGridWidth() * settings.getGridHeight() * settings.getDepth() == numCells();
+
+		if (keepStore) {
+			store.clear();
+		}
+		else {
+			store = null;
+		}
+		parallelReveal = null;
+		replayTime = -1;
+		// Forks share the settings of the game they were forked from.
+		this.settings = new MineGridSettings();
+		setup(settings, false);
+		if (mines == null) {
+			plantMines();
+		}
+		else {
+			getPlanter().plant(store, mines);
+		}
+	}
+
+	/**
+	 * Sets the clock time the next actions are played at, so a replay keeps
+	 * the times they were recorded at.
+	 */
+	void setReplayTime(long replayTime) {
+		this.replayTime = replayTime;
+	}
+
+	/**
+	 * Writes the game state, lives, flags, remaining cells and time taken to
+	 * a buffer, taking SAVE_COUNTERS_SIZE bytes.
+	 */
+	void writeCounters(ByteBuffer buffer) {
+		buffer.put((byte)gameState.ordinal());
+		buffer.putInt(lives);
+		buffer.putInt(numFlags);
+		buffer.putLong(possibles);
+		buffer.putLong(getTimeTaken());
+	}
+
+	/**
+	 * Returns the visible state of a cell from its packed bits.
+	 */
+	static int stateOf(int bits) {
+		int state = UNKNOWN;
+
+		if ((bits & CellStore.REVEALED_BIT) != 0) {
+			if ((bits & CellStore.MINE_BIT) != 0) {
+				state = MINE;
+			}
+			else {
+				state = bits & CellStore.SCORE_MASK;
+			}
+		}
+		else if ((bits & CellStore.FLAG_BIT) != 0) {
+			state = FLAG;
+		}
+		return state;
+	}
+
+	/**
+	 * Returns the cell id of the given coordinates.
+	 */
+	long cellId(int x, int y) {
+		return cellId(x, y, 0);
+	}
+
+	/**
+	 * Returns the cell id of the given coordinates, ignoring the layer on an
+	 * infinite grid.
+	 *
+	 * @throws	IndexOutOfBoundsException	if the coordinates lie outside a
+	 * 										bounded grid
+	 */
+	long cellId(int x, int y, int z) {
+		if (infinite) {
+			return ChunkStore.cellId(x, y);
+		}
+		checkBounds(x, y, z);
+		return ((long)z * gridHeight + y) * gridWidth + x;
+	}
+
+	/**
+	 * Checks the given coordinates lie within a bounded grid. Every
+	 * coordinate is within an infinite grid.
+	 *
+	 * @throws	IndexOutOfBoundsException	if they lie outside the grid
+	 */
+	private void checkBounds(int x, int y, int z) {
+		if (!infinite && (x < 0 || x >= gridWidth || y < 0 || y >= gridHeight || z < 0 || z >= gridDepth)) {
+			throw new IndexOutOfBoundsException("No cell at " + x + ", " + y + ", " + z);
+		}
+	}
+
+	/**
+	 * Returns the x coordinate of a cell id.
+	 */
+	int cellX(long cell) {
+		if (infinite) {
+			return ChunkStore.cellX(cell);
+		}
+		return (int)(cell % gridWidth);
+	}
+
+	/**
+	 * Returns the y coordinate of a cell id.
+	 */
+	int cellY(long cell) {
+		if (infinite) {
+			return ChunkStore.cellY(cell);
+		}
+		return (int)(cell / gridWidth % gridHeight);
+	}
+
+	/**
+	 * Returns the layer of a cell id.
+	 */
+	int cellZ(long cell) {
+		if (infinite) {
+			return 0;
+		}
+		return (int)(cell / gridWidth / gridHeight);
+	}
+
 	private void createGrid() {
+		if (store == null) {
+			store = createStore();
+		}
+		if (!infinite && (topology == null || !topology.fits(settings.getTopology(), gridWidth, gridHeight, gridDepth))) {
+			topology = new Topology(settings.getTopology(), gridWidth, gridHeight, gridDepth);
+			planter = null;
+			neighbours = new long[topology.getMaxNeighbours()];
+			chordNeighbours = new long[topology.getMaxNeighbours()];
+		}
+		if (settings.isParallelReveal() && !infinite) {
+			// The layers are tiled as if they were rows of one tall grid.
+			parallelReveal = new ParallelReveal(store, topology, gridWidth, gridHeight * gridDepth);
+		}
+		if (changes == null) {
+			changes = new CellChanges(this);
+			history = new History(settings.getHistoryLimit());
+		}
+		else {
+			changes.clear();
+			history.reset(settings.getHistoryLimit());
+		}
+	}
 
-		grid = new Cell[gridHeight][gridWidth];
+	/**
+	 * Reveals the unknown neighbours of a revealed number whose mines are all
+	 * flagged or already revealed.
+	 * 
+	 * @return	whether the neighbours were revealed
+	 */
+	private boolean chord(long cell) {
+		int cellState = getState(cell);
+		int count;
+		int marked = 0;
+		int neighbourState;
 
-		for (int y = 0; y < gridHeight; y++) {
+		if (cellState <= 0) {
+			return false;
+		}
+		count = findNeighbours(cell);
+		for (int i = 0; i < count; i++) {
+			chordNeighbours[i] = neighbours[i];
+			neighbourState = getState(neighbours[i]);
+			if (neighbourState == FLAG || neighbourState == MINE) {
+				marked++;
+			}
+		}
+		if (marked != cellState) {
+			return false;
+		}
+		for (int i = 0; i < count; i++) {
+			if (getState(chordNeighbours[i]) == UNKNOWN) {
+				reveal(chordNeighbours[i]);
+			}
+		}
+		return true;
+	}
 
-			for (int x = 0; x < gridWidth; x++) {
-				grid[y][x] = new Cell(x, y);
+	/**
+	 * Creates the storage for the grid's cells as the settings ask.
+	 */
+	private CellStore createStore() {
+		CellStore store;
+
+		if (infinite) {
+			store = new ChunkStore(seed.longValue(), chunkMines());
+		}
+		else if (settings.getStorage() == STORAGE_HEAP) {
+			if (numCells() > Integer.MAX_VALUE) {
+				throw new IllegalArgumentException("Too many cells to store on the heap");
+			}
+			store = new ArrayCellStore((int)numCells());
+		}
+		else {
+			if (gridWidth > MAX_OFF_HEAP_WIDTH || gridHeight > MAX_OFF_HEAP_HEIGHT) {
+				throw new IllegalArgumentException("Grid too large to store off the heap");
+			}
+			try {
+				store = new OffHeapCellStore(numCells(),
+						settings.getStorage() == STORAGE_MAPPED ? settings.getStorageFile() : null);
+			}
+			catch (IOException e) {
+				throw new UncheckedIOException("Can't create the grid storage", e);
 			}
 		}
+		return store;
 	}
-	
+
 	/**
-	 * Randomly distributes the set number of mines over the grid.
+	 * Returns the number of mines in each chunk of an infinite grid, keeping
+	 * the mine density of the grid size in the settings.
 	 */
-	private void plantMines() {
+	private int chunkMines() {
+		double density = (double)settings.getMines() / ((double)settings.getGridWidth() * settings.getGridHeight());
+
+		return (int)Math.max(0, Math.min(ChunkStore.CHUNK_CELLS, Math.round(density * ChunkStore.CHUNK_CELLS)));
+	}
+
+	/**
+	 * Finds the neighbours of a cell, leaving them at the start of the
+	 * neighbours array.
+	 *
+	 * @return	the number of neighbours found
+	 */
+	private int findNeighbours(long cell) {
+		int x;
+		int y;
+		int count = 0;
+
+		if (!infinite) {
+			return topology.neighbours(cell, neighbours);
+		}
+		x = cellX(cell);
+		y = cellY(cell);
+		for (int ny = y - 1; ny <= y + 1; ny++) {
+			for (int nx = x - 1; nx <= x + 1; nx++) {
+				if (nx != x || ny != y) {
+					neighbours[count++] = ChunkStore.cellId(nx, ny);
+				}
+			}
+		}
+		return count;
+	}
 
-		ArrayList<Cell> cells = new ArrayList<Cell>();
-		Random rand = new Random();
-		int randIndex;
-		Cell mineCell;
+	/**
+	 * Toggles the flag on a cell if it is still unknown.
+	 * 
+	 * @return	whether a flag is now present
+	 */
+	private boolean flag(long cell) {
+		int bits = store.get(cell);
+		boolean flagPlanted = false;
 		
-		// Force random to use the given seed if set.
-		if (seed != null) {
-			rand.setSeed(seed.longValue());
+		// Only allow flag operations on unknown cells.
+		if ((bits & CellStore.REVEALED_BIT) == 0) {
+			store.set(cell, bits ^ CellStore.FLAG_BIT);
+			flagPlanted = (bits & CellStore.FLAG_BIT) == 0;
+			if (flagPlanted) {
+				numFlags--;
+			}
+			// A flag was uprooted so return it to the inventory.
+			else {
+				numFlags++;
+			}
+			changes.add(cell, getState(cell));
 		}
+		return flagPlanted;
+	}
 
-		// Add all the cells to an ArrayList so mine locations be chosen
-		// randomly without duplicates.
-		for (int y = 0; y < gridHeight; y++) {
-			for (int x = 0; x < gridWidth; x++) {
-				cells.add(grid[y][x]);
+	/**
+	 * Reveals every unknown cell connected to the given revealed zero cell
+	 * through other zero cells, along with the numbered cells bordering them.
+	 * On an infinite grid the cascade stops after INFINITE_CASCADE_LIMIT
+	 * cells, leaving the rest to be uncovered by revealing its edge. With
+	 * parallel reveals on, a bounded grid's cascade is split into tiles.
+	 *
+	 * @param	cell	id of a revealed zero cell
+	 */
+	private void floodReveal(long cell) {
+		int limit = infinite ? INFINITE_CASCADE_LIMIT : Integer.MAX_VALUE;
+		long start = possibles;
+		int top = 0;
+		int count;
+
+		if (parallelReveal != null) {
+			possibles -= parallelReveal.reveal(cell, changes);
+			return;
+		}
+		revealStack[top++] = cell;
+		while (top > 0 && start - possibles < limit) {
+			count = findNeighbours(revealStack[--top]);
+			for (int i = 0; i < count; i++) {
+				top = revealNeighbour(neighbours[i], top);
 			}
 		}
+	}
 
-		// Plant the mines in random cells.
-		for (int i = 0; i < numMines; i++) {
-			randIndex = rand.nextInt(cells.size());
-			mineCell = cells.remove(randIndex);
-			mineCell.plantMine();
-			for (Cell neighbour : mineCell.getNeighbours()) {
-				neighbour.incScore();
+	/**
+	 * Returns the visible state of the cell with the given id.
+	 */
+	private int getState(long cell) {
+		return stateOf(store.get(cell));
+	}
+
+	/**
+	 * Reveals a cell, along with any cells opened up by it, and takes a life
+	 * if it is a mine.
+	 * 
+	 * @return	the state of the cell
+	 */
+	private int reveal(long cell) {
+		int cellState = getState(cell);
+		
+		if (cellState == UNKNOWN) {
+			if (isPlantingDeferred()) {
+				plantNoGuess(cell);
 			}
+			store.set(cell, store.get(cell) | CellStore.REVEALED_BIT);
+			cellState = getState(cell);
+			if (cellState != MINE) {
+				possibles--;
+			}
+			changes.add(cell, cellState);
 		}
 
+		// Reveal surrounding cells when zero cell is found.
+		if (cellState == 0) {
+			floodReveal(cell);
+		}
+		else if (cellState == MINE) {
+			lives--;
+		}
+		return cellState;
 	}
-	
+
+	/**
+	 * Reveals a neighbour of a zero cell during a flood reveal if it is still
+	 * unknown, queueing it for expansion when it is also a zero cell.
+	 *
+	 * @return	the new top of the reveal stack
+	 */
+	private int revealNeighbour(long cell, int top) {
+		int bits = store.get(cell);
+
+		// Flagged cells are left alone and a zero cell never borders a mine.
+		if ((bits & (CellStore.REVEALED_BIT | CellStore.FLAG_BIT)) == 0) {
+			store.set(cell, bits | CellStore.REVEALED_BIT);
+			possibles--;
+			changes.add(cell, bits & CellStore.SCORE_MASK);
+			if ((bits & CellStore.SCORE_MASK) == 0) {
+				if (top == revealStack.length) {
+					revealStack = Arrays.copyOf(revealStack, top * 2);
+				}
+				revealStack[top++] = cell;
+			}
+		}
+		return top;
+	}
+
+	/**
+	 * Randomly distributes the set number of mines over the grid using the
+	 * game's generator version.
+	 */
+	private void plantMines() {
+		// Infinite grids plant the mines of each chunk as it is generated.
+		if (infinite || isPlantingDeferred()) {
+			return;
+		}
+		// Only heap grids are small enough to hold as a bit board.
+		getPlanter().plant(store, numMines, generator, seed.longValue(), settings.getStorage() == STORAGE_HEAP);
+	}
+
+	/**
+	 * Plants a layout the Solver can finish from the given cell, the first
+	 * revealed, in place of any planted before the game was undone back
+	 * past its first reveal.
+	 */
+	private void plantNoGuess(long first) {
+		boolean[] mines = NoGuessGenerator.generate(settings, seed.longValue(), (int)first);
+
+		for (long cell = 0; cell < mines.length; cell++) {
+			store.set(cell, store.get(cell) & CellStore.FLAG_BIT);
+		}
+		getPlanter().plant(store, mines);
+	}
+
+	/**
+	 * Returns the planter for the grid's mines, creating it if need be.
+	 */
+	private MinePlanter getPlanter() {
+		if (planter == null) {
+			planter = new MinePlanter(topology, gridWidth, gridHeight, gridDepth);
+		}
+		return planter;
+	}
+
+	/**
+	 * Returns the number of cells in a bounded grid.
+	 */
+	private long numCells() {
+		return (long)gridWidth * gridHeight * gridDepth;
+	}
+
+	/**
+	 * Called when a game action has finished making its changes.
+	 */
+	private void actionFinished() {
+		history.record(changes, gameState, lives, numFlags, possibles, endTime);
+		if (!changes.isEmpty()) {
+			version++;
+		}
+	}
+
+	/**
+	 * Returns whether the mines of a no-guess game are still to be planted,
+	 * which they are until a cell has been revealed.
+	 */
+	private boolean isPlantingDeferred() {
+		return settings.isNoGuess() && !infinite && possibles == numCells();
+	}
+
+	/**
+	 * Returns whether a started game is yet to be won or lost, without
+	 * ending it.
+	 */
+	private boolean isPlaying() {
+		return gameState == GameState.STARTED && lives > 0 && (infinite || possibles != numMines);
+	}
+
+	/**
+	 * Returns the clock time in milliseconds.
+	 */
+	private long now() {
+		return replayTime >= 0 ? replayTime : System.currentTimeMillis();
+	}
+
 	/**
 	 * Called when the player performs a game action.
 	 */
 	private void playerActed() {
-		
+		history.begin(gameState, lives, numFlags, possibles, endTime);
+
+		actionTime = now();
 		// Start the timer on the player's first action.
 		if (gameState == GameState.PRESTART) {
 			gameState = GameState.STARTED;
-			startTime = System.currentTimeMillis();
+			startTime = actionTime;
 		}
 	}
 	
 	/**
-	 * Reveal every cell in the grid.
+	 * Adds the action just played on a cell to the recording.
 	 */
-	private void revealAll() {
-		for (int y = 0; y < gridHeight; y++) {
-			for (int x = 0; x < gridWidth; x++) {
-				grid[y][x].reveal();
-			}
+	private void record(int code, long cell) {
+		if (recording != null) {
+			recording.add(code, actionTime, cell);
+		}
+	}
+
+	/**
+	 * Restores the game counters left by an undo or redo.
+	 */
+	private void restoreHistory() {
+		gameState = history.getState();
+		lives = history.getLives();
+		numFlags = history.getFlags();
+		possibles = history.getPossibles();
+		endTime = history.getEndTime();
+		if (!changes.isEmpty()) {
+			version++;
 		}
 	}
+
+	/**
+	 * Reveal every cell in the grid, or every explored chunk of an infinite
+	 * grid.
+	 */
+	private void revealAll() {
+		store.revealAll(changes);
+	}
 	
-	private void setup(int gridWidth, int gridHeight, int numMines, int numLives, Long seed) {
+	/**
+	 * Sets up a new game with the given settings.
+	 *
+	 * @param	recorded	whether the game's actions are recorded
+	 */
+	private void setup(MineGridSettings settings, boolean recorded) {
 		
-		this.gridWidth = gridWidth;
-		this.gridHeight = gridHeight;
-		this.numMines = numMines;
-		this.totalLives = this.lives = numLives;
-		// Random seed.
-		this.seed = seed;
+		infinite = settings.isInfinite();
+		gridWidth = infinite ? 0 : settings.getGridWidth();
+		gridHeight = infinite ? 0 : settings.getGridHeight();
+		gridDepth = infinite ? 0 : settings.getDepth();
+		numMines = infinite ? 0 : settings.getMines();
+		totalLives = lives = settings.getLives();
+		// Random seed. Every game has one, so an infinite grid can regenerate
+		// its chunks and any game can be played again from its recording.
+		seed = settings.getSeed();
+		if (seed == null) {
+			seed = new Random().nextLong();
+		}
+		generator = settings.getGeneratorVersion();
 		numFlags = numMines;
 		gameState = GameState.PRESTART;
-		possibles = gridWidth * gridHeight;
+		possibles = numCells();
 		// Update the settings object to the current settings.
-		settings.setGridWidth(gridWidth);
-		settings.setGridHeight(gridHeight);
-		settings.setMines(numMines);
-		settings.setLives(numLives);
+		this.settings.setGridWidth(settings.getGridWidth());
+		this.settings.setGridHeight(settings.getGridHeight());
+		this.settings.setDepth(settings.getDepth());
+		this.settings.setMines(settings.getMines());
+		this.settings.setLives(settings.getLives());
+		this.settings.setGeneratorVersion(generator);
+		this.settings.setInfinite(infinite);
+		this.settings.setStorage(settings.getStorage(), settings.getStorageFile());
+		this.settings.setParallelReveal(settings.isParallelReveal());
+		this.settings.setTopology(settings.getTopology());
+		this.settings.setHistoryLimit(settings.getHistoryLimit());
+		this.settings.setNoGuess(settings.isNoGuess());
+		recording = recorded ? new Recording(settings, seed.longValue()) : null;
 
 		createGrid();
-		plantMines();
 	}
 	
 	/**
@@ -434,13 +1484,13 @@ public class MineGrid {
 			// Game is lost if all lives have been used.
 			if (lives <= 0) {
 				gameState = GameState.LOST;
-				endTime = System.currentTimeMillis();
+				endTime = actionTime;
 				revealAll();
 			}
 			// Game is won if all non-mine cells are revealed without losing.
-			else if (possibles == numMines) {
+			else if (!infinite && possibles == numMines) {
 				gameState = GameState.WON;
-				endTime = System.currentTimeMillis();
+				endTime = actionTime;
 				revealAll();
 			}
 		}
@@ -10,15 +10,26 @@ package tld.minegrid;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
 
 public class MineGridGui extends JFrame {
 	private static final long serialVersionUID = 1L;
 	
 	private static final String TITLE = "MineGrid";
+	// Where a game still being played is kept between runs.
+	private static final File SAVE_FILE = new File("minegrid.sav");
+	// How often the game being played is checkpointed, in milliseconds.
+	private static final int CHECKPOINT_INTERVAL = 2000;
+	// The longest to wait for the last checkpoint when closing, in seconds.
+	private static final int CLOSE_TIMEOUT = 30;
 
 	private MineGrid game;
 	private MineGridSettings settings = new MineGridSettings();
 	private Scoreboard scoreboard = new Scoreboard();
+	private Checkpointer checkpointer = new Checkpointer(SAVE_FILE);
+	private Timer checkpointTimer;
 	
 	// The screen currently being displayed. 
 	private MineGridScreen activeScreen;
@@ -55,6 +66,62 @@ public class MineGridGui extends JFrame {
 		homeScreen.enableResume();
 	}
 	
+	/**
+	 * Loads the game left unfinished by the last run, if there is one, so it
+	 * can be resumed.
+	 */
+	private void loadGame() {
+		if (!SAVE_FILE.exists()) {
+			return;
+		}
+		try {
+			game = Checkpointer.restore(SAVE_FILE);
+		}
+		catch (IOException e) {
+			return;
+		}
+		game.setScoreboard(scoreboard);
+		gameScreen.newGame(game);
+		homeScreen.enableResume();
+	}
+
+	/**
+	 * Starts checkpointing the game being played in the background.
+	 */
+	private void startCheckpoints() {
+		checkpointTimer = new Timer(CHECKPOINT_INTERVAL, new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				checkpointer.checkpoint(game);
+			}
+		});
+		checkpointTimer.start();
+	}
+
+	/**
+	 * Writes the last checkpoint and exits once it is written, leaving the
+	 * event thread free in the meantime.
+	 */
+	private void exit() {
+		if (checkpointTimer != null) {
+			checkpointTimer.stop();
+		}
+		checkpointer.close(game);
+		this.dispose();
+		new Thread() {
+			@Override
+			public void run() {
+				try {
+					checkpointer.awaitClose(CLOSE_TIMEOUT, TimeUnit.SECONDS);
+				}
+				catch (InterruptedException e) {
+					// Exit anyway.
+				}
+				System.exit(0);
+			}
+		}.start();
+	}
+
 	/**
 	 * Switches from the current screen to the given screen.
 	 * 
@@ -133,7 +200,7 @@ public class MineGridGui extends JFrame {
 
 		this.setTitle(TITLE);
 		this.setMinimumSize(new Dimension(800, 600));
-		this.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+		this.setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);
 		// Centre the window.
 		this.setLocationRelativeTo(null);
 		// Set the window icon.
@@ -141,6 +208,15 @@ public class MineGridGui extends JFrame {
 		
 		setupScreens();
 		switchScreen(homeScreen);
+		loadGame();
+		// Keep the game being played for the next run.
+		startCheckpoints();
+		this.addWindowListener(new WindowAdapter() {
+			@Override
+			public void windowClosing(WindowEvent e) {
+				exit();
+			}
+		});
 		
 		this.setVisible(true);
 	}
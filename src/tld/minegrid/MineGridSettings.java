@@ -7,12 +7,23 @@
 
 package tld.minegrid;
 
+import java.io.File;
+
 public class MineGridSettings {
 	private int gridWidth = MineGrid.DEFAULT_WIDTH;
 	private int gridHeight = MineGrid.DEFAULT_HEIGHT;
+	private int depth = MineGrid.DEFAULT_DEPTH;
 	private int mines = MineGrid.DEFAULT_MINES;
 	private int lives = MineGrid.DEFAULT_LIVES;
 	private Long seed;
+	private int generatorVersion = MineGrid.DEFAULT_GENERATOR;
+	private boolean infinite = false;
+	private int storage = MineGrid.STORAGE_HEAP;
+	private File storageFile;
+	private boolean parallelReveal = false;
+	private int historyLimit = MineGrid.DEFAULT_HISTORY_LIMIT;
+	private int topology = MineGrid.TOPOLOGY_SQUARE;
+	private boolean noGuess = false;
 
 	public void setGridSize(int gridWidth, int gridHeight) {
 		this.gridWidth = gridWidth;
@@ -27,6 +38,16 @@ public class MineGridSettings {
 		this.gridHeight = gridHeight;
 	}
 
+	/**
+	 * Sets the number of layers of a bounded grid. A grid with more than one
+	 * layer is played in three dimensions, each cell touching the cells
+	 * around it in its own layer and the layers above and below. Infinite
+	 * grids always have one layer.
+	 */
+	public void setDepth(int depth) {
+		this.depth = depth;
+	}
+
 	public void setMines(int mines) {
 		this.mines = mines;
 	}
@@ -39,6 +60,16 @@ public class MineGridSettings {
 		this.seed = seed;
 	}
 
+	/**
+	 * Sets the mine placement algorithm. A seed only reproduces a layout when
+	 * used with the same generator version.
+	 *
+	 * @param	generatorVersion	one of the MineGrid GENERATOR_ constants
+	 */
+	public void setGeneratorVersion(int generatorVersion) {
+		this.generatorVersion = generatorVersion;
+	}
+
 	public int getGridWidth() {
 		return gridWidth;
 	}
@@ -47,6 +78,10 @@ public class MineGridSettings {
 		return gridHeight;
 	}
 
+	public int getDepth() {
+		return depth;
+	}
+
 	public int getMines() {
 		return mines;
 	}
@@ -55,15 +90,106 @@ public class MineGridSettings {
 		return lives;
 	}
 	
+	/**
+	 * Sets whether the grid has no edges. An infinite grid keeps the mine
+	 * density of the width, height and mines settings.
+	 */
+	public void setInfinite(boolean infinite) {
+		this.infinite = infinite;
+	}
+
+	/**
+	 * Sets where the grid's cells are kept. Off-heap storage lets a grid grow
+	 * past the heap limits, up to MineGrid.MAX_OFF_HEAP_WIDTH by
+	 * MAX_OFF_HEAP_HEIGHT, and mapped storage keeps the cells in a file that
+	 * the operating system pages in as the game touches it.
+	 * 
+	 * @param	storage		one of the MineGrid STORAGE_ constants
+	 * @param	storageFile	the file to map for STORAGE_MAPPED, which is
+	 * 						overwritten
+	 */
+	public void setStorage(int storage, File storageFile) {
+		this.storage = storage;
+		this.storageFile = storageFile;
+	}
+
+	/**
+	 * Sets whether cascades on a bounded grid are spread over every core.
+	 * The cells revealed are the same either way.
+	 */
+	public void setParallelReveal(boolean parallelReveal) {
+		this.parallelReveal = parallelReveal;
+	}
+
+	/**
+	 * Sets the most cell changes kept for undoing actions. The oldest actions
+	 * are forgotten to stay within the limit.
+	 */
+	public void setHistoryLimit(int historyLimit) {
+		this.historyLimit = historyLimit;
+	}
+
+	/**
+	 * Sets how the cells of a bounded grid neighbour each other. Infinite
+	 * grids are always square.
+	 * 
+	 * @param	topology	one of the MineGrid TOPOLOGY_ constants
+	 */
+	public void setTopology(int topology) {
+		this.topology = topology;
+	}
+
+	/**
+	 * Sets whether a bounded grid only gets a layout that the Solver can
+	 * finish from the first cell revealed, without a guess. The mines are
+	 * then planted when that cell is revealed, clear of it and its
+	 * neighbours.
+	 */
+	public void setNoGuess(boolean noGuess) {
+		this.noGuess = noGuess;
+	}
+
 	public Long getSeed() {
 		return seed;
 	}
+
+	public int getGeneratorVersion() {
+		return generatorVersion;
+	}
+
+	public boolean isInfinite() {
+		return infinite;
+	}
+
+	public int getStorage() {
+		return storage;
+	}
+
+	public File getStorageFile() {
+		return storageFile;
+	}
+
+	public boolean isParallelReveal() {
+		return parallelReveal;
+	}
+
+	public int getHistoryLimit() {
+		return historyLimit;
+	}
+
+	public int getTopology() {
+		return topology;
+	}
+
+	public boolean isNoGuess() {
+		return noGuess;
+	}
 	
 	/**
 	 * Returns the maximum number of mines allowed for the current settings.
 	 */
 	public int getMaxMines() {
-		return (gridWidth * gridHeight) - 5;
+		return (int)Math.min(Integer.MAX_VALUE, (long)gridWidth * gridHeight * depth - 5);
 	}
 
 	public static MineGridSettings createHardSettings() {
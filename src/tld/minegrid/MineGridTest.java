@@ -9,6 +9,13 @@ package tld.minegrid;
 
 import static org.junit.Assert.*;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -17,6 +24,8 @@ public class MineGridTest {
 	
 	// Fixed random seed to ensure test consistency.
 	private static final Long RANDOM_SEED = 1L;
+	// The largest width and height built for every size in testConstruction.
+	private static final int CONSTRUCTION_LIMIT = 50;
 	private MineGrid mg;
 	private MineGridSettings settings;
 	
@@ -24,6 +33,8 @@ public class MineGridTest {
 	public void setUp() throws Exception {
 		settings = new MineGridSettings();
 		settings.setSeed(RANDOM_SEED);
+		// The tests below rely on the layout the original generator gives.
+		settings.setGeneratorVersion(MineGrid.GENERATOR_LEGACY);
 		mg = new MineGrid(settings);
 	}
 
@@ -40,13 +51,27 @@ public class MineGridTest {
 		new MineGrid(100, 100, 4, 1);
 		new MineGrid(100, 100, 1000-5, 1);
 
-		for (int y = MineGrid.MIN_HEIGHT; y <= MineGrid.MAX_HEIGHT; y++) {
-			for (int x = MineGrid.MIN_WIDTH; x <= MineGrid.MAX_WIDTH; x++) {
+		for (int y = MineGrid.MIN_HEIGHT; y <= CONSTRUCTION_LIMIT; y++) {
+			for (int x = MineGrid.MIN_WIDTH; x <= CONSTRUCTION_LIMIT; x++) {
 				new MineGrid(x, y, x * y - 5, 1);
 			}
 		}
 	}
 
+	/**
+	 * Tests the largest allowed grid can be created and played.
+	 */
+	@Test
+	public void testLargestGrid() {
+		MineGrid mg = new MineGrid(MineGrid.MAX_WIDTH, MineGrid.MAX_HEIGHT, 1000, 1);
+		int flags = mg.getNumFlags();
+
+		assertEquals(MineGrid.MAX_WIDTH, mg.getWidth());
+		assertEquals(MineGrid.MAX_HEIGHT, mg.getHeight());
+		assertTrue(mg.flagCell(MineGrid.MAX_WIDTH - 1, MineGrid.MAX_HEIGHT - 1));
+		assertEquals(flags - 1, mg.getNumFlags());
+	}
+
 	/**
 	 * Tests the correct number of mines are planted.
 	 */
@@ -76,6 +101,67 @@ public class MineGridTest {
 		assertEquals(mines, minesFound);
 	}
 
+	/**
+	 * Tests each generator places the right number of mines and reproduces
+	 * its layout from the same seed.
+	 */
+	@Test
+	public void testGenerators() {
+		int[] generators = { MineGrid.GENERATOR_LEGACY, MineGrid.GENERATOR_SAMPLED };
+		int[][] layout;
+		int minesFound;
+
+		assertEquals(MineGrid.DEFAULT_GENERATOR, new MineGridSettings().getGeneratorVersion());
+		settings.setGridSize(30, 20);
+		settings.setMines(200);
+
+		for (int generator : generators) {
+			settings.setGeneratorVersion(generator);
+			layout = revealLayout(new MineGrid(settings));
+			assertArrayEquals(layout, revealLayout(new MineGrid(settings)));
+
+			minesFound = 0;
+			for (int[] row : layout) {
+				for (int state : row) {
+					if (state == MineGrid.MINE) {
+						minesFound++;
+					}
+				}
+			}
+			assertEquals(200, minesFound);
+		}
+	}
+
+	/**
+	 * Tests an engine restarted game after game plants the same layouts as
+	 * new games, with the planting buffers it keeps cleared each time.
+	 */
+	@Test
+	public void testRestartLayouts() {
+		MineGrid engine = new MineGrid(settings);
+
+		settings.setGridSize(30, 20);
+		settings.setMines(150);
+		for (int seed = 0; seed < 12; seed++) {
+			settings.setSeed(Long.valueOf(seed));
+			settings.setGeneratorVersion(seed % 2 == 0 ? MineGrid.GENERATOR_LEGACY : MineGrid.GENERATOR_SAMPLED);
+			settings.setTopology(seed < 8 ? MineGrid.TOPOLOGY_SQUARE : MineGrid.TOPOLOGY_TORUS);
+			engine.restart(settings);
+			assertArrayEquals(revealLayout(new MineGrid(settings)), revealLayout(engine));
+		}
+	}
+
+	/**
+	 * Tests the seeded layout from the original generator is unchanged.
+	 */
+	@Test
+	public void testLegacyLayout() {
+		int[][] layout = revealLayout(mg);
+
+		assertArrayEquals(new int[] { MineGrid.MINE, 1, 0, 0, 0, 0, 0, 0, 0, 0 }, layout[0]);
+		assertArrayEquals(new int[] { 1, 1, 0, 1, MineGrid.MINE, 1, 0, 1, MineGrid.MINE, 1 }, layout[2]);
+	}
+
 	/**
 	 * Tests planting a flag changes the grid state correctly.
 	 */
@@ -92,7 +178,38 @@ public class MineGridTest {
 		mg.flagCell(x, y);
 		assertEquals(MineGrid.UNKNOWN, mg.getGrid()[y][x]);
 	}
-	
+
+	/**
+	 * Tests actions on cells outside the grid are refused rather than
+	 * wrapping onto another row or layer, and leave the game untouched.
+	 */
+	@Test
+	public void testOutOfBounds() {
+		int[][] outside = { { 10, 0, 0 }, { -1, 0, 0 }, { 0, 10, 0 }, { 0, -1, 0 }, { 0, 0, 1 } };
+
+		for (int[] cell : outside) {
+			for (int action = MineGrid.ACTION_REVEAL; action <= MineGrid.ACTION_CHORD; action++) {
+				try {
+					if (action == MineGrid.ACTION_REVEAL) {
+						mg.revealCell(cell[0], cell[1], cell[2]);
+					}
+					else if (action == MineGrid.ACTION_FLAG) {
+						mg.flagCell(cell[0], cell[1], cell[2]);
+					}
+					else {
+						mg.chordCell(cell[0], cell[1], cell[2]);
+					}
+					fail("There is no cell at " + cell[0] + ", " + cell[1] + ", " + cell[2]);
+				}
+				catch (IndexOutOfBoundsException e) {
+				}
+			}
+		}
+		assertEquals(MineGrid.GameState.PRESTART, mg.getGameState());
+		assertEquals(MineGrid.UNKNOWN, mg.getGrid()[1][0]);
+		assertEquals(MineGrid.UNKNOWN, mg.getGrid()[0][9]);
+	}
+
 	/**
 	 * Tests planting a flag changes the flag count correctly.
 	 */
@@ -197,6 +314,876 @@ public class MineGridTest {
 		assertEquals(1, mg.getGrid()[y][x]);
 	}
 
+	/**
+	 * Tests a cascade over millions of cells reveals the whole grid without
+	 * exhausting the thread stack.
+	 */
+	@Test
+	public void testLargeCascade() {
+		MineGrid mg = new MineGrid(3000, 3000, 0, 1);
+
+		assertEquals(0, mg.revealCell(1500, 1500));
+		assertEquals(MineGrid.GameState.WON, mg.getGameState());
+		assertEquals(0, mg.getGrid()[0][0]);
+		assertEquals(0, mg.getGrid()[2999][2999]);
+	}
+
+	/**
+	 * Tests parallel reveals uncover exactly the cells sequential ones do.
+	 */
+	@Test
+	public void testParallelReveal() {
+		MineGridSettings parallelSettings = new MineGridSettings();
+		MineGrid sequential;
+		MineGrid parallel;
+		Random rand = new Random(RANDOM_SEED);
+		int x;
+		int y;
+
+		parallelSettings.setGridSize(1000, 700);
+		parallelSettings.setMines(4000);
+		parallelSettings.setLives(100);
+		parallelSettings.setSeed(RANDOM_SEED);
+		sequential = new MineGrid(parallelSettings);
+		parallelSettings.setParallelReveal(true);
+		parallel = new MineGrid(parallelSettings);
+
+		for (int i = 0; i < 40; i++) {
+			x = rand.nextInt(1000);
+			y = rand.nextInt(700);
+			if (i % 4 == 3) {
+				assertEquals(sequential.flagCell(x, y), parallel.flagCell(x, y));
+			}
+			else {
+				assertEquals(sequential.revealCell(x, y), parallel.revealCell(x, y));
+			}
+			assertEquals(sequential.getChanges().size(), parallel.getChanges().size());
+			assertEquals(sequential.getGameState(), parallel.getGameState());
+		}
+		assertArrayEquals(sequential.getGrid(), parallel.getGrid());
+	}
+
+	/**
+	 * Tests a fork plays on separately from the game it was taken from.
+	 */
+	@Test
+	public void testFork() {
+		MineGridSettings bigSettings = new MineGridSettings();
+		MineGrid fork;
+		MineGrid big;
+		int[][] before;
+
+		mg.revealCell(2, 0);
+		before = mg.getGrid();
+		fork = mg.fork();
+		assertArrayEquals(before, fork.getGrid());
+		assertEquals(MineGrid.GameState.STARTED, fork.getGameState());
+
+		// Lose the fork and flag a cell in the original.
+		fork.revealCell(0, 0);
+		assertEquals(MineGrid.GameState.LOST, fork.getGameState());
+		assertTrue(mg.flagCell(0, 0));
+		assertEquals(MineGrid.GameState.STARTED, mg.getGameState());
+		assertEquals(MineGrid.FLAG, mg.getGrid()[0][0]);
+		assertEquals(MineGrid.MINE, fork.getGrid()[0][0]);
+		assertEquals(mg.getTotalMines(), fork.getNumFlags());
+
+		// Forks of forks over a grid of several tiles.
+		bigSettings.setGridSize(200, 150);
+		bigSettings.setMines(300);
+		bigSettings.setLives(1);
+		bigSettings.setSeed(RANDOM_SEED);
+		big = new MineGrid(bigSettings);
+		before = big.getGrid();
+		fork = big.fork().fork();
+		for (int y = 0; y < 150; y += 7) {
+			fork.flagCell(y, y);
+		}
+		// Losing reveals the whole grid.
+		for (int x = 0; x < 200 && fork.getGameState() != MineGrid.GameState.LOST; x++) {
+			fork.revealCell(x, 75);
+		}
+		assertEquals(MineGrid.GameState.LOST, fork.getGameState());
+		assertArrayEquals(before, big.getGrid());
+		assertEquals(MineGrid.GameState.PRESTART, big.getGameState());
+
+		// Forks of an infinite grid share chunks.
+		settings.setInfinite(true);
+		settings.setLives(Integer.MAX_VALUE);
+		mg = new MineGrid(settings);
+		mg.revealCell(0, 0);
+		fork = mg.fork();
+		fork.revealCell(1, 1);
+		fork.revealCell(500, -500);
+		assertEquals(MineGrid.UNKNOWN, mg.getView().stateAt(500, -500));
+		assertEquals(mg.getView().stateAt(0, 0), fork.getView().stateAt(0, 0));
+		mg.revealCell(500, -500);
+		assertEquals(fork.getView().stateAt(500, -500), mg.getView().stateAt(500, -500));
+	}
+
+	/**
+	 * Tests undoing and redoing actions restores each earlier position.
+	 */
+	@Test
+	public void testUndo() {
+		int[][][] grids = new int[4][][];
+		int[] flags = new int[4];
+		MineGrid.GameState[] states = new MineGrid.GameState[4];
+
+		assertFalse(mg.undo());
+		grids[0] = mg.getGrid();
+		flags[0] = mg.getNumFlags();
+		states[0] = mg.getGameState();
+		// A cascade, a flag and a mine that ends the game.
+		mg.revealCell(2, 0);
+		mg.flagCell(0, 0);
+		mg.revealCell(4, 2);
+		for (int i = 3; i > 0; i--) {
+			grids[i] = mg.getGrid();
+			flags[i] = mg.getNumFlags();
+			states[i] = mg.getGameState();
+			assertTrue(mg.undo());
+			assertTrue(mg.getChanges().size() > 0);
+		}
+		assertEquals(MineGrid.GameState.LOST, states[3]);
+		assertArrayEquals(grids[0], mg.getGrid());
+		assertEquals(states[0], mg.getGameState());
+		assertFalse(mg.canUndo());
+
+		for (int i = 1; i <= 3; i++) {
+			assertTrue(mg.redo());
+			assertArrayEquals(grids[i], mg.getGrid());
+			assertEquals(flags[i], mg.getNumFlags());
+			assertEquals(states[i], mg.getGameState());
+		}
+		assertFalse(mg.redo());
+
+		// Undo the loss and play on, which drops the undone action.
+		assertTrue(mg.undo());
+		assertEquals(1, mg.getLives());
+		mg.flagCell(8, 2);
+		assertFalse(mg.canRedo());
+		assertEquals(MineGrid.GameState.STARTED, mg.getGameState());
+	}
+
+	/**
+	 * Tests the history forgets its oldest actions to stay within its limit,
+	 * and drops actions that are larger than it.
+	 */
+	@Test
+	public void testHistoryLimit() {
+		int undone = 0;
+
+		settings.setHistoryLimit(10);
+		mg = new MineGrid(settings);
+		for (int x = 0; x < mg.getWidth(); x++) {
+			mg.flagCell(x, 5);
+			mg.flagCell(x, 6);
+		}
+		while (mg.undo()) {
+			undone++;
+		}
+		assertTrue(undone > 0 && undone <= 10);
+		assertEquals(MineGrid.FLAG, mg.getGrid()[5][0]);
+		assertEquals(MineGrid.UNKNOWN, mg.getGrid()[6][9]);
+
+		// An action larger than the limit can't be undone, and neither can
+		// the actions before it.
+		mg = new MineGrid(settings);
+		mg.flagCell(0, 0);
+		mg.revealCell(2, 0);
+		assertTrue(mg.getChanges().size() > 10);
+		assertFalse(mg.canUndo());
+		mg.flagCell(0, 0);
+		assertTrue(mg.undo());
+		assertEquals(MineGrid.FLAG, mg.getGrid()[0][0]);
+		assertFalse(mg.canUndo());
+	}
+
+	/**
+	 * Tests a batch of actions ends in the same position as making them one
+	 * at a time, and is undone as one move.
+	 */
+	@Test
+	public void testActions() {
+		MineGrid single = new MineGrid(settings);
+		int[] actions = {
+			MineGrid.ACTION_REVEAL, 2, 0,
+			MineGrid.ACTION_FLAG, 0, 0,
+			MineGrid.ACTION_FLAG, 8, 2,
+			MineGrid.ACTION_FLAG, 8, 2,
+			MineGrid.ACTION_REVEAL, 9, 9
+		};
+		int[][] before = mg.getGrid();
+
+		for (int i = 0; i < actions.length; i += 3) {
+			if (actions[i] == MineGrid.ACTION_REVEAL) {
+				single.revealCell(actions[i + 1], actions[i + 2]);
+			}
+			else {
+				single.flagCell(actions[i + 1], actions[i + 2]);
+			}
+		}
+		assertEquals(5, mg.applyActions(actions));
+		assertArrayEquals(single.getGrid(), mg.getGrid());
+		assertEquals(single.getNumFlags(), mg.getNumFlags());
+		assertTrue(mg.getChanges().size() > 4);
+
+		assertTrue(mg.undo());
+		assertFalse(mg.canUndo());
+		assertArrayEquals(before, mg.getGrid());
+
+		// A batch with a cell off the grid is refused before any of it is
+		// applied, rather than wrapping onto the next row.
+		try {
+			mg.applyActions(new int[] {
+				MineGrid.ACTION_REVEAL, 2, 0,
+				MineGrid.ACTION_FLAG, 10, 0
+			});
+			fail("There is no cell at 10, 0");
+		}
+		catch (IndexOutOfBoundsException e) {
+		}
+		assertArrayEquals(before, mg.getGrid());
+		assertFalse(mg.canUndo());
+
+		// The batch stops at the mine that loses the game.
+		assertEquals(2, mg.applyActions(new int[] {
+			MineGrid.ACTION_REVEAL, 2, 0,
+			MineGrid.ACTION_REVEAL, 4, 2,
+			MineGrid.ACTION_FLAG, 8, 2
+		}));
+		assertEquals(MineGrid.GameState.LOST, mg.getGameState());
+		assertEquals(MineGrid.MINE, mg.getGrid()[2][8]);
+	}
+
+	/**
+	 * Tests chording reveals the neighbours of a number only once its mines
+	 * are flagged.
+	 */
+	@Test
+	public void testChord() {
+		MineGrid batch = new MineGrid(settings);
+
+		assertFalse(mg.chordCell(1, 0));
+		assertEquals(1, mg.revealCell(1, 0));
+		assertFalse(mg.chordCell(1, 0));
+		mg.flagCell(0, 0);
+		assertTrue(mg.chordCell(1, 0));
+		assertEquals(1, mg.getGrid()[1][0]);
+		assertEquals(1, mg.getGrid()[1][1]);
+		// The zero cell beside it cascades.
+		assertEquals(0, mg.getGrid()[0][9]);
+		assertEquals(MineGrid.FLAG, mg.getGrid()[0][0]);
+
+		batch.applyActions(new int[] {
+			MineGrid.ACTION_REVEAL, 1, 0,
+			MineGrid.ACTION_FLAG, 0, 0,
+			MineGrid.ACTION_CHORD, 1, 0
+		});
+		assertArrayEquals(mg.getGrid(), batch.getGrid());
+
+		// A wrong flag sets off the mine it was meant to cover.
+		mg = new MineGrid(settings);
+		assertEquals(1, mg.revealCell(9, 1));
+		mg.flagCell(9, 2);
+		assertTrue(mg.chordCell(9, 1));
+		assertEquals(MineGrid.GameState.LOST, mg.getGameState());
+	}
+
+	/**
+	 * Tests the bit board counts match the mines around each cell, across
+	 * several words per row, and its frontier matches the visible grid.
+	 */
+	@Test
+	public void testBitBoard() {
+		int[][] layout;
+		int[][] grid;
+		BitBoard board;
+		long[] frontier;
+		boolean expected;
+
+		settings.setGridSize(150, 70);
+		settings.setMines(1500);
+		settings.setGeneratorVersion(MineGrid.GENERATOR_SAMPLED);
+		layout = revealLayout(new MineGrid(settings));
+		for (int y = 0; y < 70; y++) {
+			for (int x = 0; x < 150; x++) {
+				if (layout[y][x] != MineGrid.MINE) {
+					assertEquals(countAround(layout, x, y, MineGrid.MINE, MineGrid.MINE), layout[y][x]);
+				}
+			}
+		}
+
+		mg = new MineGrid(settings);
+		for (int i = 0; i < 10; i++) {
+			if (layout[i * 7][i * 15] != MineGrid.MINE) {
+				mg.revealCell(i * 15, i * 7);
+			}
+		}
+		mg.flagCell(149, 69);
+		grid = mg.getGrid();
+		board = BitBoard.fromView(mg.getView());
+		frontier = board.frontier();
+		for (int y = 0; y < 70; y++) {
+			for (int x = 0; x < 150; x++) {
+				expected = grid[y][x] == MineGrid.UNKNOWN && countAround(grid, x, y, 1, 8) > 0;
+				assertEquals(expected, board.get(frontier, x, y));
+			}
+		}
+	}
+
+	/**
+	 * Tests the counts on toroidal and hexagonal grids match their mines, and
+	 * cascades follow the same neighbours.
+	 */
+	@Test
+	public void testTopologies() {
+		int[] topologies = { MineGrid.TOPOLOGY_TORUS, MineGrid.TOPOLOGY_HEX };
+		int[][] layout;
+		int mines;
+		int nx;
+		int ny;
+
+		settings.setGridSize(23, 17);
+		settings.setMines(60);
+		for (int topology : topologies) {
+			settings.setTopology(topology);
+			layout = revealLayout(new MineGrid(settings));
+			for (int y = 0; y < 17; y++) {
+				for (int x = 0; x < 23; x++) {
+					if (layout[y][x] == MineGrid.MINE) {
+						continue;
+					}
+					mines = 0;
+					for (int dy = -1; dy <= 1; dy++) {
+						for (int dx = -1; dx <= 1; dx++) {
+							nx = x + dx;
+							ny = y + dy;
+							if (topology == MineGrid.TOPOLOGY_TORUS) {
+								nx = (nx + 23) % 23;
+								ny = (ny + 17) % 17;
+							}
+							// Odd hex rows touch the row above and below to the right.
+							else if (dy != 0 && dx == (y % 2 == 0 ? 1 : -1)) {
+								continue;
+							}
+							if ((dx != 0 || dy != 0) && nx >= 0 && nx < 23 && ny >= 0 && ny < 17
+									&& layout[ny][nx] == MineGrid.MINE) {
+								mines++;
+							}
+						}
+					}
+					assertEquals(mines, layout[y][x]);
+				}
+			}
+		}
+
+		// A cascade on an empty torus wraps round to every cell.
+		settings.setMines(0);
+		settings.setTopology(MineGrid.TOPOLOGY_TORUS);
+		settings.setParallelReveal(true);
+		mg = new MineGrid(settings);
+		mg.revealCell(0, 0);
+		assertEquals(MineGrid.GameState.WON, mg.getGameState());
+		assertEquals(23 * 17, mg.getChanges().size());
+	}
+
+	/**
+	 * Tests small tori list each neighbour once, even where a side is too
+	 * short for its two directions to reach different cells.
+	 */
+	@Test
+	public void testTorusNeighbours() {
+		Topology topology;
+		long[] around = new long[26];
+		int count;
+		int[] layout;
+
+		for (int depth = 1; depth <= 3; depth++) {
+			for (int size = 3; size <= 4; size++) {
+				topology = new Topology(MineGrid.TOPOLOGY_TORUS, size, 3, depth);
+				for (long cell = 0; cell < size * 3 * depth; cell++) {
+					count = topology.neighbours(cell, around);
+					assertEquals(9 * Math.min(depth, 3) - 1, count);
+					for (int i = 0; i < count; i++) {
+						assertNotEquals(cell, around[i]);
+						for (int j = 0; j < i; j++) {
+							assertNotEquals(around[j], around[i]);
+						}
+					}
+				}
+			}
+		}
+
+		// Every cell of a 3x3x2 torus touches every other, so each number
+		// counts the one mine once.
+		settings.setGridSize(3, 3);
+		settings.setDepth(2);
+		settings.setMines(1);
+		settings.setTopology(MineGrid.TOPOLOGY_TORUS);
+		settings.setLives(MineGrid.MAX_LIVES);
+		mg = new MineGrid(settings);
+		layout = new int[18];
+		for (int z = 0; z < 2; z++) {
+			for (int i = 0; i < 9; i++) {
+				layout[z * 9 + i] = mg.revealCell(i % 3, i / 3, z);
+			}
+		}
+		for (int i = 0; i < 18; i++) {
+			assertTrue(layout[i] == 1 || layout[i] == MineGrid.MINE);
+		}
+	}
+
+	/**
+	 * Tests the counts of a layered grid cover all 26 neighbours, and slices
+	 * and changes address cells in every layer.
+	 */
+	@Test
+	public void testThreeDimensions() {
+		int[][] layers = new int[4][5 * 6];
+		GridView view;
+		int mines;
+		int highest = 0;
+
+		// Dense enough for counts that need more than four bits.
+		settings.setGridSize(5, 6);
+		settings.setDepth(4);
+		settings.setMines(70);
+		settings.setLives(MineGrid.MAX_LIVES);
+		mg = new MineGrid(settings);
+		view = mg.getView();
+		assertEquals(4, mg.getDepth());
+		assertEquals(4, view.getDepth());
+		for (int z = 0; z < 4; z++) {
+			for (int y = 0; y < 6; y++) {
+				for (int x = 0; x < 5; x++) {
+					mg.revealCell(x, y, z);
+				}
+			}
+		}
+		assertEquals(MineGrid.GameState.LOST, mg.getGameState());
+		for (int z = 0; z < 4; z++) {
+			view.readSlice(z, layers[z], 0);
+		}
+
+		for (int z = 0; z < 4; z++) {
+			for (int y = 0; y < 6; y++) {
+				for (int x = 0; x < 5; x++) {
+					assertEquals(view.stateAt(x, y, z), layers[z][y * 5 + x]);
+					if (layers[z][y * 5 + x] == MineGrid.MINE) {
+						continue;
+					}
+					mines = 0;
+					for (int nz = Math.max(0, z - 1); nz <= Math.min(3, z + 1); nz++) {
+						for (int ny = Math.max(0, y - 1); ny <= Math.min(5, y + 1); ny++) {
+							for (int nx = Math.max(0, x - 1); nx <= Math.min(4, x + 1); nx++) {
+								if (layers[nz][ny * 5 + nx] == MineGrid.MINE) {
+									mines++;
+								}
+							}
+						}
+					}
+					assertEquals(mines, layers[z][y * 5 + x]);
+					highest = Math.max(highest, mines);
+				}
+			}
+		}
+		assertTrue(highest > 15);
+
+		// A cascade through an empty grid reaches every layer, and the
+		// changes report where each cell is.
+		settings.setMines(0);
+		settings.setParallelReveal(true);
+		mg = new MineGrid(settings);
+		assertEquals(0, mg.revealCell(2, 3, 1));
+		assertEquals(MineGrid.GameState.WON, mg.getGameState());
+		assertEquals(5 * 6 * 4, mg.getChanges().size());
+		for (int i = 0; i < mg.getChanges().size(); i++) {
+			assertEquals(mg.getChanges().getCell(i), (mg.getChanges().getZ(i) * 6
+					+ mg.getChanges().getY(i)) * 5 + mg.getChanges().getX(i));
+		}
+
+		settings.setTopology(MineGrid.TOPOLOGY_HEX);
+		try {
+			new MineGrid(settings);
+			fail("Hexagonal grids can't be layered");
+		}
+		catch (IllegalArgumentException e) {
+		}
+	}
+
+	/**
+	 * Tests each action reports exactly the cells it changed.
+	 */
+	@Test
+	public void testChanges() {
+		CellChanges changes;
+		int[][] before = mg.getGrid();
+		int[][] after;
+		int changed = 0;
+
+		// Reveal an empty cell, which cascades.
+		mg.revealCell(2, 0);
+		after = mg.getGrid();
+		changes = mg.getChanges();
+		for (int y = 0; y < mg.getHeight(); y++) {
+			for (int x = 0; x < mg.getWidth(); x++) {
+				if (before[y][x] != after[y][x]) {
+					changed++;
+				}
+			}
+		}
+		assertTrue(changed > 1);
+		assertEquals(changed, changes.size());
+		for (int i = 0; i < changes.size(); i++) {
+			assertEquals(after[changes.getY(i)][changes.getX(i)], changes.getState(i));
+			assertEquals(changes.getY(i) * mg.getWidth() + changes.getX(i), changes.getCell(i));
+		}
+
+		mg.flagCell(8, 2);
+		assertEquals(1, mg.getChanges().size());
+		assertEquals(MineGrid.FLAG, mg.getChanges().getState(0));
+
+		// Flagging a revealed cell changes nothing.
+		mg.flagCell(2, 0);
+		assertEquals(0, mg.getChanges().size());
+		assertFalse(mg.getChanges().isFullRefresh());
+
+		// Losing a grid too large to list asks for a full refresh, which
+		// can't be undone.
+		settings.setGridSize(1500, 1500);
+		settings.setMines(1000000);
+		settings.setLives(1);
+		settings.setGeneratorVersion(MineGrid.DEFAULT_GENERATOR);
+		mg = new MineGrid(settings);
+		mg.flagCell(0, 0);
+		assertTrue(mg.canUndo());
+		for (int x = 1; mg.getGameState() != MineGrid.GameState.LOST; x++) {
+			mg.revealCell(x, 0);
+		}
+		changes = mg.getChanges();
+		assertTrue(changes.isFullRefresh());
+		assertEquals(0, changes.size());
+		assertFalse(mg.canUndo());
+		assertNotEquals(MineGrid.UNKNOWN, mg.getView().stateAt(1499, 1499));
+	}
+
+	/**
+	 * Tests the grid view matches the copied grid and tracks changes.
+	 */
+	@Test
+	public void testView() {
+		GridView view = mg.getView();
+		long version = view.getVersion();
+		int[] row = new int[view.getWidth() + 1];
+		int[][] grid;
+
+		mg.revealCell(2, 0);
+		assertTrue(view.getVersion() > version);
+		grid = mg.getGrid();
+		for (int y = 0; y < view.getHeight(); y++) {
+			view.readRow(y, row, 1);
+			for (int x = 0; x < view.getWidth(); x++) {
+				assertEquals(grid[y][x], view.stateAt(x, y));
+				assertEquals(grid[y][x], row[x + 1]);
+			}
+		}
+
+		// An action that changes nothing leaves the version alone.
+		version = view.getVersion();
+		mg.flagCell(2, 0);
+		assertEquals(version, view.getVersion());
+		mg.flagCell(8, 2);
+		assertEquals(MineGrid.FLAG, view.stateAt(8, 2));
+		assertTrue(view.getVersion() > version);
+	}
+
+	/**
+	 * Tests the numbers on an infinite grid match its mines, including across
+	 * chunk borders, and that the same seed gives the same grid.
+	 */
+	@Test
+	public void testInfiniteGrid() {
+		final int range = ChunkStore.CHUNK_SIZE + 6;
+		GridView view;
+		MineGrid copy;
+		int mines;
+
+		settings.setInfinite(true);
+		settings.setMines(15);
+		settings.setLives(Integer.MAX_VALUE);
+		mg = new MineGrid(settings);
+		copy = new MineGrid(settings);
+		view = mg.getView();
+
+		assertTrue(mg.isInfinite());
+		for (int y = -range; y <= range; y++) {
+			for (int x = -range; x <= range; x++) {
+				mg.revealCell(x, y);
+			}
+		}
+		for (int y = -range + 1; y < range; y++) {
+			for (int x = -range + 1; x < range; x++) {
+				if (view.stateAt(x, y) >= 0) {
+					mines = 0;
+					for (int ny = y - 1; ny <= y + 1; ny++) {
+						for (int nx = x - 1; nx <= x + 1; nx++) {
+							if (view.stateAt(nx, ny) == MineGrid.MINE) {
+								mines++;
+							}
+						}
+					}
+					assertEquals(mines, view.stateAt(x, y));
+				}
+			}
+		}
+
+		copy.revealCell(-range, range);
+		assertEquals(view.stateAt(-range, range), copy.getView().stateAt(-range, range));
+		assertEquals(MineGrid.GameState.STARTED, mg.getGameState());
+	}
+
+	/**
+	 * Tests a cascade on an infinite grid crosses chunk borders and stops at
+	 * the cascade limit.
+	 */
+	@Test
+	public void testInfiniteCascade() {
+		CellChanges changes;
+		GridView view;
+		boolean negative = false;
+		boolean positive = false;
+		int x = 0;
+		int edgeX = 0;
+		int edgeY = 0;
+		boolean edge = false;
+
+		settings.setInfinite(true);
+		settings.setMines(1);
+		settings.setLives(Integer.MAX_VALUE);
+		mg = new MineGrid(settings);
+
+		// Reveal cells along a row until one opens a cascade.
+		while (mg.revealCell(x, 0) != 0) {
+			x++;
+		}
+		changes = mg.getChanges();
+		view = mg.getView();
+		for (int i = 0; i < changes.size(); i++) {
+			negative |= changes.getX(i) < 0;
+			positive |= changes.getX(i) >= ChunkStore.CHUNK_SIZE;
+			// Look for an unknown cell next to a zero, left by the limit.
+			for (int dy = -1; dy <= 1 && !edge && changes.getState(i) == 0; dy++) {
+				for (int dx = -1; dx <= 1 && !edge; dx++) {
+					edgeX = changes.getX(i) + dx;
+					edgeY = changes.getY(i) + dy;
+					edge = view.stateAt(edgeX, edgeY) == MineGrid.UNKNOWN;
+				}
+			}
+		}
+		assertTrue(negative && positive);
+		assertTrue(mg.getScore() > ChunkStore.CHUNK_CELLS);
+
+		// The cascade stops once the limit is reached, within the neighbours
+		// of the last cell expanded, and its edge can be revealed to go on.
+		assertTrue(changes.size() > MineGrid.INFINITE_CASCADE_LIMIT);
+		assertTrue(changes.size() <= MineGrid.INFINITE_CASCADE_LIMIT + 8);
+		assertTrue(mg.getScore() <= x + MineGrid.INFINITE_CASCADE_LIMIT + 8);
+		assertTrue(edge);
+		assertTrue(mg.revealCell(edgeX, edgeY) >= 0);
+	}
+
+	/**
+	 * Tests untouched chunks are evicted and regenerated unchanged while
+	 * touched chunks are kept.
+	 */
+	@Test
+	public void testChunkEviction() {
+		ChunkStore store = new ChunkStore(RANDOM_SEED, 600);
+		long idle = ChunkStore.cellId(-5, 7);
+		long touched = ChunkStore.cellId(1000, -1000);
+		int idleBits = store.get(idle);
+
+		store.set(touched, store.get(touched) | CellStore.FLAG_BIT);
+		for (int i = 0; i < 1000; i++) {
+			store.get(ChunkStore.cellId(i * ChunkStore.CHUNK_SIZE, 5000));
+		}
+		assertTrue(store.getLoadedChunks() < 1000);
+		assertEquals(idleBits, store.get(idle));
+		assertTrue((store.get(touched) & CellStore.FLAG_BIT) != 0);
+	}
+
+	/**
+	 * Tests grids kept off the heap play exactly like grids on the heap, up
+	 * to their size limits.
+	 */
+	@Test
+	public void testOffHeapStorage() throws IOException {
+		File file = File.createTempFile("minegrid", ".cells");
+		int[] storage = { MineGrid.STORAGE_OFF_HEAP, MineGrid.STORAGE_MAPPED };
+		MineGrid heapGrid;
+		MineGrid offHeapGrid;
+
+		file.deleteOnExit();
+		settings.setGridSize(60, 40);
+		settings.setMines(300);
+		settings.setLives(MineGrid.MAX_LIVES);
+		for (int i = 0; i < storage.length; i++) {
+			heapGrid = new MineGrid(settings);
+			settings.setStorage(storage[i], file);
+			offHeapGrid = new MineGrid(settings);
+			settings.setStorage(MineGrid.STORAGE_HEAP, null);
+
+			for (int y = 0; y < 40; y += 3) {
+				for (int x = 0; x < 60; x += 7) {
+					assertEquals(heapGrid.revealCell(x, y), offHeapGrid.revealCell(x, y));
+				}
+			}
+			assertArrayEquals(heapGrid.getGrid(), offHeapGrid.getGrid());
+			assertEquals(heapGrid.getGameState(), offHeapGrid.getGameState());
+
+			// Only the heap grid can be forked.
+			assertTrue(heapGrid.canFork());
+			assertFalse(offHeapGrid.canFork());
+			try {
+				offHeapGrid.fork();
+				fail("Grids kept off the heap can't be forked");
+			}
+			catch (UnsupportedOperationException e) {
+			}
+		}
+		assertEquals(60 * 40, file.length());
+
+		settings.setGridSize(MineGrid.MAX_OFF_HEAP_WIDTH + 1, 3);
+		settings.setStorage(MineGrid.STORAGE_OFF_HEAP, null);
+		try {
+			new MineGrid(settings);
+			fail("Grids wider than the off-heap limit can't be stored");
+		}
+		catch (IllegalArgumentException e) {
+		}
+	}
+
+	/**
+	 * Tests a saved game loads in the same position, from heap or mapped
+	 * storage, and plays on the same as the original.
+	 */
+	@Test
+	public void testSaveLoad() throws IOException {
+		File file = File.createTempFile("minegrid", ".sav");
+		File cells = File.createTempFile("minegrid", ".cells");
+		int[] storage = { MineGrid.STORAGE_HEAP, MineGrid.STORAGE_OFF_HEAP, MineGrid.STORAGE_MAPPED };
+		MineGrid loaded;
+		byte[] saved;
+		long timeTaken;
+		long length;
+
+		file.deleteOnExit();
+		cells.deleteOnExit();
+		settings.setGridSize(30, 20);
+		settings.setDepth(2);
+		settings.setMines(100);
+		settings.setLives(MineGrid.MAX_LIVES);
+		for (int i = 0; i < storage.length; i++) {
+			settings.setStorage(storage[i], cells);
+			mg = new MineGrid(settings);
+			mg.flagCell(4, 5, 1);
+			mg.revealCell(10, 10, 0);
+			mg.revealCell(20, 3, 1);
+			timeTaken = mg.getTimeTaken();
+			mg.save(file);
+			length = file.length();
+
+			loaded = MineGrid.load(file);
+			assertEquals(mg.getDepth(), loaded.getDepth());
+			assertEquals(mg.getTotalMines(), loaded.getTotalMines());
+			assertEquals(mg.getLives(), loaded.getLives());
+			assertEquals(mg.getNumFlags(), loaded.getNumFlags());
+			assertEquals(mg.getGameState(), loaded.getGameState());
+			assertTrue(loaded.getTimeTaken() >= timeTaken);
+			assertFalse(loaded.canUndo());
+			for (int z = 0; z < 2; z++) {
+				for (int y = 0; y < 20; y++) {
+					for (int x = 0; x < 30; x++) {
+						assertEquals(mg.getView().stateAt(x, y, z), loaded.getView().stateAt(x, y, z));
+					}
+				}
+			}
+
+			for (int y = 0; y < 20; y += 3) {
+				for (int x = 0; x < 30; x += 4) {
+					assertEquals(mg.revealCell(x, y, 1), loaded.revealCell(x, y, 1));
+				}
+			}
+			assertEquals(mg.getGameState(), loaded.getGameState());
+			assertEquals(mg.getLives(), loaded.getLives());
+			// Playing a mapped game never changes the save.
+			assertEquals(length, file.length());
+			assertArrayEquals(mg.getGrid(), loaded.getGrid());
+			// A mapped game can be saved over the file it was loaded from.
+			loaded.save(file);
+			assertArrayEquals(loaded.getGrid(), MineGrid.load(file).getGrid());
+		}
+		settings.setStorage(MineGrid.STORAGE_HEAP, null);
+
+		// Only saved games are loaded.
+		Files.write(cells.toPath(), new byte[] { 1, 2, 3, 4 });
+		try {
+			MineGrid.load(cells);
+			fail("Loaded a file that isn't a saved game");
+		}
+		catch (IOException e) {
+		}
+
+		// Headers that don't fit the game's limits or the file are refused
+		// before anything is allocated for the cells.
+		mg = new MineGrid(settings);
+		mg.save(file);
+		saved = Files.readAllBytes(file.toPath());
+		assertCorrupt(file, Arrays.copyOf(saved, saved.length - 1), 0, 0);
+		// A grid far larger than the file.
+		assertCorrupt(file, saved, 8, MineGrid.MAX_WIDTH);
+		assertCorrupt(file, saved, 20, -1);
+		// More lives left than the game started with.
+		assertCorrupt(file, saved, MineGrid.SAVE_HEADER_SIZE - MineGrid.SAVE_COUNTERS_SIZE + 1,
+				MineGrid.MAX_LIVES + 1);
+	}
+
+	/**
+	 * Checks a save with an int of its header replaced fails to load with an
+	 * IOException.
+	 */
+	private void assertCorrupt(File file, byte[] saved, int offset, int value) throws IOException {
+		byte[] corrupt = saved.clone();
+
+		if (value != 0) {
+			ByteBuffer.wrap(corrupt).putInt(offset, value);
+		}
+		Files.write(file.toPath(), corrupt);
+		try {
+			MineGrid.load(file);
+			fail("Loaded a corrupt save");
+		}
+		catch (IOException e) {
+		}
+	}
+
+	/**
+	 * Tests off-heap cells are addressed correctly across buffer boundaries.
+	 */
+	@Test
+	public void testOffHeapSegments() throws IOException {
+		OffHeapCellStore store = new OffHeapCellStore(1000, null, 6);
+
+		for (int i = 0; i < 1000; i++) {
+			store.set(i, i % 100);
+		}
+		for (int i = 0; i < 1000; i++) {
+			assertEquals(i % 100, store.get(i));
+		}
+	}
+
 	/**
 	 * Tests getters respond with expected properties.
 	 */
@@ -323,5 +1310,33 @@ public class MineGridTest {
 		assertEquals(0, mg.getScore());
 	}
 
+	/**
+	 * Returns the number of neighbours of a cell whose states fall in the
+	 * given range.
+	 */
+	private int countAround(int[][] grid, int x, int y, int min, int max) {
+		int count = 0;
+
+		for (int ny = Math.max(0, y - 1); ny <= Math.min(grid.length - 1, y + 1); ny++) {
+			for (int nx = Math.max(0, x - 1); nx <= Math.min(grid[0].length - 1, x + 1); nx++) {
+				if ((nx != x || ny != y) && grid[ny][nx] >= min && grid[ny][nx] <= max) {
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Reveals every cell of the given game and returns the grid states.
+	 */
+	private int[][] revealLayout(MineGrid game) {
+		for (int y = 0; y < game.getHeight(); y++) {
+			for (int x = 0; x < game.getWidth(); x++) {
+				game.revealCell(x, y);
+			}
+		}
+		return game.getGrid();
+	}
 
 }
@@ -0,0 +1,215 @@
+/**
+ * Plants the mines of a bounded grid into a cell store and counts each
+ * cell's neighbouring mines.
+ *
+ * Mines are placed by either of the game's generator versions, so a seed
+ * gives the same layout whichever store or game the mines are planted for.
+ * Flat square grids count their neighbours a word at a time on a bit board
+ * of the planted mines; other grids add one to each neighbour of every mine
+ * as it is planted. The board holds only the mines plane, and it is kept
+ * from one planting to the next along with its row of counts, the random
+ * generator and the legacy generator's list of chosen cells, so an engine
+ * that plays game after game on the same grid doesn't allocate them again.
+ *
+ * @author arlsr
+ * @date 2014
+ */
+
+package tld.minegrid;
+
+import java.util.Random;
+
+class MinePlanter {
+	private Topology topology;
+	private int width;
+	private int height;
+	private long numCells;
+	private long[] around;
+	// Reseeded for each planting, which draws the same numbers as a new one.
+	private Random rand = new Random();
+	// The cells chosen so far by the legacy generator, in ascending order.
+	private long[] taken = new long[0];
+	// The mines planted so far on a flat square grid, and the neighbour
+	// counts of one row of it.
+	private BitBoard board;
+	private byte[] counts;
+	// Whether the mines being planted are counted on the board.
+	private boolean counting;
+
+	/**
+	 * Constructs a planter for grids of the given shape.
+	 *
+	 * @param	topology	the neighbours of each cell of the grid
+	 */
+	public MinePlanter(Topology topology, int width, int height, int depth) {
+		this.topology = topology;
+		this.width = width;
+		this.height = height;
+		numCells = (long)width * height * depth;
+		around = new long[topology.getMaxNeighbours()];
+	}
+
+	/**
+	 * Plants mines at random into an empty store.
+	 *
+	 * @param	generator	one of the MineGrid GENERATOR_ constants
+	 * @param	bitBoard	whether a flat square grid may count its
+	 * 						neighbours on a bit board, which takes a bit for
+	 * 						every cell
+	 */
+	void plant(CellStore store, int numMines, int generator, long seed, boolean bitBoard) {
+		rand.setSeed(seed);
+		counting = bitBoard && topology.fits(MineGrid.TOPOLOGY_SQUARE, width, height, 1);
+		if (counting) {
+			if (board == null) {
+				board = BitBoard.minesOnly(width, height);
+				counts = new byte[width];
+			}
+			else {
+				board.clearMines();
+			}
+		}
+		if (generator == MineGrid.GENERATOR_LEGACY) {
+			plantLegacy(store, numMines);
+		}
+		else {
+			plantSampled(store, numMines);
+		}
+		if (counting) {
+			addNeighbourCounts(store);
+			counting = false;
+		}
+	}
+
+	/**
+	 * Plants the given layout into a store that holds no mines.
+	 *
+	 * @param	mines	whether each cell is a mine
+	 */
+	void plant(CellStore store, boolean[] mines) {
+		for (int cell = 0; cell < mines.length; cell++) {
+			if (mines[cell]) {
+				plantMine(store, cell);
+			}
+		}
+	}
+
+	/**
+	 * Places a mine in the cell with the given id and increments the score of
+	 * each of its neighbours.
+	 */
+	private void plantMine(CellStore store, long cell) {
+		int count;
+
+		store.set(cell, store.get(cell) | CellStore.MINE_BIT);
+		// The neighbour counts are added once all the mines are planted.
+		if (counting) {
+			board.set(board.getMines(), (int)(cell % width), (int)(cell / width));
+			return;
+		}
+		count = topology.neighbours(cell, around);
+		for (int i = 0; i < count; i++) {
+			store.set(around[i], store.get(around[i]) + 1);
+		}
+	}
+
+	/**
+	 * Adds the number of neighbouring mines to every cell from the board of
+	 * planted mines.
+	 */
+	private void addNeighbourCounts(CellStore store) {
+		long cell;
+
+		for (int y = 0; y < height; y++) {
+			board.countNeighbours(board.getMines(), y, counts);
+			cell = (long)y * width;
+			for (int x = 0; x < width; x++) {
+				if (counts[x] != 0) {
+					store.set(cell + x, store.get(cell + x) | counts[x]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Plants the mines the way the first version of the game did.
+	 *
+	 * Each mine is chosen by picking a random position in the list of cells
+	 * without a mine, in row-major order. Rather than building that list the
+	 * chosen cells are kept sorted and the list position is mapped to a cell
+	 * index by binary search.
+	 */
+	private void plantLegacy(CellStore store, int numMines) {
+
+		long randIndex;
+		int low;
+		int high;
+		int mid;
+		long mineIndex;
+
+		if (taken.length < numMines) {
+			taken = new long[numMines];
+		}
+
+		// Plant the mines in random cells.
+		for (int i = 0; i < numMines; i++) {
+			randIndex = nextIndex(rand, numCells - i);
+
+			// Find how many taken cells come before the chosen list position.
+			low = 0;
+			high = i;
+			while (low < high) {
+				mid = (low + high) >>> 1;
+				if (taken[mid] - mid <= randIndex) {
+					low = mid + 1;
+				}
+				else {
+					high = mid;
+				}
+			}
+			mineIndex = randIndex + low;
+
+			System.arraycopy(taken, low, taken, low + 1, i - low);
+			taken[low] = mineIndex;
+			plantMine(store, mineIndex);
+		}
+
+	}
+
+	/**
+	 * Plants the mines by Floyd's sampling algorithm, which takes one random
+	 * number per mine and uses the store's own mine bits as the set of chosen
+	 * cells, so no extra memory is needed.
+	 */
+	private void plantSampled(CellStore store, int numMines) {
+		long mineIndex;
+
+		for (long j = numCells - numMines; j < numCells; j++) {
+			mineIndex = nextIndex(rand, j + 1);
+			// Cell j can't have been chosen yet so use it instead of a repeat.
+			if ((store.get(mineIndex) & CellStore.MINE_BIT) != 0) {
+				mineIndex = j;
+			}
+			plantMine(store, mineIndex);
+		}
+	}
+
+	/**
+	 * Returns a random cell index below the given bound, drawn the same way as
+	 * Random.nextInt for grids small enough to index with an int.
+	 */
+	private static long nextIndex(Random rand, long bound) {
+		long bits;
+		long value;
+
+		if (bound <= Integer.MAX_VALUE) {
+			return rand.nextInt((int)bound);
+		}
+		do {
+			bits = rand.nextLong() >>> 1;
+			value = bits % bound;
+		} while (bits - value + (bound - 1) < 0);
+		return value;
+	}
+
+}
@@ -0,0 +1,333 @@
+/**
+ * Finds mine layouts for a bounded grid that the Solver can finish from
+ * the first cell revealed, without a guess.
+ *
+ * Each attempt plants the mines at random clear of the first cell and its
+ * neighbours and plays the board out on a pooled engine, revealing only
+ * what the Solver proves safe. When the Solver gets stuck, a mine is moved
+ * between an undecided cell bordering the revealed cells and one deeper
+ * in, which changes the numbers it was stuck on, and solving carries on
+ * from where it was. A board that is finished after moves is played out
+ * once more from the first cell, since a move can undo an earlier
+ * deduction. An attempt gives up after so many moves.
+ *
+ * Attempts run speculatively on a fork/join task for every core, each on
+ * an engine kept from earlier layouts of the same size where there is one,
+ * which is restarted with the attempt's layout rather than a random one.
+ * Each attempt draws from its own split of a random stream seeded by the
+ * game, taken in order, and the layout kept is the one found by the lowest
+ * numbered attempt, so the same seed and first cell always give the same
+ * layout however the attempts were spread over the threads. Attempts
+ * numbered past one that has already succeeded are abandoned.
+ *
+ * @author arlsr
+ * @date 2014
+ */
+
+package tld.minegrid;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+class NoGuessGenerator {
+	// The attempts made before settling for a layout that only opens at the
+	// first cell.
+	private static final int MAX_ATTEMPTS = 2000;
+	// The mines moved in one attempt before it gives up.
+	private static final int MAX_MOVES = 40;
+
+	// Engines not being used by an attempt, at most one for each core. Those
+	// of another size are dropped when they're next taken, so the engines of
+	// a large grid aren't kept once smaller grids are played.
+	private static ConcurrentLinkedQueue<MineGrid> engines = new ConcurrentLinkedQueue<MineGrid>();
+
+	/**
+	 * Makes attempts on one thread until every attempt that could still be
+	 * kept has been made.
+	 */
+	private class Worker extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected void compute() {
+			MineGrid engine = engines.poll();
+			SplittableRandom random;
+			boolean[] mines;
+			int attempt;
+
+			while (engine != null && (engine.getWidth() != engineSettings.getGridWidth()
+					|| engine.getHeight() != engineSettings.getGridHeight()
+					|| engine.getDepth() != engineSettings.getDepth())) {
+				engine = engines.poll();
+			}
+			if (engine == null) {
+				engine = new MineGrid(engineSettings);
+			}
+			try {
+				while (true) {
+					synchronized (NoGuessGenerator.this) {
+						attempt = nextAttempt;
+						if (attempt >= Math.min(found, MAX_ATTEMPTS)) {
+							return;
+						}
+						nextAttempt++;
+						random = stream.split();
+					}
+					mines = plant(random);
+					if (solve(engine, mines, random, attempt)) {
+						synchronized (NoGuessGenerator.this) {
+							if (attempt < found) {
+								found = attempt;
+								result = mines;
+							}
+						}
+					}
+				}
+			}
+			finally {
+				if (engines.size() < Runtime.getRuntime().availableProcessors()) {
+					engines.offer(engine);
+				}
+			}
+		}
+	}
+
+	private MineGridSettings engineSettings;
+	private int numCells;
+	private int numMines;
+	private int first;
+	// Whether each cell may hold a mine.
+	private boolean[] allowed;
+	private int numAllowed;
+	private SplittableRandom stream;
+	private int nextAttempt;
+	// The lowest attempt to succeed, and its layout.
+	private volatile int found = Integer.MAX_VALUE;
+	private boolean[] result;
+
+	private NoGuessGenerator(MineGridSettings settings, long seed, int first) {
+		Topology topology = new Topology(settings.getTopology(), settings.getGridWidth(), settings.getGridHeight(),
+				settings.getDepth());
+		long[] around = new long[topology.getMaxNeighbours()];
+		int count;
+
+		engineSettings = new MineGridSettings();
+		engineSettings.setGridSize(settings.getGridWidth(), settings.getGridHeight());
+		engineSettings.setDepth(settings.getDepth());
+		engineSettings.setMines(settings.getMines());
+		engineSettings.setTopology(settings.getTopology());
+		engineSettings.setLives(1);
+		engineSettings.setSeed(Long.valueOf(seed));
+		numCells = settings.getGridWidth() * settings.getGridHeight() * settings.getDepth();
+		numMines = settings.getMines();
+		this.first = first;
+		stream = new SplittableRandom(seed ^ (long)first * 0x9E3779B97F4A7C15L);
+
+		// Keep the first cell's neighbours clear too when there's room, so
+		// it opens the board.
+		allowed = new boolean[numCells];
+		Arrays.fill(allowed, true);
+		allowed[first] = false;
+		count = topology.neighbours(first, around);
+		if (numCells - count - 1 >= numMines) {
+			for (int i = 0; i < count; i++) {
+				allowed[(int)around[i]] = false;
+			}
+		}
+		for (boolean cell : allowed) {
+			if (cell) {
+				numAllowed++;
+			}
+		}
+	}
+
+	/**
+	 * Returns a layout for a game with the given settings that the Solver
+	 * can finish from the given cell, or, failing that, one that opens at it.
+	 *
+	 * @param	settings	the settings of a bounded grid
+	 * @param	seed		the game's seed
+	 * @param	first		the cell id of the first cell revealed
+	 * @return	whether each cell is a mine
+	 */
+	static boolean[] generate(MineGridSettings settings, long seed, int first) {
+		NoGuessGenerator generator = new NoGuessGenerator(settings, seed, first);
+		ArrayList<Worker> workers = new ArrayList<Worker>();
+
+		if (generator.numAllowed < generator.numMines) {
+			throw new IllegalArgumentException("Too many mines to keep the first cell clear");
+		}
+		for (int i = 0; i < Runtime.getRuntime().availableProcessors(); i++) {
+			workers.add(generator.new Worker());
+		}
+		ForkJoinTask.invokeAll(workers);
+
+		if (generator.result == null) {
+			return generator.plant(new SplittableRandom(seed ^ (long)first * 0x9E3779B97F4A7C15L).split());
+		}
+		return generator.result;
+	}
+
+	/**
+	 * Returns mines planted at random among the allowed cells.
+	 */
+	private boolean[] plant(SplittableRandom random) {
+		boolean[] mines = new boolean[numCells];
+		int left = numMines;
+		int candidates = numAllowed;
+
+		// Selection sampling keeps each cell with the chance of the mines
+		// still to plant among the cells still to pass.
+		for (int cell = 0; cell < numCells && left > 0; cell++) {
+			if (allowed[cell]) {
+				if (random.nextInt(candidates) < left) {
+					mines[cell] = true;
+					left--;
+				}
+				candidates--;
+			}
+		}
+		return mines;
+	}
+
+	/**
+	 * Plays an attempt out, moving mines when the Solver gets stuck.
+	 *
+	 * @param	mines	the layout, changed by any mines moved
+	 * @return	whether the layout can be finished without a guess
+	 */
+	private boolean solve(MineGrid engine, boolean[] mines, SplittableRandom random, int attempt) {
+		boolean fresh = true;
+		Solver solver = null;
+		int moves = 0;
+
+		while (attempt < found) {
+			if (fresh) {
+				engine.restart(engineSettings, mines);
+				engine.revealCell(engine.cellX(first), engine.cellY(first), engine.cellZ(first));
+				if (solver == null) {
+					solver = new Solver(engine);
+				}
+				else {
+					solver.reset(engine);
+				}
+			}
+			solveAll(engine, solver);
+			if (engine.getGameState() == MineGrid.GameState.WON) {
+				if (fresh) {
+					return true;
+				}
+				// Check the finished layout from the first cell again.
+				fresh = true;
+				continue;
+			}
+			if (++moves > MAX_MOVES || !move(engine, solver, mines, random)) {
+				return false;
+			}
+			// The numbers around the mine moved have changed.
+			solver.reset(engine);
+			fresh = false;
+		}
+		return false;
+	}
+
+	/**
+	 * Reveals every cell the Solver can prove safe.
+	 */
+	private static void solveAll(MineGrid engine, Solver solver) {
+		int[] coords = new int[3];
+
+		while (engine.getGameState() == MineGrid.GameState.STARTED && solver.findSafeCell(coords)) {
+			engine.revealCell(coords[0], coords[1], coords[2]);
+			solver.update();
+		}
+	}
+
+	/**
+	 * Moves a mine between a random undecided cell bordering the revealed
+	 * cells and a random undecided cell that doesn't, changing the engine's
+	 * cells to match.
+	 *
+	 * @return	whether there were cells to move a mine between
+	 */
+	private boolean move(MineGrid engine, Solver solver, boolean[] mines, SplittableRandom random) {
+		CellStore store = engine.getStore();
+		Topology topology = engine.getTopology();
+		long[] around = new long[topology.getMaxNeighbours()];
+		int[] border = new int[numCells];
+		int[] inner = new int[numCells];
+		int numBorder = 0;
+		int numInner = 0;
+		int innerMines = 0;
+		boolean bordering;
+		int count;
+		int from;
+		int to;
+
+		for (int cell = 0; cell < numCells; cell++) {
+			if ((store.get(cell) & CellStore.REVEALED_BIT) != 0
+					|| solver.getDeduction(engine.cellX(cell), engine.cellY(cell), engine.cellZ(cell)) != Solver.UNKNOWN) {
+				continue;
+			}
+			bordering = false;
+			count = topology.neighbours(cell, around);
+			for (int i = 0; i < count; i++) {
+				if ((store.get(around[i]) & CellStore.REVEALED_BIT) != 0) {
+					bordering = true;
+				}
+			}
+			if (bordering) {
+				border[numBorder++] = cell;
+			}
+			else {
+				inner[numInner++] = cell;
+				if (mines[cell]) {
+					innerMines++;
+				}
+			}
+		}
+		if (numBorder == 0) {
+			return false;
+		}
+
+		from = border[random.nextInt(numBorder)];
+		if (mines[from]) {
+			// Move the mine in from the border.
+			if (innerMines == numInner) {
+				return false;
+			}
+			do {
+				to = inner[random.nextInt(numInner)];
+			} while (mines[to]);
+		}
+		else {
+			// Bring a mine out to the border.
+			if (innerMines == 0) {
+				return false;
+			}
+			to = from;
+			do {
+				from = inner[random.nextInt(numInner)];
+			} while (!mines[from]);
+		}
+
+		mines[from] = false;
+		mines[to] = true;
+		store.set(from, store.get(from) & ~CellStore.MINE_BIT);
+		count = topology.neighbours(from, around);
+		for (int i = 0; i < count; i++) {
+			store.set(around[i], store.get(around[i]) - 1);
+		}
+		store.set(to, store.get(to) | CellStore.MINE_BIT);
+		count = topology.neighbours(to, around);
+		for (int i = 0; i < count; i++) {
+			store.set(around[i], store.get(around[i]) + 1);
+		}
+		return true;
+	}
+
+}
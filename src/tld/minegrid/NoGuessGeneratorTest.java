@@ -0,0 +1,133 @@
+/**
+ * Automated JUnit tests against planting layouts that need no guesses.
+ *
+ * @author arlsr
+ * @date 2014
+ */
+
+package tld.minegrid;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class NoGuessGeneratorTest {
+
+	private MineGridSettings settings;
+
+	@Before
+	public void setUp() throws Exception {
+		settings = new MineGridSettings();
+		settings.setGridSize(30, 16);
+		settings.setMines(99);
+		settings.setLives(1);
+		settings.setNoGuess(true);
+	}
+
+	/**
+	 * Tests every layout opens at the first cell and is finished by the
+	 * Solver alone, on each topology.
+	 */
+	@Test
+	public void testNoGuess() {
+		MineGrid game;
+
+		for (int topology = MineGrid.TOPOLOGY_SQUARE; topology <= MineGrid.TOPOLOGY_HEX; topology++) {
+			settings.setTopology(topology);
+			for (int seed = 0; seed < 20; seed++) {
+				settings.setSeed(Long.valueOf(seed));
+				game = new MineGrid(settings);
+				assertEquals(0, countMines(game));
+				assertEquals(0, game.revealCell(seed % 30, seed % 16));
+				assertEquals(99, countMines(game));
+				solve(game);
+			}
+		}
+	}
+
+	/**
+	 * Tests a seed and first cell always give the same layout, so games can
+	 * be played again from their recordings and saved before they start.
+	 */
+	@Test
+	public void testRepeatable() throws Exception {
+		File file = File.createTempFile("minegrid", ".sav");
+		ScoreVerifier verifier = new ScoreVerifier();
+		MineGrid game;
+		MineGrid other;
+
+		file.deleteOnExit();
+		settings.setSeed(1L);
+		game = new MineGrid(settings);
+		game.save(file);
+		other = MineGrid.load(file);
+		game.revealCell(5, 5);
+		other.revealCell(5, 5);
+		assertTrue(sameMines(game, other));
+
+		other = new MineGrid(settings);
+		other.revealCell(6, 5);
+		assertFalse(sameMines(game, other));
+
+		solve(game);
+		assertTrue(verifier.verify(game.getRecording(), game.getScore(), game.getTimeTaken()));
+	}
+
+	/**
+	 * Tests undoing the first reveal plants the mines again around the next,
+	 * keeping the flags placed.
+	 */
+	@Test
+	public void testUndo() {
+		MineGrid game;
+
+		settings.setSeed(2L);
+		game = new MineGrid(settings);
+		game.flagCell(0, 0);
+		game.revealCell(15, 8);
+		game.undo();
+		assertEquals(0, game.revealCell(29, 15));
+		assertEquals(MineGrid.FLAG, game.getView().stateAt(0, 0));
+		game.flagCell(0, 0);
+		solve(game);
+	}
+
+	/**
+	 * Reveals what the Solver proves safe until the game is won.
+	 */
+	private void solve(MineGrid game) {
+		Solver solver = new Solver(game);
+		int[] coords = new int[3];
+
+		while (solver.findSafeCell(coords)) {
+			game.revealCell(coords[0], coords[1], coords[2]);
+			solver.update();
+		}
+		assertEquals(MineGrid.GameState.WON, game.getGameState());
+	}
+
+	private int countMines(MineGrid game) {
+		CellStore store = game.getStore();
+		int mines = 0;
+
+		for (long cell = 0; cell < game.getWidth() * game.getHeight(); cell++) {
+			if ((store.get(cell) & CellStore.MINE_BIT) != 0) {
+				mines++;
+			}
+		}
+		return mines;
+	}
+
+	private boolean sameMines(MineGrid a, MineGrid b) {
+		for (long cell = 0; cell < a.getWidth() * a.getHeight(); cell++) {
+			if ((a.getStore().get(cell) & CellStore.MINE_BIT) != (b.getStore().get(cell) & CellStore.MINE_BIT)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
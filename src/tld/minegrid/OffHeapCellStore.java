@@ -0,0 +1,169 @@
+/**
+ * Cell storage for a bounded grid held outside the Java heap, either in a
+ * memory-mapped file or in direct buffers.
+ *
+ * The cells are split over buffers of up to a gigabyte each, so the grid
+ * isn't limited to the two billion cells of a Java array. A mapped file is
+ * only paged in where the game touches it. A saved game's cells can be
+ * mapped straight from the save file, privately so that playing on never
+ * changes the file.
+ *
+ * @author arlsr
+ * @date 2014
+ */
+
+package tld.minegrid;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+class OffHeapCellStore extends CellStore {
+	private static final int DEFAULT_SEGMENT_BITS = 30;
+
+	private ByteBuffer[] segments;
+	private int segmentBits;
+	private long segmentMask;
+	private long numCells;
+
+	/**
+	 * Constructs a store of the given number of cells, all clear.
+	 *
+	 * @param	numCells	the number of cells in the grid
+	 * @param	file		the file to map, replacing its contents, or null to
+	 * 						use direct buffers
+	 */
+	public OffHeapCellStore(long numCells, File file) throws IOException {
+		this(numCells, file, DEFAULT_SEGMENT_BITS);
+	}
+
+	/**
+	 * Constructs a store split into buffers of 2 ^ segmentBits cells.
+	 */
+	OffHeapCellStore(long numCells, File file, int segmentBits) throws IOException {
+		long segmentSize = 1L << segmentBits;
+		int numSegments = (int)((numCells + segmentSize - 1) >> segmentBits);
+		RandomAccessFile raf;
+		FileChannel channel;
+
+		this.numCells = numCells;
+		this.segmentBits = segmentBits;
+		segmentMask = segmentSize - 1;
+		segments = new ByteBuffer[numSegments];
+
+		if (file == null) {
+			for (int i = 0; i < numSegments; i++) {
+				segments[i] = ByteBuffer.allocateDirect((int)segmentLength(i));
+			}
+		}
+		else {
+			raf = new RandomAccessFile(file, "rw");
+			try {
+				// Clear anything left in the file by a previous game.
+				raf.setLength(0);
+				raf.setLength(numCells);
+				channel = raf.getChannel();
+				for (int i = 0; i < numSegments; i++) {
+					segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, (long)i << segmentBits,
+							segmentLength(i));
+				}
+			}
+			finally {
+				// The mappings stay valid once the file is closed.
+				raf.close();
+			}
+		}
+	}
+
+	/**
+	 * Constructs a store from cells already in a file, mapped so that
+	 * changes to the cells are never written back to it.
+	 *
+	 * @param	file		the file holding the cells
+	 * @param	position	where the first cell is in the file
+	 * @param	numCells	the number of cells in the grid
+	 */
+	public OffHeapCellStore(File file, long position, long numCells) throws IOException {
+		long segmentSize = 1L << DEFAULT_SEGMENT_BITS;
+		int numSegments = (int)((numCells + segmentSize - 1) >> DEFAULT_SEGMENT_BITS);
+		// Private mappings need a channel open for writing as well.
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		FileChannel channel;
+
+		this.numCells = numCells;
+		segmentBits = DEFAULT_SEGMENT_BITS;
+		segmentMask = segmentSize - 1;
+		segments = new ByteBuffer[numSegments];
+
+		try {
+			channel = raf.getChannel();
+			if (channel.size() < position + numCells) {
+				throw new EOFException("The file ended before every cell was read");
+			}
+			for (int i = 0; i < numSegments; i++) {
+				segments[i] = channel.map(FileChannel.MapMode.PRIVATE, position + ((long)i << segmentBits),
+						segmentLength(i));
+			}
+		}
+		finally {
+			raf.close();
+		}
+	}
+
+	@Override
+	int get(long cell) {
+		return segments[(int)(cell >>> segmentBits)].get((int)(cell & segmentMask)) & 0xFF;
+	}
+
+	@Override
+	void set(long cell, int bits) {
+		segments[(int)(cell >>> segmentBits)].put((int)(cell & segmentMask), (byte)bits);
+	}
+
+	@Override
+	void revealAll(CellChanges changes) {
+		int bits;
+
+		for (long cell = 0; cell < numCells; cell++) {
+			bits = get(cell);
+			if ((bits & REVEALED_BIT) == 0) {
+				set(cell, bits | REVEALED_BIT);
+				changes.add(cell, MineGrid.stateOf(bits | REVEALED_BIT));
+			}
+		}
+	}
+
+	@Override
+	void write(FileChannel channel) throws IOException {
+		writeFully(channel, duplicateSegments());
+	}
+
+	@Override
+	void read(FileChannel channel) throws IOException {
+		readFully(channel, duplicateSegments());
+	}
+
+	/**
+	 * Returns a buffer over each segment with its own position, for reading
+	 * or writing the segments in bulk.
+	 */
+	private ByteBuffer[] duplicateSegments() {
+		ByteBuffer[] buffers = new ByteBuffer[segments.length];
+
+		for (int i = 0; i < segments.length; i++) {
+			buffers[i] = segments[i].duplicate();
+		}
+		return buffers;
+	}
+
+	/**
+	 * Returns the number of cells in the given segment.
+	 */
+	private long segmentLength(int segment) {
+		return Math.min(segmentMask + 1, numCells - ((long)segment << segmentBits));
+	}
+
+}
@@ -18,16 +18,17 @@ public class OptionsScreen extends MineGridScreen {
 
 	private static final long serialVersionUID = 1L;
 	private static final String SCREEN_TITLE = "Options"; 
+	private static final int MAX_MINES = GameScreen.MAX_WIDTH * GameScreen.MAX_HEIGHT - 5;
 	
 	private JSpinner spinWidth = new JSpinner(new SpinnerNumberModel(MineGrid.DEFAULT_WIDTH,
-			MineGrid.MIN_WIDTH, MineGrid.MAX_WIDTH, 1));
+			MineGrid.MIN_WIDTH, GameScreen.MAX_WIDTH, 1));
 	private JSpinner spinHeight = new JSpinner(new SpinnerNumberModel(MineGrid.DEFAULT_HEIGHT,
-			MineGrid.MIN_HEIGHT, MineGrid.MAX_HEIGHT, 1));
+			MineGrid.MIN_HEIGHT, GameScreen.MAX_HEIGHT, 1));
 	private JSpinner spinMines = new JSpinner(new SpinnerNumberModel(MineGrid.DEFAULT_MINES,
-			MineGrid.MIN_MINES, MineGrid.MAX_MINES, 1));
+			MineGrid.MIN_MINES, MAX_MINES, 1));
 	private JSpinner spinLives = new JSpinner(new SpinnerNumberModel(MineGrid.DEFAULT_LIVES,
 			MineGrid.MIN_LIVES, MineGrid.MAX_LIVES, 1));
-	private JSlider sliderMines = new JSlider(MineGrid.MIN_MINES, MineGrid.MAX_MINES, MineGrid.DEFAULT_MINES);
+	private JSlider sliderMines = new JSlider(MineGrid.MIN_MINES, MAX_MINES, MineGrid.DEFAULT_MINES);
 	
 	private JButton btnSave = new JButton("save");
 	
@@ -0,0 +1,189 @@
+/**
+ * Reveals a zero-cell cascade on a bounded grid using every core.
+ *
+ * The grid is split into square tiles and the cascade runs in rounds. In
+ * each round every tile with cells waiting to be revealed is handled by its
+ * own fork/join task, which only ever writes cells inside its tile.
+ * Neighbours over a tile border are handed to the tile that owns them for
+ * the next round. Revealing a cell is idempotent, so the cascade ends with
+ * exactly the cells a sequential flood reveal would uncover.
+ *
+ * @author arlsr
+ * @date 2014
+ */
+
+package tld.minegrid;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+class ParallelReveal {
+	private static final int TILE_SIZE = 128;
+
+	/**
+	 * Reveals the cells handed to one tile and every cell of the tile they
+	 * open up, collecting the neighbours that belong to other tiles.
+	 */
+	private class TileTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private long[] seeds;
+		private int numSeeds;
+		private long[] revealed = new long[64];
+		private int numRevealed;
+		private long[] outbox = new long[16];
+		private int numOutbox;
+		private long[] stack = new long[64];
+		private int top;
+		private long[] around = new long[topology.getMaxNeighbours()];
+		private int tile;
+
+		public TileTask(int tile, long[] seeds, int numSeeds) {
+			this.tile = tile;
+			this.seeds = seeds;
+			this.numSeeds = numSeeds;
+		}
+
+		@Override
+		protected void compute() {
+			int count;
+
+			for (int i = 0; i < numSeeds; i++) {
+				reveal(seeds[i]);
+			}
+			while (top > 0) {
+				count = topology.neighbours(stack[--top], around);
+				for (int i = 0; i < count; i++) {
+					if (tileOf(around[i]) == tile) {
+						reveal(around[i]);
+					}
+					else {
+						if (numOutbox == outbox.length) {
+							outbox = Arrays.copyOf(outbox, numOutbox * 2);
+						}
+						outbox[numOutbox++] = around[i];
+					}
+				}
+			}
+		}
+
+		/**
+		 * Reveals a cell of this tile if it is still unknown, queueing it for
+		 * expansion when it is a zero cell.
+		 */
+		private void reveal(long cell) {
+			int bits = store.get(cell);
+
+			// Flagged cells are left alone and a zero cell never borders a mine.
+			if ((bits & (CellStore.REVEALED_BIT | CellStore.FLAG_BIT)) == 0) {
+				store.set(cell, bits | CellStore.REVEALED_BIT);
+				if (numRevealed == revealed.length) {
+					revealed = Arrays.copyOf(revealed, numRevealed * 2);
+				}
+				revealed[numRevealed++] = cell;
+				if ((bits & CellStore.SCORE_MASK) == 0) {
+					if (top == stack.length) {
+						stack = Arrays.copyOf(stack, top * 2);
+					}
+					stack[top++] = cell;
+				}
+			}
+		}
+	}
+
+	private CellStore store;
+	private Topology topology;
+	private int gridWidth;
+	private int tilesAcross;
+	// Cells waiting to be revealed by each tile in the next round.
+	private long[][] inboxes;
+	private int[] inboxSizes;
+
+	/**
+	 * Constructs an instance for a bounded grid whose store can be written
+	 * from several threads as long as no two write the same cell.
+	 *
+	 * @param	numRows	the number of rows of all the layers of the grid together
+	 */
+	public ParallelReveal(CellStore store, Topology topology, int gridWidth, int numRows) {
+		int tilesDown = (numRows + TILE_SIZE - 1) / TILE_SIZE;
+
+		this.store = store;
+		this.topology = topology;
+		this.gridWidth = gridWidth;
+		tilesAcross = (gridWidth + TILE_SIZE - 1) / TILE_SIZE;
+		inboxes = new long[tilesAcross * tilesDown][];
+		inboxSizes = new int[tilesAcross * tilesDown];
+	}
+
+	/**
+	 * Reveals every unknown cell connected to the given revealed zero cell
+	 * through other zero cells, along with the numbered cells bordering them.
+	 *
+	 * @param	start	id of a revealed zero cell
+	 * @param	changes	the list to add each revealed cell to
+	 * @return	the number of cells revealed
+	 */
+	public long reveal(long start, CellChanges changes) {
+		ArrayList<TileTask> tasks = new ArrayList<TileTask>();
+		long[] around = new long[topology.getMaxNeighbours()];
+		int numAround = topology.neighbours(start, around);
+		long count = 0;
+
+		// Tasks can't copy tiles shared with a fork without racing each other.
+		store.unshare();
+		for (int i = 0; i < numAround; i++) {
+			send(around[i]);
+		}
+
+		do {
+			tasks.clear();
+			for (int tile = 0; tile < inboxes.length; tile++) {
+				if (inboxSizes[tile] > 0) {
+					tasks.add(new TileTask(tile, inboxes[tile], inboxSizes[tile]));
+					inboxes[tile] = null;
+					inboxSizes[tile] = 0;
+				}
+			}
+			ForkJoinTask.invokeAll(tasks);
+
+			for (TileTask task : tasks) {
+				for (int i = 0; i < task.numRevealed; i++) {
+					changes.add(task.revealed[i], store.get(task.revealed[i]) & CellStore.SCORE_MASK);
+				}
+				count += task.numRevealed;
+				for (int i = 0; i < task.numOutbox; i++) {
+					send(task.outbox[i]);
+				}
+			}
+		} while (!tasks.isEmpty());
+
+		return count;
+	}
+
+	/**
+	 * Adds a cell to its tile's inbox for the next round.
+	 */
+	private void send(long cell) {
+		int tile = tileOf(cell);
+		long[] inbox = inboxes[tile];
+
+		if (inbox == null) {
+			inbox = inboxes[tile] = new long[16];
+		}
+		else if (inboxSizes[tile] == inbox.length) {
+			inbox = inboxes[tile] = Arrays.copyOf(inbox, inbox.length * 2);
+		}
+		inbox[inboxSizes[tile]++] = cell;
+	}
+
+	/**
+	 * Returns the tile holding a cell.
+	 */
+	private int tileOf(long cell) {
+		return (int)(cell / gridWidth / TILE_SIZE) * tilesAcross + (int)(cell % gridWidth) / TILE_SIZE;
+	}
+
+}
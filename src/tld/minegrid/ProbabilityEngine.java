@@ -0,0 +1,781 @@
+/**
+ * Works out the exact chance that each unrevealed cell of a bounded grid
+ * is a mine, given the revealed numbers and the total number of mines.
+ *
+ * Cells the Solver can prove are settled first. The rest of the cells
+ * bordering revealed numbers make up the frontier, which splits into
+ * components that share no numbers, and every other unrevealed cell is
+ * interchangeable with the others. Each component is counted on its own
+ * fork/join task, one cell at a time in breadth first order: the ways of
+ * placing mines in the cells so far are kept for each distinct set of
+ * mines still needed by the numbers that are part way through, so a
+ * sub-problem reached in many ways is only counted once, and a second pass
+ * backwards gives each cell's share. The counts are kept for every number
+ * of mines in the component, and the components are combined with the
+ * ways of placing the rest of the mines among the cells off the frontier.
+ * Components with the same shape are counted once and remembered.
+ *
+ * A component that runs past the time budget falls back to the average of
+ * the mines its numbers need, and the results are then only approximate.
+ *
+ * @author arlsr
+ * @date 2014
+ */
+
+package tld.minegrid;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+public class ProbabilityEngine {
+	// The most component results remembered between calls.
+	private static final int CACHE_LIMIT = 4096;
+
+	/**
+	 * The counts for one component: the relative number of layouts with
+	 * each number of mines, and each cell's chance of being a mine given
+	 * that number.
+	 */
+	private static class Counts {
+		private final double[] ways;
+		private final double[][] chances;
+
+		public Counts(double[] ways, double[][] chances) {
+			this.ways = ways;
+			this.chances = chances;
+		}
+	}
+
+	/**
+	 * The mines still needed by each number part way through a component,
+	 * in the order of the numbers.
+	 */
+	private static class Needs {
+		private final byte[] needs;
+		private final int hash;
+
+		public Needs(byte[] needs) {
+			this.needs = needs;
+			hash = Arrays.hashCode(needs);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof Needs && Arrays.equals(needs, ((Needs)other).needs);
+		}
+	}
+
+	/**
+	 * Counts one component, with its cells numbered in the order they are
+	 * placed and each number's cells in ascending order.
+	 */
+	private class ComponentTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		// The grid cell ids of the component's cells, in placing order.
+		private final int[] cells;
+		private final int numCells;
+		private final int[][] numbers;
+		private final int[] needed;
+		private final String shape;
+		private Counts counts;
+		// The numbers holding each cell, and the numbers part way through
+		// before each cell is placed.
+		private int[][] cellNumbers;
+		private int[][] active;
+
+		public ComponentTask(int[] cells, int[][] numbers, int[] needed, String shape) {
+			this.cells = cells;
+			numCells = cells.length;
+			this.numbers = numbers;
+			this.needed = needed;
+			this.shape = shape;
+		}
+
+		@Override
+		protected void compute() {
+			ArrayList<HashMap<Needs, double[]>> forward;
+			// The ways of placing mines in the cells from each cell on, for
+			// each set of needs left before it.
+			HashMap<Needs, double[]> after;
+			HashMap<Needs, double[]> before;
+			double[][] chances = new double[numCells][];
+			double[] totals;
+			double[] mines;
+			double[] ways;
+			Needs none = new Needs(new byte[0]);
+			Needs next;
+
+			indexNumbers();
+			forward = countForward();
+			if (forward == null) {
+				return;
+			}
+
+			after = new HashMap<Needs, double[]>();
+			after.put(none, new double[] { 1 });
+			for (int i = numCells - 1; i >= 0; i--) {
+				if (System.nanoTime() > deadline) {
+					return;
+				}
+				before = new HashMap<Needs, double[]>();
+				totals = new double[numCells + 1];
+				mines = new double[numCells + 1];
+				for (Map.Entry<Needs, double[]> entry : forward.get(i).entrySet()) {
+					ways = new double[numCells - i + 1];
+					for (int mine = 0; mine <= 1; mine++) {
+						next = place(i, entry.getKey(), mine);
+						if (next != null && after.containsKey(next)) {
+							addShifted(ways, after.get(next), mine);
+							if (mine == 1) {
+								addProduct(mines, entry.getValue(), after.get(next), 1);
+							}
+						}
+					}
+					before.put(entry.getKey(), ways);
+					addProduct(totals, entry.getValue(), ways, 0);
+				}
+				chances[i] = divide(mines, totals);
+				normalise(before);
+				after = before;
+			}
+
+			ways = forward.get(numCells).get(none);
+			// No layout at all fits a position that can't happen.
+			counts = new Counts(ways != null ? normalise(ways.clone()) : new double[numCells + 1], chances);
+		}
+
+		/**
+		 * Notes which numbers hold each cell and which are part way through
+		 * before each cell is placed.
+		 */
+		private void indexNumbers() {
+			ArrayList<ArrayList<Integer>> holding = new ArrayList<ArrayList<Integer>>();
+			int[] count = new int[numCells + 1];
+			int[] first = new int[numbers.length];
+			int[] last = new int[numbers.length];
+
+			for (int i = 0; i < numCells; i++) {
+				holding.add(new ArrayList<Integer>());
+			}
+			for (int j = 0; j < numbers.length; j++) {
+				first[j] = numbers[j][0];
+				last[j] = numbers[j][numbers[j].length - 1];
+				for (int cell : numbers[j]) {
+					holding.get(cell).add(j);
+				}
+				for (int i = first[j] + 1; i <= last[j]; i++) {
+					count[i]++;
+				}
+			}
+
+			cellNumbers = new int[numCells][];
+			for (int i = 0; i < numCells; i++) {
+				cellNumbers[i] = new int[holding.get(i).size()];
+				for (int k = 0; k < cellNumbers[i].length; k++) {
+					cellNumbers[i][k] = holding.get(i).get(k);
+				}
+			}
+			active = new int[numCells + 1][];
+			for (int i = 0; i <= numCells; i++) {
+				active[i] = new int[count[i]];
+				count[i] = 0;
+			}
+			for (int j = 0; j < numbers.length; j++) {
+				for (int i = first[j] + 1; i <= last[j]; i++) {
+					active[i][count[i]++] = j;
+				}
+			}
+		}
+
+		/**
+		 * Counts the ways of placing mines in the cells before each cell, for
+		 * each set of needs they leave.
+		 *
+		 * @return	the counts before each cell, or null if out of time
+		 */
+		private ArrayList<HashMap<Needs, double[]>> countForward() {
+			ArrayList<HashMap<Needs, double[]>> forward = new ArrayList<HashMap<Needs, double[]>>();
+			HashMap<Needs, double[]> current = new HashMap<Needs, double[]>();
+			HashMap<Needs, double[]> next;
+			double[] ways;
+			Needs needs;
+
+			current.put(new Needs(new byte[0]), new double[] { 1 });
+			forward.add(current);
+			for (int i = 0; i < numCells; i++) {
+				if (System.nanoTime() > deadline) {
+					return null;
+				}
+				next = new HashMap<Needs, double[]>();
+				for (Map.Entry<Needs, double[]> entry : current.entrySet()) {
+					for (int mine = 0; mine <= 1; mine++) {
+						needs = place(i, entry.getKey(), mine);
+						if (needs != null) {
+							ways = next.get(needs);
+							if (ways == null) {
+								ways = new double[i + 2];
+								next.put(needs, ways);
+							}
+							addShifted(ways, entry.getValue(), mine);
+						}
+					}
+				}
+				normalise(next);
+				forward.add(next);
+				current = next;
+			}
+			return forward;
+		}
+
+		/**
+		 * Returns the needs left by placing a mine or not in a cell, or null
+		 * if a number can no longer be satisfied.
+		 */
+		private Needs place(int cell, Needs needs, int mine) {
+			int[] from = active[cell];
+			int[] to = active[cell + 1];
+			byte[] left = new byte[to.length];
+			int need;
+			int j;
+			int k = 0;
+
+			// Numbers ending at this cell must be satisfied by it.
+			for (int number : cellNumbers[cell]) {
+				if (numbers[number][numbers[number].length - 1] == cell) {
+					need = needOf(number, from, needs) - mine;
+					if (need != 0) {
+						return null;
+					}
+				}
+			}
+			for (int i = 0; i < to.length; i++) {
+				j = to[i];
+				need = needOf(j, from, needs);
+				if (contains(cellNumbers[cell], j)) {
+					need -= mine;
+				}
+				if (need < 0 || need > cellsAfter(j, cell)) {
+					return null;
+				}
+				left[k++] = (byte)need;
+			}
+			return new Needs(left);
+		}
+
+		/**
+		 * Returns the mines a number still needs before the given cell.
+		 */
+		private int needOf(int number, int[] from, Needs needs) {
+			int i = Arrays.binarySearch(from, number);
+
+			return i >= 0 ? needs.needs[i] : needed[number];
+		}
+
+		/**
+		 * Returns how many of a number's cells come after the given cell.
+		 */
+		private int cellsAfter(int number, int cell) {
+			int[] cells = numbers[number];
+			int i = Arrays.binarySearch(cells, cell);
+
+			return cells.length - 1 - (i >= 0 ? i : -i - 2);
+		}
+	}
+
+	private ConcurrentHashMap<String, Counts> cache = new ConcurrentHashMap<String, Counts>();
+	// The System.nanoTime by which the components must be counted.
+	private long deadline;
+	private boolean exact;
+
+	/**
+	 * Works out the chance that each cell is a mine in the game's current
+	 * position, indexed by (z * height + y) * width + x. Revealed and
+	 * proved cells are 0 or 1. Player flags are ignored.
+	 *
+	 * @param	timeBudget	the milliseconds to spend before settling for an
+	 * 						approximate result
+	 * @throws	UnsupportedOperationException	if the grid is infinite
+	 */
+	public double[] compute(MineGrid game, long timeBudget) {
+		Solver solver = new Solver(game);
+		CellStore store = game.getStore();
+		Topology topology = game.getTopology();
+		int numCells = game.getWidth() * game.getHeight() * game.getDepth();
+		double[] chances = new double[numCells];
+		// The index of each undecided cell among the frontier cells, or -1
+		// for an undecided cell off the frontier and -2 for a decided one.
+		int[] frontier = new int[numCells];
+		ArrayList<Integer> frontierCells = new ArrayList<Integer>();
+		ArrayList<int[]> numbers = new ArrayList<int[]>();
+		ArrayList<Integer> needed = new ArrayList<Integer>();
+		long[] around = new long[topology.getMaxNeighbours()];
+		int[] cells = new int[around.length];
+		int minesLeft = game.getTotalMines();
+		int offFrontier = 0;
+		int deduction;
+		int bits;
+		int count;
+		int need;
+		int numUndecided;
+		int neighbour;
+
+		deadline = System.nanoTime() + timeBudget * 1000000;
+		exact = true;
+
+		for (int cell = 0; cell < numCells; cell++) {
+			deduction = solver.getDeduction(game.cellX(cell), game.cellY(cell), game.cellZ(cell));
+			frontier[cell] = deduction == Solver.UNKNOWN ? -1 : -2;
+			if (deduction == Solver.MINE) {
+				chances[cell] = 1;
+				minesLeft--;
+			}
+		}
+
+		// Every revealed number with undecided neighbours constrains them.
+		for (int cell = 0; cell < numCells; cell++) {
+			bits = store.get(cell);
+			if ((bits & (CellStore.REVEALED_BIT | CellStore.MINE_BIT)) != CellStore.REVEALED_BIT) {
+				continue;
+			}
+			count = topology.neighbours(cell, around);
+			need = bits & CellStore.SCORE_MASK;
+			numUndecided = 0;
+			for (int i = 0; i < count; i++) {
+				neighbour = (int)around[i];
+				if (chances[neighbour] == 1) {
+					need--;
+				}
+				else if (frontier[neighbour] != -2) {
+					if (frontier[neighbour] == -1) {
+						frontier[neighbour] = frontierCells.size();
+						frontierCells.add(neighbour);
+					}
+					cells[numUndecided++] = frontier[neighbour];
+				}
+			}
+			if (numUndecided > 0) {
+				numbers.add(Arrays.copyOf(cells, numUndecided));
+				needed.add(need);
+			}
+		}
+		for (int cell = 0; cell < numCells; cell++) {
+			if (frontier[cell] == -1) {
+				offFrontier++;
+			}
+		}
+
+		combine(chances, frontier, countComponents(numbers, needed, frontierCells), minesLeft, offFrontier);
+		return chances;
+	}
+
+	/**
+	 * Returns whether the last result was exact, rather than approximated
+	 * for components that ran out of time.
+	 */
+	public boolean isExact() {
+		return exact;
+	}
+
+	/**
+	 * Splits the frontier into components that share no numbers and counts
+	 * them in parallel, apart from those with a shape already counted.
+	 *
+	 * @param	numbers			the frontier cells of each number
+	 * @param	needed			the mines each number still needs
+	 * @param	frontierCells	the grid cell id of each frontier cell
+	 */
+	private ArrayList<ComponentTask> countComponents(ArrayList<int[]> numbers, ArrayList<Integer> needed,
+			ArrayList<Integer> frontierCells) {
+		int[] parent = new int[frontierCells.size()];
+		// The numbers holding each frontier cell.
+		ArrayList<ArrayList<Integer>> holders = new ArrayList<ArrayList<Integer>>();
+		HashMap<Integer, ArrayList<Integer>> numbersByRoot = new HashMap<Integer, ArrayList<Integer>>();
+		ArrayList<ComponentTask> components = new ArrayList<ComponentTask>();
+		ArrayList<ComponentTask> tasks = new ArrayList<ComponentTask>();
+		ArrayList<Integer> order = new ArrayList<Integer>();
+		int[] local = new int[frontierCells.size()];
+		int[] cells;
+		int[][] localNumbers;
+		int[] localNeeded;
+		StringBuilder shape;
+		ComponentTask task;
+		int root;
+		int first;
+
+		for (int i = 0; i < parent.length; i++) {
+			parent[i] = i;
+			holders.add(new ArrayList<Integer>());
+		}
+		for (int j = 0; j < numbers.size(); j++) {
+			for (int cell : numbers.get(j)) {
+				parent[root(parent, cell)] = root(parent, numbers.get(j)[0]);
+				holders.get(cell).add(j);
+			}
+		}
+		for (int j = 0; j < numbers.size(); j++) {
+			root = root(parent, numbers.get(j)[0]);
+			if (!numbersByRoot.containsKey(root)) {
+				numbersByRoot.put(root, new ArrayList<Integer>());
+			}
+			numbersByRoot.get(root).add(j);
+		}
+
+		Arrays.fill(local, -1);
+		for (ArrayList<Integer> componentNumbers : numbersByRoot.values()) {
+			// Place the cells in breadth first order through their numbers
+			// from the lowest, so few numbers are part way through at once.
+			first = Integer.MAX_VALUE;
+			for (int j : componentNumbers) {
+				for (int cell : numbers.get(j)) {
+					first = Math.min(first, cell);
+				}
+			}
+			order.clear();
+			local[first] = 0;
+			order.add(first);
+			for (int head = 0; head < order.size(); head++) {
+				for (int j : holders.get(order.get(head))) {
+					for (int cell : numbers.get(j)) {
+						if (local[cell] < 0) {
+							local[cell] = order.size();
+							order.add(cell);
+						}
+					}
+				}
+			}
+
+			cells = new int[order.size()];
+			for (int i = 0; i < cells.length; i++) {
+				cells[i] = frontierCells.get(order.get(i));
+			}
+			localNumbers = new int[componentNumbers.size()][];
+			localNeeded = new int[componentNumbers.size()];
+			for (int k = 0; k < localNumbers.length; k++) {
+				localNumbers[k] = numbers.get(componentNumbers.get(k)).clone();
+				for (int i = 0; i < localNumbers[k].length; i++) {
+					localNumbers[k][i] = local[localNumbers[k][i]];
+				}
+				Arrays.sort(localNumbers[k]);
+				localNeeded[k] = needed.get(componentNumbers.get(k));
+			}
+			sortNumbers(localNumbers, localNeeded);
+
+			shape = new StringBuilder();
+			shape.append(cells.length);
+			for (int k = 0; k < localNumbers.length; k++) {
+				shape.append(';').append(localNeeded[k]).append(Arrays.toString(localNumbers[k]));
+			}
+
+			task = new ComponentTask(cells, localNumbers, localNeeded, shape.toString());
+			task.counts = cache.get(task.shape);
+			if (task.counts == null) {
+				tasks.add(task);
+			}
+			components.add(task);
+		}
+
+		ForkJoinTask.invokeAll(tasks);
+		if (cache.size() > CACHE_LIMIT) {
+			cache.clear();
+		}
+		for (ComponentTask counted : tasks) {
+			if (counted.counts != null) {
+				cache.put(counted.shape, counted.counts);
+			}
+		}
+		return components;
+	}
+
+	/**
+	 * Combines the counts of the components with the ways of placing the
+	 * rest of the mines off the frontier, filling in each cell's chance.
+	 */
+	private void combine(double[] chances, int[] frontier, ArrayList<ComponentTask> components, int minesLeft,
+			int offFrontier) {
+		int numComponents = components.size();
+		double[][] ways = new double[numComponents][];
+		double[][] prefix = new double[numComponents + 1][];
+		double[][] suffix = new double[numComponents + 1][];
+		double[] rest;
+		double[] weights;
+		double[] all;
+		double total = 0;
+		double expected = 0;
+		double numerator;
+		double denominator;
+		ComponentTask task;
+		Counts counts;
+
+		for (int c = 0; c < numComponents; c++) {
+			task = components.get(c);
+			if (task.counts == null) {
+				task.counts = approximate(task);
+				exact = false;
+			}
+			ways[c] = task.counts.ways;
+		}
+
+		prefix[0] = new double[] { 1 };
+		for (int c = 0; c < numComponents; c++) {
+			prefix[c + 1] = normalise(convolve(prefix[c], ways[c]));
+		}
+		suffix[numComponents] = new double[] { 1 };
+		for (int c = numComponents - 1; c >= 0; c--) {
+			suffix[c] = normalise(convolve(ways[c], suffix[c + 1]));
+		}
+		weights = binomialWeights(offFrontier, minesLeft, prefix[numComponents].length - 1);
+
+		// The cells off the frontier share the mines the frontier leaves.
+		all = prefix[numComponents];
+		for (int t = 0; t < all.length; t++) {
+			total += all[t] * weights[t];
+			if (offFrontier > 0) {
+				expected += all[t] * weights[t] * (minesLeft - t) / offFrontier;
+			}
+		}
+		if (total == 0) {
+			// The position can't happen with this many mines.
+			exact = false;
+			total = 1;
+		}
+
+		for (int c = 0; c < numComponents; c++) {
+			task = components.get(c);
+			counts = task.counts;
+			rest = convolve(prefix[c], suffix[c + 1]);
+			for (int i = 0; i < task.numCells; i++) {
+				numerator = 0;
+				denominator = 0;
+				for (int k = 0; k < counts.ways.length; k++) {
+					for (int m = 0; m < rest.length && k + m < weights.length; m++) {
+						denominator += counts.ways[k] * rest[m] * weights[k + m];
+						numerator += counts.ways[k] * counts.chances[i][k] * rest[m] * weights[k + m];
+					}
+				}
+				chances[task.cells[i]] = denominator > 0 ? numerator / denominator : 0;
+			}
+		}
+
+		for (int cell = 0; cell < chances.length; cell++) {
+			if (frontier[cell] == -1) {
+				chances[cell] = expected / total;
+			}
+		}
+	}
+
+	/**
+	 * Returns the counts of a component that ran out of time, taking each
+	 * cell's chance as the average share of mines its numbers need, and the
+	 * component as holding the sum of those.
+	 */
+	private static Counts approximate(ComponentTask task) {
+		double[] sums = new double[task.numCells];
+		int[] holders = new int[task.numCells];
+		double[][] chances = new double[task.numCells][task.numCells + 1];
+		double[] ways = new double[task.numCells + 1];
+		double expected = 0;
+		int mines;
+
+		for (int j = 0; j < task.numbers.length; j++) {
+			for (int cell : task.numbers[j]) {
+				sums[cell] += (double)task.needed[j] / task.numbers[j].length;
+				holders[cell]++;
+			}
+		}
+		for (int i = 0; i < task.numCells; i++) {
+			expected += sums[i] / holders[i];
+		}
+		mines = (int)Math.min(task.numCells, Math.max(0, Math.round(expected)));
+		ways[mines] = 1;
+		for (int i = 0; i < task.numCells; i++) {
+			chances[i][mines] = Math.min(1, sums[i] / holders[i]);
+		}
+		return new Counts(ways, chances);
+	}
+
+	/**
+	 * Returns the relative number of ways of placing the mines the frontier
+	 * leaves among the cells off it, for each number of frontier mines.
+	 */
+	private static double[] binomialWeights(int cells, int mines, int maxFrontierMines) {
+		double[] weights = new double[maxFrontierMines + 1];
+		double[] logs = new double[maxFrontierMines + 1];
+		double max = Double.NEGATIVE_INFINITY;
+		int left;
+
+		// log C(cells, left) relative to log C(cells, 0), built up one mine
+		// at a time.
+		for (int t = 0; t <= maxFrontierMines; t++) {
+			left = mines - t;
+			if (left < 0 || left > cells) {
+				logs[t] = Double.NEGATIVE_INFINITY;
+				continue;
+			}
+			logs[t] = logChoose(cells, left);
+			max = Math.max(max, logs[t]);
+		}
+		for (int t = 0; t <= maxFrontierMines; t++) {
+			weights[t] = logs[t] == Double.NEGATIVE_INFINITY ? 0 : Math.exp(logs[t] - max);
+		}
+		return weights;
+	}
+
+	/**
+	 * Returns the log of the number of ways of choosing k of n.
+	 */
+	private static double logChoose(int n, int k) {
+		double log = 0;
+
+		k = Math.min(k, n - k);
+		for (int i = 0; i < k; i++) {
+			log += Math.log((double)(n - i) / (k - i));
+		}
+		return log;
+	}
+
+	private static double[] convolve(double[] a, double[] b) {
+		double[] result = new double[a.length + b.length - 1];
+
+		for (int i = 0; i < a.length; i++) {
+			if (a[i] != 0) {
+				for (int j = 0; j < b.length; j++) {
+					result[i + j] += a[i] * b[j];
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Adds the counts b, shifted up by the given number of mines, to a.
+	 */
+	private static void addShifted(double[] a, double[] b, int shift) {
+		for (int i = 0; i < b.length && i + shift < a.length; i++) {
+			a[i + shift] += b[i];
+		}
+	}
+
+	/**
+	 * Adds the product of the counts of the cells before and after a point,
+	 * the latter shifted by the given number of mines, to a.
+	 */
+	private static void addProduct(double[] a, double[] before, double[] after, int shift) {
+		for (int i = 0; i < before.length; i++) {
+			if (before[i] != 0) {
+				for (int j = 0; j < after.length && i + j + shift < a.length; j++) {
+					a[i + j + shift] += before[i] * after[j];
+				}
+			}
+		}
+	}
+
+	private static double[] divide(double[] a, double[] b) {
+		double[] result = new double[a.length];
+
+		for (int i = 0; i < a.length; i++) {
+			result[i] = b[i] > 0 ? a[i] / b[i] : 0;
+		}
+		return result;
+	}
+
+	/**
+	 * Scales counts so the largest is one, keeping them in range.
+	 */
+	private static double[] normalise(double[] counts) {
+		double max = 0;
+
+		for (double count : counts) {
+			max = Math.max(max, count);
+		}
+		if (max > 0) {
+			for (int i = 0; i < counts.length; i++) {
+				counts[i] /= max;
+			}
+		}
+		return counts;
+	}
+
+	/**
+	 * Scales every count of a step by the same amount so the largest is one.
+	 */
+	private static void normalise(HashMap<Needs, double[]> step) {
+		double max = 0;
+
+		for (double[] counts : step.values()) {
+			for (double count : counts) {
+				max = Math.max(max, count);
+			}
+		}
+		if (max > 0) {
+			for (double[] counts : step.values()) {
+				for (int i = 0; i < counts.length; i++) {
+					counts[i] /= max;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Sorts numbers by their first cell, keeping their needs alongside.
+	 */
+	private static void sortNumbers(int[][] numbers, int[] needed) {
+		Integer[] order = new Integer[numbers.length];
+		int[][] sortedNumbers = new int[numbers.length][];
+		int[] sortedNeeded = new int[numbers.length];
+		final int[][] keys = numbers;
+
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				int[] x = keys[a];
+				int[] y = keys[b];
+
+				for (int i = 0; i < Math.min(x.length, y.length); i++) {
+					if (x[i] != y[i]) {
+						return x[i] - y[i];
+					}
+				}
+				return x.length - y.length;
+			}
+		});
+		for (int i = 0; i < order.length; i++) {
+			sortedNumbers[i] = numbers[order[i]];
+			sortedNeeded[i] = needed[order[i]];
+		}
+		System.arraycopy(sortedNumbers, 0, numbers, 0, numbers.length);
+		System.arraycopy(sortedNeeded, 0, needed, 0, needed.length);
+	}
+
+	private static int root(int[] parent, int i) {
+		while (parent[i] != i) {
+			parent[i] = parent[parent[i]];
+			i = parent[i];
+		}
+		return i;
+	}
+
+	private static boolean contains(int[] values, int value) {
+		for (int v : values) {
+			if (v == value) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+}
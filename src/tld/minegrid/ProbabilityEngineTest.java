@@ -0,0 +1,211 @@
+/**
+ * Automated JUnit tests against the mine probability engine.
+ *
+ * @author arlsr
+ * @date 2014
+ */
+
+package tld.minegrid;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ProbabilityEngineTest {
+
+	private MineGridSettings settings;
+
+	@Before
+	public void setUp() throws Exception {
+		settings = new MineGridSettings();
+		settings.setLives(MineGrid.MAX_LIVES);
+	}
+
+	/**
+	 * Tests the chances match counting every layout that fits the position,
+	 * on each topology.
+	 */
+	@Test
+	public void testExact() {
+		ProbabilityEngine engine = new ProbabilityEngine();
+		Random rand = new Random(1);
+		double[] expected;
+		double[] chances;
+		MineGrid game;
+
+		settings.setGridSize(6, 4);
+		settings.setMines(6);
+		for (int topology = MineGrid.TOPOLOGY_SQUARE; topology <= MineGrid.TOPOLOGY_HEX; topology++) {
+			settings.setTopology(topology);
+			for (int seed = 0; seed < 30; seed++) {
+				settings.setSeed(Long.valueOf(seed));
+				game = new MineGrid(settings);
+				revealSafe(game, rand, 1 + seed % 4);
+				// A mine revealed by a lost life counts towards the total.
+				if (seed % 5 == 0 && game.getGameState() == MineGrid.GameState.STARTED) {
+					revealMine(game);
+				}
+				expected = countLayouts(game);
+				chances = engine.compute(game, 10000);
+				assertTrue(engine.isExact());
+				assertArrayEquals(expected, chances, 1e-9);
+			}
+		}
+	}
+
+	/**
+	 * Tests an expert board places every mine on average, gives the same
+	 * chances from remembered components, and falls back to an approximate
+	 * result when out of time.
+	 */
+	@Test
+	public void testExpert() {
+		ProbabilityEngine engine = new ProbabilityEngine();
+		ProbabilityEngine hurried = new ProbabilityEngine();
+		Random rand = new Random(2);
+		double[] chances;
+		double sum = 0;
+		MineGrid game;
+
+		settings.setSeed(3L);
+		settings.setGridSize(30, 16);
+		settings.setMines(99);
+		game = new MineGrid(settings);
+		revealSafe(game, rand, 40);
+
+		chances = engine.compute(game, 10000);
+		assertTrue(engine.isExact());
+		for (double chance : chances) {
+			sum += chance;
+		}
+		assertEquals(99, sum, 1e-6);
+		assertArrayEquals(chances, engine.compute(game, 10000), 1e-12);
+
+		chances = hurried.compute(game, 0);
+		assertFalse(hurried.isExact());
+		for (double chance : chances) {
+			assertTrue(chance >= 0 && chance <= 1);
+		}
+	}
+
+	/**
+	 * Reveals the given number of random safe cells.
+	 */
+	private void revealSafe(MineGrid game, Random rand, int count) {
+		CellStore store = game.getStore();
+		int x;
+		int y;
+
+		for (int i = 0; i < count; i++) {
+			do {
+				x = rand.nextInt(game.getWidth());
+				y = rand.nextInt(game.getHeight());
+			} while ((store.get(game.cellId(x, y)) & CellStore.MINE_BIT) != 0);
+			game.revealCell(x, y);
+		}
+	}
+
+	/**
+	 * Reveals the first mine, costing a life.
+	 */
+	private void revealMine(MineGrid game) {
+		CellStore store = game.getStore();
+
+		for (long cell = 0;; cell++) {
+			if ((store.get(cell) & (CellStore.MINE_BIT | CellStore.REVEALED_BIT)) == CellStore.MINE_BIT) {
+				game.revealCell(game.cellX(cell), game.cellY(cell));
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Returns each cell's chance of being a mine by trying every way of
+	 * placing the mines left among the unrevealed cells.
+	 */
+	private double[] countLayouts(MineGrid game) {
+		CellStore store = game.getStore();
+		int numCells = game.getWidth() * game.getHeight();
+		boolean[] mines = new boolean[numCells];
+		double[] counts = new double[numCells];
+		int minesLeft = game.getTotalMines();
+		int total;
+
+		for (int cell = 0; cell < numCells; cell++) {
+			if ((store.get(cell) & (CellStore.MINE_BIT | CellStore.REVEALED_BIT))
+					== (CellStore.MINE_BIT | CellStore.REVEALED_BIT)) {
+				mines[cell] = true;
+				minesLeft--;
+			}
+		}
+		total = place(game, mines, counts, 0, minesLeft);
+		for (int cell = 0; cell < numCells; cell++) {
+			counts[cell] /= total;
+		}
+		return counts;
+	}
+
+	/**
+	 * Places the mines left in every way from the given cell on, adding
+	 * each layout that fits the revealed numbers to the counts.
+	 *
+	 * @return	the number of layouts that fit
+	 */
+	private int place(MineGrid game, boolean[] mines, double[] counts, int from, int minesLeft) {
+		CellStore store = game.getStore();
+		int found = 0;
+
+		if (minesLeft == 0) {
+			if (!fits(game, mines)) {
+				return 0;
+			}
+			for (int cell = 0; cell < mines.length; cell++) {
+				if (mines[cell]) {
+					counts[cell]++;
+				}
+			}
+			return 1;
+		}
+		for (int cell = from; cell < mines.length; cell++) {
+			if ((store.get(cell) & CellStore.REVEALED_BIT) == 0) {
+				mines[cell] = true;
+				found += place(game, mines, counts, cell + 1, minesLeft - 1);
+				mines[cell] = false;
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Returns whether a layout gives every revealed number.
+	 */
+	private boolean fits(MineGrid game, boolean[] mines) {
+		CellStore store = game.getStore();
+		Topology topology = game.getTopology();
+		long[] around = new long[topology.getMaxNeighbours()];
+		int bits;
+		int count;
+		int found;
+
+		for (int cell = 0; cell < mines.length; cell++) {
+			bits = store.get(cell);
+			if ((bits & (CellStore.REVEALED_BIT | CellStore.MINE_BIT)) == CellStore.REVEALED_BIT) {
+				count = topology.neighbours(cell, around);
+				found = 0;
+				for (int i = 0; i < count; i++) {
+					if (mines[(int)around[i]]) {
+						found++;
+					}
+				}
+				if (found != (bits & CellStore.SCORE_MASK)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,375 @@
+/**
+ * The actions of a game in the order they were played, with the settings
+ * and seed needed to play them again.
+ *
+ * Each action is logged as the time since the first action, its code and
+ * the cell it acted on. Times and cells are written as the difference from
+ * the action before, zigzag encoded into variable length bytes, so most
+ * actions take three or four bytes however large the grid is.
+ *
+ * @author arlsr
+ * @date 2014
+ */
+
+package tld.minegrid;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+public class Recording {
+	// Codes for the actions that aren't MineGrid ACTION_ codes.
+	static final int UNDO = 4;
+	static final int REDO = 5;
+	static final int BATCH = 6;
+
+	private static final int MAGIC = 0x4D475243;
+	private static final int VERSION = 1;
+	// Bits of the header's option byte.
+	private static final int INFINITE = 0x01;
+	private static final int NO_GUESS = 0x02;
+
+	/**
+	 * Reads the actions of a recording one at a time.
+	 */
+	static class Cursor {
+		private Recording recording;
+		private int position;
+		private long time;
+		private long cell;
+		// The action last read.
+		private int code;
+		private int[] actions;
+
+		public Cursor(Recording recording) {
+			this.recording = recording;
+		}
+
+		/**
+		 * Returns a cursor that carries on from the same action.
+		 */
+		Cursor copy() {
+			Cursor copy = new Cursor(recording);
+
+			copy.position = position;
+			copy.time = time;
+			copy.cell = cell;
+			copy.code = code;
+			copy.actions = actions;
+			return copy;
+		}
+
+		/**
+		 * Reads the next action.
+		 */
+		void next() {
+			int count;
+
+			time += readDelta();
+			code = recording.log[position++];
+			if (code == BATCH) {
+				count = (int)readVarint();
+				// Each action takes at least three bytes.
+				if (count < 0 || count > (recording.length - position) / 3) {
+					throw new IllegalStateException("The batch runs past the end of the recording");
+				}
+				actions = new int[count * 3];
+				for (int i = 0; i < actions.length; i += 3) {
+					actions[i] = recording.log[position++];
+					actions[i + 1] = (int)readDelta();
+					actions[i + 2] = (int)readDelta();
+				}
+			}
+			else if (code != UNDO && code != REDO) {
+				cell += readDelta();
+			}
+		}
+
+		/**
+		 * Returns the code of the action last read.
+		 */
+		int getCode() {
+			return code;
+		}
+
+		/**
+		 * Returns the time the action last read was played, in milliseconds
+		 * since the first action.
+		 */
+		long getTime() {
+			return time;
+		}
+
+		/**
+		 * Returns the cell the action last read acted on.
+		 */
+		long getCell() {
+			return cell;
+		}
+
+		/**
+		 * Returns the actions of the batch last read, as given to
+		 * MineGrid.applyActions.
+		 */
+		int[] getActions() {
+			return actions;
+		}
+
+		private long readDelta() {
+			long value = readVarint();
+
+			return (value >>> 1) ^ -(value & 1);
+		}
+
+		private long readVarint() {
+			long value = 0;
+			int shift = 0;
+			byte b;
+
+			do {
+				b = recording.log[position++];
+				value |= (long)(b & 0x7F) << shift;
+				shift += 7;
+			} while (b < 0);
+			return value;
+		}
+	}
+
+	private MineGridSettings settings;
+	private byte[] log = new byte[64];
+	private int length;
+	private int numActions;
+	// The clock time of the first action, which the others are timed from.
+	private long startTime;
+	// The time and cell of the last action logged, which the next is written
+	// against.
+	private long lastTime;
+	private long lastCell;
+
+	/**
+	 * Constructs an empty recording of a game played with the given settings
+	 * and the seed its mines were planted with.
+	 */
+	Recording(MineGridSettings settings, long seed) {
+		this.settings = copySettings(settings);
+		this.settings.setSeed(Long.valueOf(seed));
+	}
+
+	/**
+	 * Reads a recording written by toBytes.
+	 *
+	 * @throws	IOException	if the bytes aren't a recording
+	 */
+	public static Recording fromBytes(byte[] bytes) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		MineGridSettings settings = new MineGridSettings();
+		Recording recording;
+		int options;
+		long seed;
+
+		try {
+			if (buffer.getInt() != MAGIC) {
+				throw new IOException("The bytes aren't a recording");
+			}
+			if (buffer.getInt() != VERSION) {
+				throw new IOException("The recording was written by another version");
+			}
+			settings.setGridSize(buffer.getInt(), buffer.getInt());
+			settings.setDepth(buffer.getInt());
+			settings.setMines(buffer.getInt());
+			settings.setLives(buffer.getInt());
+			settings.setGeneratorVersion(buffer.getInt());
+			settings.setTopology(buffer.getInt());
+			settings.setHistoryLimit(buffer.getInt());
+			options = buffer.get();
+			settings.setInfinite((options & INFINITE) != 0);
+			settings.setNoGuess((options & NO_GUESS) != 0);
+			seed = buffer.getLong();
+
+			recording = new Recording(settings, seed);
+			recording.numActions = buffer.getInt();
+			recording.length = buffer.getInt();
+			if (recording.numActions < 0 || recording.length < 0) {
+				throw new IOException("The recording is corrupt");
+			}
+			recording.log = new byte[recording.length];
+			buffer.get(recording.log);
+		}
+		catch (BufferUnderflowException e) {
+			throw new IOException("The recording is cut short");
+		}
+		if (!recording.isReadable()) {
+			throw new IOException("The recording is corrupt");
+		}
+		return recording;
+	}
+
+	/**
+	 * Returns a copy of the settings the game was played with, including its
+	 * seed.
+	 */
+	public MineGridSettings getSettings() {
+		return copySettings(settings);
+	}
+
+	/**
+	 * Returns the number of actions recorded.
+	 */
+	public int size() {
+		return numActions;
+	}
+
+	/**
+	 * Returns the recording as bytes that fromBytes reads back.
+	 */
+	public byte[] toBytes() {
+		ByteBuffer buffer = ByteBuffer.allocate(57 + length);
+
+		buffer.putInt(MAGIC);
+		buffer.putInt(VERSION);
+		buffer.putInt(settings.getGridWidth());
+		buffer.putInt(settings.getGridHeight());
+		buffer.putInt(settings.getDepth());
+		buffer.putInt(settings.getMines());
+		buffer.putInt(settings.getLives());
+		buffer.putInt(settings.getGeneratorVersion());
+		buffer.putInt(settings.getTopology());
+		buffer.putInt(settings.getHistoryLimit());
+		buffer.put((byte)((settings.isInfinite() ? INFINITE : 0) | (settings.isNoGuess() ? NO_GUESS : 0)));
+		buffer.putLong(settings.getSeed().longValue());
+		buffer.putInt(numActions);
+		buffer.putInt(length);
+		buffer.put(log, 0, length);
+		return buffer.array();
+	}
+
+	/**
+	 * Logs an action on a single cell.
+	 *
+	 * @param	code	one of the MineGrid ACTION_ codes
+	 * @param	time	the clock time of the action in milliseconds
+	 */
+	void add(int code, long time, long cell) {
+		begin(code, time);
+		writeDelta(cell - lastCell);
+		lastCell = cell;
+	}
+
+	/**
+	 * Logs an undo or redo.
+	 *
+	 * @param	code	UNDO or REDO
+	 * @param	time	the clock time of the action in milliseconds
+	 */
+	void add(int code, long time) {
+		begin(code, time);
+	}
+
+	/**
+	 * Logs a batch of actions as given to MineGrid.applyActions.
+	 *
+	 * @param	time	the clock time of the action in milliseconds
+	 */
+	void addBatch(long time, int[] actions) {
+		begin(BATCH, time);
+		writeVarint(actions.length / 3);
+		for (int i = 0; i < actions.length; i += 3) {
+			writeByte(actions[i]);
+			writeDelta(actions[i + 1]);
+			writeDelta(actions[i + 2]);
+		}
+	}
+
+	/**
+	 * Returns a cursor at the start of the recording.
+	 */
+	Cursor cursor() {
+		return new Cursor(this);
+	}
+
+	/**
+	 * Returns whether every action can be read back from the log, with a
+	 * known code, and nothing left over.
+	 */
+	private boolean isReadable() {
+		Cursor cursor = cursor();
+		int[] actions;
+		int code;
+
+		try {
+			for (int i = 0; i < numActions; i++) {
+				cursor.next();
+				code = cursor.getCode();
+				if (code < MineGrid.ACTION_REVEAL || code > BATCH) {
+					return false;
+				}
+				actions = code == BATCH ? cursor.getActions() : new int[0];
+				for (int j = 0; j < actions.length; j += 3) {
+					if (actions[j] < MineGrid.ACTION_REVEAL || actions[j] > MineGrid.ACTION_CHORD) {
+						return false;
+					}
+				}
+			}
+		}
+		catch (IllegalStateException e) {
+			return false;
+		}
+		catch (ArrayIndexOutOfBoundsException e) {
+			return false;
+		}
+		return cursor.position == length;
+	}
+
+	/**
+	 * Starts logging an action.
+	 */
+	private void begin(int code, long time) {
+		if (numActions == 0) {
+			startTime = time;
+		}
+		writeDelta(time - startTime - lastTime);
+		lastTime = time - startTime;
+		writeByte(code);
+		numActions++;
+	}
+
+	private void writeDelta(long delta) {
+		writeVarint((delta << 1) ^ (delta >> 63));
+	}
+
+	private void writeVarint(long value) {
+		while ((value & ~0x7FL) != 0) {
+			writeByte((int)(value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		writeByte((int)value);
+	}
+
+	private void writeByte(int b) {
+		if (length == log.length) {
+			log = Arrays.copyOf(log, length * 2);
+		}
+		log[length++] = (byte)b;
+	}
+
+	/**
+	 * Returns a copy of the settings that affect how a game plays.
+	 */
+	private static MineGridSettings copySettings(MineGridSettings settings) {
+		MineGridSettings copy = new MineGridSettings();
+
+		copy.setGridSize(settings.getGridWidth(), settings.getGridHeight());
+		copy.setDepth(settings.getDepth());
+		copy.setMines(settings.getMines());
+		copy.setLives(settings.getLives());
+		copy.setSeed(settings.getSeed());
+		copy.setGeneratorVersion(settings.getGeneratorVersion());
+		copy.setTopology(settings.getTopology());
+		copy.setHistoryLimit(settings.getHistoryLimit());
+		copy.setInfinite(settings.isInfinite());
+		copy.setNoGuess(settings.isNoGuess());
+		return copy;
+	}
+
+}
@@ -0,0 +1,166 @@
+/**
+ * Plays a recorded game again from its seed, one action at a time, to any
+ * point of the game.
+ *
+ * A fork of the game is kept as a keyframe every KEYFRAME_INTERVAL actions
+ * as the replay first passes them. Seeking starts from the last keyframe at
+ * or before the point sought, so it costs a fork and at most that many
+ * actions however long the game is. The forks share every tile of cells
+ * the game hasn't changed between them, so the keyframes of a long game
+ * cost about as much as the cells it changed.
+ *
+ * @author arlsr
+ * @date 2014
+ */
+
+package tld.minegrid;
+
+import java.util.ArrayList;
+
+public class Replay {
+	private static final int KEYFRAME_INTERVAL = 64;
+
+	/**
+	 * The game after a number of actions, and where the recording carries
+	 * on from.
+	 */
+	private static class Keyframe {
+		private final int position;
+		private final MineGrid game;
+		private final Recording.Cursor cursor;
+
+		public Keyframe(int position, MineGrid game, Recording.Cursor cursor) {
+			this.position = position;
+			this.game = game;
+			this.cursor = cursor;
+		}
+	}
+
+	private Recording recording;
+	private MineGrid game;
+	private Recording.Cursor cursor;
+	// The number of actions played.
+	private int position;
+	private ArrayList<Keyframe> keyframes = new ArrayList<Keyframe>();
+
+	/**
+	 * Constructs a replay of a recording, positioned before its first
+	 * action. The game is kept on the heap whatever storage it was played
+	 * with.
+	 *
+	 * @throws	IllegalArgumentException	if the grid is too large for the heap
+	 */
+	public Replay(Recording recording) {
+		this.recording = recording;
+		game = new MineGrid(recording.getSettings());
+		game.setReplayTime(0);
+		cursor = recording.cursor();
+		keyframes.add(new Keyframe(0, game.forkWithHistory(), cursor.copy()));
+	}
+
+	/**
+	 * Returns the game at the current point of the replay. Acting on it
+	 * directly puts it out of step with the recording.
+	 */
+	public MineGrid getGame() {
+		return game;
+	}
+
+	/**
+	 * Returns the number of actions played so far.
+	 */
+	public int getPosition() {
+		return position;
+	}
+
+	/**
+	 * Returns the time of the last action played, in milliseconds since the
+	 * first action.
+	 */
+	public long getTime() {
+		return position > 0 ? cursor.getTime() : 0;
+	}
+
+	/**
+	 * Moves the replay to the point after the given number of actions,
+	 * either way.
+	 *
+	 * @param	target	the number of actions to have played
+	 */
+	public void seek(int target) {
+		Keyframe keyframe;
+
+		if (target < 0 || target > recording.size()) {
+			throw new IndexOutOfBoundsException("No action " + target + " in a recording of " + recording.size());
+		}
+
+		keyframe = keyframes.get(Math.min(target / KEYFRAME_INTERVAL, keyframes.size() - 1));
+		if (target < position || keyframe.position > position) {
+			game = keyframe.game.forkWithHistory();
+			cursor = keyframe.cursor.copy();
+			position = keyframe.position;
+		}
+		while (position < target) {
+			step();
+		}
+	}
+
+	/**
+	 * Returns the number of actions in the recording.
+	 */
+	public int size() {
+		return recording.size();
+	}
+
+	/**
+	 * Plays the next action of the recording at the time it was recorded.
+	 *
+	 * @return	whether there was an action left to play
+	 */
+	public boolean step() {
+		if (position == recording.size()) {
+			return false;
+		}
+
+		play(game, cursor);
+		position++;
+
+		if (position == keyframes.size() * KEYFRAME_INTERVAL) {
+			keyframes.add(new Keyframe(position, game.forkWithHistory(), cursor.copy()));
+		}
+		return true;
+	}
+
+	/**
+	 * Plays the next action of a recording on a game at the time it was
+	 * recorded.
+	 */
+	static void play(MineGrid game, Recording.Cursor cursor) {
+		int code;
+		long cell;
+
+		cursor.next();
+		game.setReplayTime(cursor.getTime());
+		code = cursor.getCode();
+		cell = cursor.getCell();
+		if (code == MineGrid.ACTION_REVEAL) {
+			game.revealCell(game.cellX(cell), game.cellY(cell), game.cellZ(cell));
+		}
+		else if (code == MineGrid.ACTION_FLAG) {
+			game.flagCell(game.cellX(cell), game.cellY(cell), game.cellZ(cell));
+		}
+		else if (code == MineGrid.ACTION_CHORD) {
+			game.chordCell(game.cellX(cell), game.cellY(cell), game.cellZ(cell));
+		}
+		else if (code == Recording.UNDO) {
+			game.undo();
+		}
+		else if (code == Recording.REDO) {
+			game.redo();
+		}
+		else {
+			game.applyActions(cursor.getActions());
+		}
+	}
+
+}
@@ -0,0 +1,209 @@
+/**
+ * Automated JUnit tests against game recordings and their replays.
+ *
+ * @author arlsr
+ * @date 2014
+ */
+
+package tld.minegrid;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ReplayTest {
+
+	private static final Long RANDOM_SEED = 1L;
+	private MineGridSettings settings;
+	// The game after each action of the recording, from before the first.
+	private ArrayList<int[][]> grids = new ArrayList<int[][]>();
+	private ArrayList<long[]> counters = new ArrayList<long[]>();
+
+	@Before
+	public void setUp() throws Exception {
+		settings = new MineGridSettings();
+		settings.setSeed(RANDOM_SEED);
+		settings.setGridSize(60, 40);
+		settings.setMines(300);
+		settings.setLives(MineGrid.MAX_LIVES);
+	}
+
+	/**
+	 * Tests a replay matches the game after every action, stepping through
+	 * and seeking either way past its keyframes.
+	 */
+	@Test
+	public void testSeek() throws IOException {
+		MineGrid game = new MineGrid(settings);
+		Random rand = new Random(2);
+		Replay replay;
+		int target;
+
+		play(game, rand, 500);
+		replay = new Replay(Recording.fromBytes(game.getRecording().toBytes()));
+		assertEquals(grids.size() - 1, replay.size());
+
+		assertMatches(replay, 0);
+		while (replay.step()) {
+			assertMatches(replay, replay.getPosition());
+		}
+		assertEquals(replay.size(), replay.getPosition());
+
+		for (int i = 0; i < 100; i++) {
+			target = rand.nextInt(replay.size() + 1);
+			replay.seek(target);
+			assertMatches(replay, target);
+		}
+		replay.seek(0);
+		assertMatches(replay, 0);
+		assertEquals(0, replay.getTime());
+	}
+
+	/**
+	 * Tests a game without a seed, on a grid with several layers, replays
+	 * exactly.
+	 */
+	@Test
+	public void testUnseeded() {
+		MineGrid game;
+		Replay replay;
+		GridView played;
+		GridView replayed;
+
+		settings.setSeed(null);
+		settings.setDepth(3);
+		settings.setTopology(MineGrid.TOPOLOGY_TORUS);
+		settings.setGridSize(20, 15);
+		game = new MineGrid(settings);
+		for (int i = 0; i < 200 && game.getGameState() != MineGrid.GameState.LOST; i++) {
+			game.revealCell(i * 7 % 20, i * 3 % 15, i % 3);
+			game.flagCell(i * 11 % 20, i * 5 % 15, (i + 1) % 3);
+		}
+
+		replay = new Replay(game.getRecording());
+		replay.seek(replay.size());
+		played = game.getView();
+		replayed = replay.getGame().getView();
+		for (int z = 0; z < 3; z++) {
+			for (int y = 0; y < 15; y++) {
+				for (int x = 0; x < 20; x++) {
+					assertEquals(played.stateAt(x, y, z), replayed.stateAt(x, y, z));
+				}
+			}
+		}
+		assertEquals(game.getGameState(), replay.getGame().getGameState());
+	}
+
+	/**
+	 * Tests most actions take only a few bytes to record.
+	 */
+	@Test
+	public void testSize() {
+		MineGrid game = new MineGrid(settings);
+
+		for (int i = 0; i < 1000; i++) {
+			game.flagCell(i % 60, i / 60 % 40);
+		}
+		assertEquals(1000, game.getRecording().size());
+		assertTrue(game.getRecording().toBytes().length < 4000);
+	}
+
+	/**
+	 * Tests damaged recordings are rejected when read.
+	 */
+	@Test
+	public void testCorrupt() {
+		MineGrid game = new MineGrid(settings);
+		byte[] bytes;
+
+		play(game, new Random(3), 50);
+		bytes = game.getRecording().toBytes();
+
+		assertUnreadable(Arrays.copyOf(bytes, bytes.length - 1));
+		bytes[0]++;
+		assertUnreadable(bytes);
+		bytes[0]--;
+		// The code of the first action, whose time takes one byte.
+		bytes[58] = 9;
+		assertUnreadable(bytes);
+	}
+
+	/**
+	 * Plays a mix of actions at known times, noting the game after each.
+	 */
+	private void play(MineGrid game, Random rand, int numActions) {
+		int x;
+		int y;
+		int choice;
+
+		snapshot(game);
+		for (int i = 0; i < numActions; i++) {
+			game.setReplayTime(1000 + i * 13 + rand.nextInt(5));
+			x = rand.nextInt(60);
+			y = rand.nextInt(40);
+			choice = rand.nextInt(10);
+			if (choice < 4) {
+				game.revealCell(x, y);
+			}
+			else if (choice < 6) {
+				game.flagCell(x, y);
+			}
+			else if (choice < 7) {
+				game.chordCell(x, y);
+			}
+			else if (choice < 8) {
+				game.undo();
+			}
+			else if (choice < 9) {
+				game.redo();
+			}
+			else {
+				game.applyActions(new int[] {
+					MineGrid.ACTION_FLAG, x, y,
+					MineGrid.ACTION_REVEAL, rand.nextInt(60), rand.nextInt(40) });
+			}
+			// An undo or redo with nothing to take back isn't recorded.
+			if (game.getRecording().size() == grids.size()) {
+				snapshot(game);
+			}
+		}
+	}
+
+	/**
+	 * Notes the cells and counters of a game.
+	 */
+	private void snapshot(MineGrid game) {
+		grids.add(game.getGrid());
+		counters.add(new long[] { game.getGameState().ordinal(), game.getLives(), game.getNumFlags(),
+				game.getTimeTaken() });
+	}
+
+	/**
+	 * Checks a replay matches the game after the given number of actions.
+	 */
+	private void assertMatches(Replay replay, int position) {
+		MineGrid game = replay.getGame();
+
+		assertEquals(position, replay.getPosition());
+		assertArrayEquals(grids.get(position), game.getGrid());
+		assertArrayEquals(counters.get(position), new long[] { game.getGameState().ordinal(), game.getLives(),
+				game.getNumFlags(), game.getTimeTaken() });
+	}
+
+	private void assertUnreadable(byte[] bytes) {
+		try {
+			Recording.fromBytes(bytes);
+			fail("The recording should be rejected");
+		}
+		catch (IOException e) {
+			// Expected.
+		}
+	}
+
+}
@@ -0,0 +1,574 @@
+/**
+ * Estimates the chance that each unrevealed cell of a bounded grid is a
+ * mine, and the chance of winning from the current position, from mine
+ * layouts drawn at random to fit what can be seen, for frontiers too large
+ * to count exactly.
+ *
+ * Cells the Solver can prove are settled first. A layout is drawn by
+ * walking the frontier cells in breadth first order through their
+ * numbers. Each cell that no number already decides is made a mine with
+ * the average share of the mines its numbers still need, and the walk
+ * gives up at a cell that no choice fits, so a layout that can't work is
+ * dropped as soon as it fails. The mines left over once the frontier is
+ * walked are placed anywhere off it. Each layout is weighted by how
+ * unlikely the walk was to make its choices and by the ways of placing
+ * the rest of the mines, so the weighted layouts count as if every layout
+ * that fits were equally likely. Some layouts are also played out on a
+ * fork of the game, revealing what the Solver proves safe and guessing
+ * when it can't, to tell how often the game would be won.
+ *
+ * Sampling runs on a thread for every core, each drawing from its own split
+ * of the random stream. The threads add their totals in batches that grow
+ * as they go, so the estimates can be read at any time, coarse at first and
+ * closer with every batch.
+ *
+ * @author arlsr
+ * @date 2014
+ */
+
+package tld.minegrid;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+public class Sampler {
+	// The layouts a thread draws before adding its first totals, doubled
+	// with each batch up to the largest.
+	private static final int FIRST_BATCH = 16;
+	private static final int LAST_BATCH = 4096;
+
+	/**
+	 * Weighted totals over the layouts drawn. The weights are kept relative
+	 * to the heaviest layout so far, so they stay in range.
+	 */
+	private static class Totals {
+		// The log of the weight every weight is relative to.
+		private double scale = Double.NEGATIVE_INFINITY;
+		private double weight;
+		// The weight of the layouts with a mine in each frontier cell.
+		private double[] mines;
+		// The mines off the frontier, weighted by layout.
+		private double minesOff;
+		// The weight of the layouts played out, and of those won.
+		private double playedWeight;
+		private double wonWeight;
+		private long samples;
+		private long playouts;
+
+		public Totals(int numFrontier) {
+			mines = new double[numFrontier];
+		}
+
+		/**
+		 * Adds the totals of another batch.
+		 */
+		public void add(Totals other) {
+			double factor;
+
+			if (other.samples == 0) {
+				return;
+			}
+			if (other.scale > scale) {
+				rescale(other.scale);
+			}
+			factor = Math.exp(other.scale - scale);
+			weight += other.weight * factor;
+			for (int f = 0; f < mines.length; f++) {
+				mines[f] += other.mines[f] * factor;
+			}
+			minesOff += other.minesOff * factor;
+			playedWeight += other.playedWeight * factor;
+			wonWeight += other.wonWeight * factor;
+			samples += other.samples;
+			playouts += other.playouts;
+		}
+
+		public void reset() {
+			scale = Double.NEGATIVE_INFINITY;
+			weight = 0;
+			Arrays.fill(mines, 0);
+			minesOff = 0;
+			playedWeight = 0;
+			wonWeight = 0;
+			samples = 0;
+			playouts = 0;
+		}
+
+		/**
+		 * Returns the weight of a layout with the given log weight, first
+		 * rescaling the totals if it's the heaviest yet.
+		 */
+		public double weigh(double logWeight) {
+			if (logWeight > scale) {
+				rescale(logWeight);
+			}
+			return Math.exp(logWeight - scale);
+		}
+
+		private void rescale(double newScale) {
+			double factor = Math.exp(scale - newScale);
+
+			weight *= factor;
+			for (int f = 0; f < mines.length; f++) {
+				mines[f] *= factor;
+			}
+			minesOff *= factor;
+			playedWeight *= factor;
+			wonWeight *= factor;
+			scale = newScale;
+		}
+	}
+
+	/**
+	 * Draws layouts on one thread until the sampler is stopped.
+	 */
+	private class Worker implements Runnable {
+		private SplittableRandom random;
+		// The position the layouts are played out from.
+		private MineGrid base;
+		private Totals batch = new Totals(frontierCells.length);
+		// The mines each number still needs and its cells still to be drawn.
+		private int[] need = new int[needed.length];
+		private int[] undrawn = new int[needed.length];
+		// The layout drawn on the frontier, and the mines it leaves.
+		private boolean[] mines = new boolean[frontierCells.length];
+		private int minesLeftOff;
+		private boolean[] layout;
+		private int[] off = offFrontier.clone();
+		private long[] around;
+		private int[] coords = new int[3];
+		// The time spent drawing layouts and playing them out, kept level.
+		private long drawTime;
+		private long playTime;
+
+		public Worker(SplittableRandom random, MineGrid base) {
+			this.random = random;
+			this.base = base;
+			layout = new boolean[settled.length];
+			around = new long[base.getTopology().getMaxNeighbours()];
+		}
+
+		@Override
+		public void run() {
+			int batchSize = FIRST_BATCH;
+			double logWeight;
+			double weight;
+			long start;
+
+			while (!stopped) {
+				batch.reset();
+				for (int i = 0; i < batchSize && !stopped; i++) {
+					start = System.nanoTime();
+					logWeight = draw();
+					if (logWeight == Double.NEGATIVE_INFINITY) {
+						drawTime += System.nanoTime() - start;
+						continue;
+					}
+					weight = batch.weigh(logWeight);
+					batch.weight += weight;
+					for (int f = 0; f < mines.length; f++) {
+						if (mines[f]) {
+							batch.mines[f] += weight;
+						}
+					}
+					batch.minesOff += weight * minesLeftOff;
+					batch.samples++;
+					drawTime += System.nanoTime() - start;
+
+					// Which layouts are played out depends only on the time
+					// taken, so those played are weighted like the rest.
+					if (drawTime >= playTime) {
+						start = System.nanoTime();
+						batch.playedWeight += weight;
+						if (play()) {
+							batch.wonWeight += weight;
+						}
+						batch.playouts++;
+						playTime += System.nanoTime() - start;
+					}
+				}
+				addTotals(batch);
+				batchSize = Math.min(batchSize * 2, LAST_BATCH);
+			}
+		}
+
+		/**
+		 * Draws a layout of the frontier.
+		 *
+		 * @return	the log of the layout's weight, or negative infinity if
+		 * 			no layout was found
+		 */
+		private double draw() {
+			double logWeight = 0;
+			double chance;
+			int left = minesLeft;
+			boolean canMine;
+			boolean canSafe;
+			boolean mine;
+
+			System.arraycopy(needed, 0, need, 0, need.length);
+			System.arraycopy(sizes, 0, undrawn, 0, undrawn.length);
+			for (int f = 0; f < frontierCells.length; f++) {
+				canMine = true;
+				canSafe = true;
+				chance = 0;
+				for (int j : cellNumbers[f]) {
+					if (need[j] <= 0) {
+						canMine = false;
+					}
+					if (need[j] >= undrawn[j]) {
+						canSafe = false;
+					}
+					chance += (double)need[j] / undrawn[j];
+				}
+				if (canMine && canSafe) {
+					chance /= cellNumbers[f].length;
+					mine = random.nextDouble() < chance;
+					logWeight -= Math.log(mine ? chance : 1 - chance);
+				}
+				else if (canMine || canSafe) {
+					mine = canMine;
+				}
+				else {
+					return Double.NEGATIVE_INFINITY;
+				}
+
+				mines[f] = mine;
+				for (int j : cellNumbers[f]) {
+					undrawn[j]--;
+					if (mine) {
+						need[j]--;
+					}
+				}
+				if (mine && --left < 0) {
+					return Double.NEGATIVE_INFINITY;
+				}
+			}
+			if (left > off.length) {
+				return Double.NEGATIVE_INFINITY;
+			}
+			minesLeftOff = left;
+			return logWeight + logWays[left];
+		}
+
+		/**
+		 * Plays the layout just drawn out on a fork of the position.
+		 *
+		 * @return	whether the game was won
+		 */
+		private boolean play() {
+			MineGrid play = base.fork();
+			CellStore store = play.getStore();
+			Topology topology = play.getTopology();
+			Solver solver;
+			int count;
+			int score;
+			int swap;
+			int j;
+
+			for (int cell = 0; cell < layout.length; cell++) {
+				layout[cell] = settled[cell] == 1;
+			}
+			for (int f = 0; f < mines.length; f++) {
+				layout[frontierCells[f]] = mines[f];
+			}
+			for (int i = 0; i < off.length; i++) {
+				if (i < minesLeftOff) {
+					j = i + random.nextInt(off.length - i);
+					swap = off[i];
+					off[i] = off[j];
+					off[j] = swap;
+				}
+				layout[off[i]] = i < minesLeftOff;
+			}
+
+			// Flags are dropped, since they'd stop cells being revealed.
+			for (int cell = 0; cell < layout.length; cell++) {
+				if ((store.get(cell) & CellStore.REVEALED_BIT) == 0) {
+					count = topology.neighbours(cell, around);
+					score = 0;
+					for (int i = 0; i < count; i++) {
+						if (layout[(int)around[i]]) {
+							score++;
+						}
+					}
+					store.set(cell, layout[cell] ? score | CellStore.MINE_BIT : score);
+				}
+			}
+
+			solver = new Solver(play);
+			while (play.getGameState() == MineGrid.GameState.PRESTART
+					|| play.getGameState() == MineGrid.GameState.STARTED) {
+				if (!solver.findSafeCell(coords) && !solver.findGuess(coords)) {
+					break;
+				}
+				play.revealCell(coords[0], coords[1], coords[2]);
+				solver.update();
+			}
+			return play.getGameState() == MineGrid.GameState.WON;
+		}
+	}
+
+	// The position sampled, forked from the game.
+	private MineGrid game;
+	private int numThreads;
+	private SplittableRandom random = new SplittableRandom();
+	// Runs the workers, started by start.
+	private ExecutorService workers;
+	private volatile boolean stopped;
+	// The chance of each decided cell, with 0 for the undecided ones.
+	private double[] settled;
+	// The grid cell id of each frontier cell, in the order they're drawn.
+	private int[] frontierCells;
+	// The numbers holding each frontier cell, and for each number the mines
+	// it still needs and its frontier cells.
+	private int[][] cellNumbers;
+	private int[] needed;
+	private int[] sizes;
+	// The undecided cells off the frontier.
+	private int[] offFrontier;
+	private int minesLeft;
+	// The log of the ways of placing each number of mines off the frontier.
+	private double[] logWays;
+	private Totals totals;
+
+	/**
+	 * Constructs a sampler of the game's current position that draws on
+	 * every core.
+	 *
+	 * @throws	UnsupportedOperationException	if the grid is infinite or its
+	 * 											storage can't be forked
+	 */
+	public Sampler(MineGrid game) {
+		this(game, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Constructs a sampler of the game's current position that draws on the
+	 * given number of threads. Later actions in the game don't change it.
+	 *
+	 * @throws	UnsupportedOperationException	if the grid is infinite or its
+	 * 											storage can't be forked
+	 */
+	public Sampler(MineGrid game, int numThreads) {
+		Solver solver = new Solver(game);
+		CellStore store;
+		Topology topology = game.getTopology();
+		int numCells = game.getWidth() * game.getHeight() * game.getDepth();
+		// The index of each undecided cell among the frontier cells, or -1
+		// for an undecided cell off the frontier and -2 for a decided one.
+		int[] frontier = new int[numCells];
+		ArrayList<Integer> cells = new ArrayList<Integer>();
+		ArrayList<int[]> numbers = new ArrayList<int[]>();
+		ArrayList<Integer> needs = new ArrayList<Integer>();
+		ArrayList<ArrayList<Integer>> holders = new ArrayList<ArrayList<Integer>>();
+		long[] around = new long[topology.getMaxNeighbours()];
+		int[] numberCells = new int[around.length];
+		int[] order;
+		int numOrdered = 0;
+		int numOff = 0;
+		int deduction;
+		int bits;
+		int count;
+		int need;
+		int numUndecided;
+		int neighbour;
+
+		this.game = game.fork();
+		this.numThreads = numThreads;
+		store = this.game.getStore();
+		settled = new double[numCells];
+		minesLeft = game.getTotalMines();
+
+		for (int cell = 0; cell < numCells; cell++) {
+			deduction = solver.getDeduction(game.cellX(cell), game.cellY(cell), game.cellZ(cell));
+			frontier[cell] = deduction == Solver.UNKNOWN ? -1 : -2;
+			if (deduction == Solver.MINE) {
+				settled[cell] = 1;
+				minesLeft--;
+			}
+		}
+
+		// Every revealed number with undecided neighbours constrains them.
+		for (int cell = 0; cell < numCells; cell++) {
+			bits = store.get(cell);
+			if ((bits & (CellStore.REVEALED_BIT | CellStore.MINE_BIT)) != CellStore.REVEALED_BIT) {
+				continue;
+			}
+			count = topology.neighbours(cell, around);
+			need = bits & CellStore.SCORE_MASK;
+			numUndecided = 0;
+			for (int i = 0; i < count; i++) {
+				neighbour = (int)around[i];
+				if (settled[neighbour] == 1) {
+					need--;
+				}
+				else if (frontier[neighbour] != -2) {
+					if (frontier[neighbour] == -1) {
+						frontier[neighbour] = cells.size();
+						cells.add(neighbour);
+						holders.add(new ArrayList<Integer>());
+					}
+					numberCells[numUndecided++] = frontier[neighbour];
+					holders.get(frontier[neighbour]).add(numbers.size());
+				}
+			}
+			if (numUndecided > 0) {
+				numbers.add(Arrays.copyOf(numberCells, numUndecided));
+				needs.add(need);
+			}
+		}
+
+		// Draw the cells in breadth first order through their numbers, so a
+		// number's cells are drawn close together and a layout that can't
+		// work is found out early.
+		order = new int[cells.size()];
+		frontierCells = new int[cells.size()];
+		Arrays.fill(order, -1);
+		for (int first = 0; first < order.length; first++) {
+			if (order[first] >= 0) {
+				continue;
+			}
+			order[first] = numOrdered;
+			frontierCells[numOrdered++] = first;
+			for (int head = numOrdered - 1; head < numOrdered; head++) {
+				for (int j : holders.get(frontierCells[head])) {
+					for (int f : numbers.get(j)) {
+						if (order[f] < 0) {
+							order[f] = numOrdered;
+							frontierCells[numOrdered++] = f;
+						}
+					}
+				}
+			}
+		}
+		cellNumbers = new int[order.length][];
+		for (int f = 0; f < order.length; f++) {
+			cellNumbers[order[f]] = toArray(holders.get(f));
+			frontierCells[order[f]] = cells.get(f);
+		}
+		needed = toArray(needs);
+		sizes = new int[numbers.size()];
+		for (int j = 0; j < sizes.length; j++) {
+			sizes[j] = numbers.get(j).length;
+		}
+
+		for (int cell = 0; cell < numCells; cell++) {
+			if (frontier[cell] == -1) {
+				numOff++;
+			}
+		}
+		offFrontier = new int[numOff];
+		numOff = 0;
+		for (int cell = 0; cell < numCells; cell++) {
+			if (frontier[cell] == -1) {
+				offFrontier[numOff++] = cell;
+			}
+		}
+
+		logWays = new double[numOff + 1];
+		for (int m = 1; m <= numOff; m++) {
+			logWays[m] = logWays[m - 1] + Math.log((double)(numOff - m + 1) / m);
+		}
+		totals = new Totals(frontierCells.length);
+	}
+
+	/**
+	 * Returns the estimated chance that each cell is a mine, indexed by
+	 * (z * height + y) * width + x, or null until a layout has been drawn.
+	 * Revealed and proved cells are 0 or 1. Player flags are ignored.
+	 */
+	public synchronized double[] getChances() {
+		double[] chances;
+
+		if (totals.samples == 0) {
+			return null;
+		}
+		chances = settled.clone();
+		for (int f = 0; f < frontierCells.length; f++) {
+			chances[frontierCells[f]] = totals.mines[f] / totals.weight;
+		}
+		for (int cell : offFrontier) {
+			chances[cell] = totals.minesOff / totals.weight / offFrontier.length;
+		}
+		return chances;
+	}
+
+	/**
+	 * Returns the number of layouts played out so far.
+	 */
+	public synchronized long getPlayouts() {
+		return totals.playouts;
+	}
+
+	/**
+	 * Returns the number of layouts drawn so far.
+	 */
+	public synchronized long getSamples() {
+		return totals.samples;
+	}
+
+	/**
+	 * Returns the estimated chance of winning the game from its position,
+	 * playing the cells the Solver proves safe and otherwise guessing, or -1
+	 * until a layout has been played out.
+	 */
+	public synchronized double getWinChance() {
+		if (totals.playouts == 0) {
+			return -1;
+		}
+		return totals.wonWeight / totals.playedWeight;
+	}
+
+	/**
+	 * Starts drawing layouts, adding to the estimates until stopped.
+	 *
+	 * @throws	IllegalStateException	if the sampler has already been started
+	 */
+	public synchronized void start() {
+		if (workers != null) {
+			throw new IllegalStateException("The sampler has already been started");
+		}
+		workers = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "Sampler");
+
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		for (int i = 0; i < numThreads; i++) {
+			workers.submit(new Worker(random.split(), game.fork()));
+		}
+	}
+
+	/**
+	 * Stops drawing layouts once each thread finishes the one it's on. The
+	 * estimates so far can still be read.
+	 */
+	public synchronized void stop() {
+		stopped = true;
+		if (workers != null) {
+			workers.shutdown();
+		}
+	}
+
+	private synchronized void addTotals(Totals batch) {
+		totals.add(batch);
+	}
+
+	private static int[] toArray(ArrayList<Integer> values) {
+		int[] array = new int[values.size()];
+
+		for (int i = 0; i < array.length; i++) {
+			array[i] = values.get(i);
+		}
+		return array;
+	}
+
+}
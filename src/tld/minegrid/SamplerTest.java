@@ -0,0 +1,132 @@
+/**
+ * Automated JUnit tests against estimating chances from sampled layouts.
+ *
+ * @author arlsr
+ * @date 2014
+ */
+
+package tld.minegrid;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class SamplerTest {
+
+	private MineGridSettings settings;
+
+	@Before
+	public void setUp() throws Exception {
+		settings = new MineGridSettings();
+		settings.setLives(1);
+	}
+
+	/**
+	 * Tests the estimated chances come close to the exact ones, and that an
+	 * estimate is there soon after starting.
+	 */
+	@Test
+	public void testChances() throws Exception {
+		ProbabilityEngine engine = new ProbabilityEngine();
+		Random rand = new Random(1);
+		double[] expected;
+		Sampler sampler;
+		MineGrid game;
+
+		settings.setGridSize(16, 16);
+		settings.setMines(40);
+		settings.setLives(MineGrid.MAX_LIVES);
+		for (int seed = 0; seed < 10; seed++) {
+			settings.setSeed(Long.valueOf(seed));
+			game = new MineGrid(settings);
+			revealSafe(game, rand, 3 + seed);
+			expected = engine.compute(game, 10000);
+
+			sampler = new Sampler(game);
+			sampler.start();
+			while (sampler.getChances() == null) {
+				Thread.sleep(1);
+			}
+			while (sampler.getSamples() < 50000) {
+				Thread.sleep(1);
+			}
+			sampler.stop();
+			assertArrayEquals(expected, sampler.getChances(), 0.05);
+		}
+	}
+
+	/**
+	 * Tests the estimated chance of winning a new game matches the games
+	 * won playing it out, and that games already decided are won or lost.
+	 */
+	@Test
+	public void testWinChance() throws Exception {
+		int[] coords = new int[3];
+		int won = 0;
+		MineGrid game;
+		Solver solver;
+
+		settings.setGridSize(9, 9);
+		settings.setMines(10);
+		for (int seed = 0; seed < 2000; seed++) {
+			settings.setSeed(Long.valueOf(seed));
+			game = new MineGrid(settings);
+			solver = new Solver(game);
+			while (game.getGameState() == MineGrid.GameState.PRESTART
+					|| game.getGameState() == MineGrid.GameState.STARTED) {
+				if (!solver.findSafeCell(coords)) {
+					solver.findGuess(coords);
+				}
+				game.revealCell(coords[0], coords[1], coords[2]);
+				solver.update();
+			}
+			if (game.getGameState() == MineGrid.GameState.WON) {
+				won++;
+			}
+		}
+		assertEquals(won / 2000.0, winChance(new MineGrid(settings), 4000), 0.05);
+
+		game = new MineGrid(settings);
+		game.revealCell(0, 0);
+		for (int i = 0; game.getGameState() == MineGrid.GameState.STARTED; i++) {
+			game.revealCell(i % 9, i / 9);
+		}
+		assertEquals(game.getGameState() == MineGrid.GameState.WON ? 1 : 0, winChance(game, 10), 0);
+	}
+
+	/**
+	 * Returns a sampler's estimated chance of winning once it has played out
+	 * the given number of layouts.
+	 */
+	private double winChance(MineGrid game, int playouts) throws InterruptedException {
+		Sampler sampler = new Sampler(game);
+
+		sampler.start();
+		while (sampler.getPlayouts() < playouts) {
+			Thread.sleep(1);
+		}
+		sampler.stop();
+		return sampler.getWinChance();
+	}
+
+	/**
+	 * Reveals the given number of random safe cells.
+	 */
+	private void revealSafe(MineGrid game, Random rand, int count) {
+		CellStore store = game.getStore();
+		int x;
+		int y;
+
+		for (int i = 0; i < count; i++) {
+			do {
+				x = rand.nextInt(game.getWidth());
+				y = rand.nextInt(game.getHeight());
+			} while ((store.get(game.cellId(x, y)) & CellStore.MINE_BIT) != 0);
+			game.revealCell(x, y);
+		}
+	}
+
+}
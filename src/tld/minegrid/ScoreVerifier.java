@@ -0,0 +1,190 @@
+/**
+ * Checks a submitted score by playing its recorded game again from the
+ * seed, rather than trusting the score the player's game worked out.
+ *
+ * Each check restarts a pooled engine instead of building a new game, so
+ * checking a submission costs little more than planting its mines and
+ * playing its actions. Checks can be made on the calling thread or handed
+ * to a pool with a thread for every core. Submitted grids are limited in
+ * size and only so many engines are kept, so a bogus recording can't make
+ * the verifier hold on to large amounts of memory.
+ *
+ * @author arlsr
+ * @date 2014
+ */
+
+package tld.minegrid;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+public class ScoreVerifier {
+	// The most cells of a grid whose score is checked, far more than any
+	// grid the game screen offers.
+	private static final long MAX_CELLS = 1 << 20;
+
+	// Engines not being used by a check, at most one for each thread.
+	private ConcurrentLinkedQueue<MineGrid> engines = new ConcurrentLinkedQueue<MineGrid>();
+	// Runs the checks handed to submit, started by the first of them.
+	private ExecutorService workers;
+	private int numThreads;
+
+	/**
+	 * Constructs an instance that runs submitted checks on every core.
+	 */
+	public ScoreVerifier() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Constructs an instance that runs submitted checks on the given number
+	 * of threads.
+	 */
+	public ScoreVerifier(int numThreads) {
+		this.numThreads = numThreads;
+	}
+
+	/**
+	 * Stops the threads running submitted checks once they finish the checks
+	 * already submitted.
+	 */
+	public synchronized void shutdown() {
+		if (workers != null) {
+			workers.shutdown();
+		}
+	}
+
+	/**
+	 * Hands a check to the pool of threads.
+	 *
+	 * @return	whether the score is verified, once the check is done
+	 * @see	#verify(Recording, int, long)
+	 */
+	public Future<Boolean> submit(final Recording recording, final int score, final long timeTaken) {
+		return getWorkers().submit(new Callable<Boolean>() {
+			@Override
+			public Boolean call() {
+				return verify(recording, score, timeTaken);
+			}
+		});
+	}
+
+	/**
+	 * Plays a recorded game again on the calling thread and checks it was
+	 * won with the given score and time. Recordings of infinite grids, of
+	 * settings outside the game's limits or of grids of more than MAX_CELLS
+	 * cells are never verified. Nor are recordings that take a move back,
+	 * since an undo would let a lost game be played on to a win, or that act
+	 * on a cell outside the grid; every action is checked before any is
+	 * played. The time can only be checked against the times recorded.
+	 *
+	 * @param	recording	the recorded game
+	 * @param	score		the score submitted for it
+	 * @param	timeTaken	the time taken submitted for it
+	 * @return	whether the game was won with the given score and time
+	 */
+	public boolean verify(Recording recording, int score, long timeTaken) {
+		MineGridSettings settings = recording.getSettings();
+		MineGrid engine;
+		Recording.Cursor cursor;
+
+		if (!isAllowed(settings) || !isPlayable(recording, settings)) {
+			return false;
+		}
+
+		engine = engines.poll();
+		if (engine == null) {
+			engine = new MineGrid(settings);
+		}
+		else {
+			engine.restart(settings);
+		}
+		engine.setReplayTime(0);
+		cursor = recording.cursor();
+		for (int i = 0; i < recording.size(); i++) {
+			Replay.play(engine, cursor);
+		}
+
+		try {
+			return engine.getGameState() == MineGrid.GameState.WON && engine.getScore() == score
+					&& engine.getTimeTaken() == timeTaken;
+		}
+		finally {
+			if (engines.size() < numThreads) {
+				engines.offer(engine);
+			}
+		}
+	}
+
+	/**
+	 * Returns the pool of threads, starting it if need be.
+	 */
+	private synchronized ExecutorService getWorkers() {
+		if (workers == null) {
+			workers = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "ScoreVerifier");
+
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return workers;
+	}
+
+	/**
+	 * Returns whether every action of a recording plays forward on a cell of
+	 * the grid.
+	 */
+	private static boolean isPlayable(Recording recording, MineGridSettings settings) {
+		long numCells = (long)settings.getGridWidth() * settings.getGridHeight() * settings.getDepth();
+		Recording.Cursor cursor = recording.cursor();
+		int[] actions;
+		int code;
+
+		for (int i = 0; i < recording.size(); i++) {
+			cursor.next();
+			code = cursor.getCode();
+			if (code == Recording.UNDO || code == Recording.REDO) {
+				return false;
+			}
+			else if (code == Recording.BATCH) {
+				actions = cursor.getActions();
+				for (int j = 0; j < actions.length; j += 3) {
+					if (actions[j + 1] < 0 || actions[j + 1] >= settings.getGridWidth()
+							|| actions[j + 2] < 0 || actions[j + 2] >= settings.getGridHeight()) {
+						return false;
+					}
+				}
+			}
+			else if (cursor.getCell() < 0 || cursor.getCell() >= numCells) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns whether a game could have been played with the given settings.
+	 */
+	private static boolean isAllowed(MineGridSettings settings) {
+		return !settings.isInfinite()
+				&& (long)settings.getGridWidth() * settings.getGridHeight() * settings.getDepth() <= MAX_CELLS
+				&& settings.getGridWidth() >= MineGrid.MIN_WIDTH && settings.getGridWidth() <= MineGrid.MAX_WIDTH
+				&& settings.getGridHeight() >= MineGrid.MIN_HEIGHT && settings.getGridHeight() <= MineGrid.MAX_HEIGHT
+				&& settings.getDepth() >= MineGrid.MIN_DEPTH && settings.getDepth() <= MineGrid.MAX_DEPTH
+				&& settings.getMines() >= MineGrid.MIN_MINES && settings.getMines() <= settings.getMaxMines()
+				&& settings.getLives() >= MineGrid.MIN_LIVES && settings.getLives() <= MineGrid.MAX_LIVES
+				&& (settings.getGeneratorVersion() == MineGrid.GENERATOR_LEGACY
+						|| settings.getGeneratorVersion() == MineGrid.GENERATOR_SAMPLED)
+				&& settings.getTopology() >= MineGrid.TOPOLOGY_SQUARE && settings.getTopology() <= MineGrid.TOPOLOGY_HEX
+				&& (settings.getTopology() != MineGrid.TOPOLOGY_HEX || settings.getDepth() == 1);
+	}
+
+}
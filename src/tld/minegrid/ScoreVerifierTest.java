@@ -0,0 +1,160 @@
+/**
+ * Automated JUnit tests against verifying scores by replay.
+ *
+ * @author arlsr
+ * @date 2014
+ */
+
+package tld.minegrid;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.concurrent.Future;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ScoreVerifierTest {
+
+	private static final Long RANDOM_SEED = 1L;
+	private MineGridSettings settings;
+
+	@Before
+	public void setUp() throws Exception {
+		settings = new MineGridSettings();
+		settings.setSeed(RANDOM_SEED);
+		settings.setGridSize(30, 16);
+		settings.setMines(99);
+		settings.setLives(1);
+	}
+
+	/**
+	 * Tests only the score and time of a won game are verified.
+	 */
+	@Test
+	public void testVerify() {
+		ScoreVerifier verifier = new ScoreVerifier();
+		MineGrid game = new MineGrid(settings);
+		MineGrid lost = new MineGrid(settings);
+
+		win(game);
+		assertTrue(verifier.verify(game.getRecording(), game.getScore(), game.getTimeTaken()));
+		assertFalse(verifier.verify(game.getRecording(), game.getScore() + 1, game.getTimeTaken()));
+		assertFalse(verifier.verify(game.getRecording(), game.getScore(), game.getTimeTaken() - 1));
+
+		for (int i = 0; lost.getGameState() != MineGrid.GameState.LOST; i++) {
+			lost.revealCell(i % 30, i / 30);
+		}
+		assertFalse(verifier.verify(lost.getRecording(), lost.getScore(), lost.getTimeTaken()));
+
+		// The engine used for the lost game is reused for the won one.
+		assertTrue(verifier.verify(game.getRecording(), game.getScore(), game.getTimeTaken()));
+	}
+
+	/**
+	 * Tests a game that takes a move back is never verified, even when the
+	 * undo carries a lost game on to a win.
+	 */
+	@Test
+	public void testUndo() {
+		ScoreVerifier verifier = new ScoreVerifier();
+		MineGrid game = new MineGrid(settings);
+		CellStore store = game.getStore();
+		long mine = 0;
+
+		while ((store.get(mine) & CellStore.MINE_BIT) == 0) {
+			mine++;
+		}
+		game.revealCell(game.cellX(mine), game.cellY(mine));
+		assertEquals(MineGrid.GameState.LOST, game.getGameState());
+		assertTrue(game.undo());
+		win(game);
+		assertFalse(verifier.verify(game.getRecording(), game.getScore(), game.getTimeTaken()));
+	}
+
+	/**
+	 * Tests a recording that acts on a cell outside its grid is turned away
+	 * before it is played.
+	 */
+	@Test
+	public void testOutside() {
+		ScoreVerifier verifier = new ScoreVerifier();
+		MineGrid game = new MineGrid(settings);
+		Recording outside;
+		Recording batch;
+
+		outside = new Recording(settings, RANDOM_SEED);
+		outside.add(MineGrid.ACTION_REVEAL, 0, 0);
+		outside.add(MineGrid.ACTION_FLAG, 0, 30 * 16);
+		assertFalse(verifier.verify(outside, 0, 0));
+		batch = new Recording(settings, RANDOM_SEED);
+		batch.addBatch(0, new int[] { MineGrid.ACTION_FLAG, 30, 0 });
+		assertFalse(verifier.verify(batch, 0, 0));
+
+		// Nothing was played on the engine, which is still trusted.
+		win(game);
+		assertTrue(verifier.verify(game.getRecording(), game.getScore(), game.getTimeTaken()));
+	}
+
+	/**
+	 * Tests a won game is never verified when its grid has too many cells,
+	 * even though each side is within the game's limits.
+	 */
+	@Test
+	public void testTooLarge() {
+		ScoreVerifier verifier = new ScoreVerifier();
+		MineGrid game;
+
+		settings.setGridSize(1100, 1000);
+		settings.setMines(10);
+		game = new MineGrid(settings);
+		win(game);
+		assertFalse(verifier.verify(game.getRecording(), game.getScore(), game.getTimeTaken()));
+	}
+
+	/**
+	 * Tests checks submitted to the pool of threads, over grids of several
+	 * sizes so engines are restarted both keeping and replacing their cells.
+	 */
+	@Test
+	public void testSubmit() throws Exception {
+		ScoreVerifier verifier = new ScoreVerifier(4);
+		ArrayList<MineGrid> games = new ArrayList<MineGrid>();
+		ArrayList<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+		MineGrid game;
+
+		for (int i = 0; i < 200; i++) {
+			settings.setSeed(Long.valueOf(i));
+			settings.setGridSize(8 + i % 3 * 8, 8 + i % 2 * 8);
+			settings.setMines(10 + i % 5);
+			game = new MineGrid(settings);
+			win(game);
+			games.add(game);
+		}
+		for (MineGrid won : games) {
+			results.add(verifier.submit(won.getRecording(), won.getScore(), won.getTimeTaken()));
+		}
+		for (Future<Boolean> result : results) {
+			assertTrue(result.get());
+		}
+		verifier.shutdown();
+	}
+
+	/**
+	 * Wins a game by revealing every cell that isn't a mine.
+	 */
+	private void win(MineGrid game) {
+		CellStore store = game.getStore();
+
+		for (int y = 0; y < game.getHeight(); y++) {
+			for (int x = 0; x < game.getWidth(); x++) {
+				if ((store.get(game.cellId(x, y)) & CellStore.MINE_BIT) == 0) {
+					game.revealCell(x, y);
+				}
+			}
+		}
+		assertEquals(MineGrid.GameState.WON, game.getGameState());
+	}
+
+}
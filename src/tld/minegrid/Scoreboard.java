@@ -23,6 +23,10 @@ import javax.swing.JOptionPane;
     "HEIGHT"     NUMBER(3) NOT NULL,
     "MINES"      NUMBER(4) NOT NULL,
     "LIVES"      NUMBER(2) NOT NULL,
+    "DEPTH"      NUMBER(4) DEFAULT 1 NOT NULL,
+    "TOPOLOGY"   NUMBER(1) DEFAULT 1 NOT NULL,
+    "GENERATOR"  NUMBER(2) DEFAULT 1 NOT NULL,
+    "NO_GUESS"   NUMBER(1) DEFAULT 0 NOT NULL,
     "ID"         NUMBER(7),
     constraint  "HIGHSCORES_PK" primary key ("ID")
   )
@@ -33,6 +37,15 @@ public class Scoreboard {
 	// Highscores database limited-user login details.
 	private final String USERNAME = "minegrid";
 	private final String PASSWORD = "";
+	// The columns added to the original table for each kind of grid, and
+	// how each is added to a table made before them. The defaults describe
+	// the original grids, which every earlier score was played on.
+	private static final String[][] ADDED_COLUMNS = {
+		{ "DEPTH", "depth NUMBER(4) DEFAULT 1 NOT NULL" },
+		{ "TOPOLOGY", "topology NUMBER(1) DEFAULT 1 NOT NULL" },
+		{ "GENERATOR", "generator NUMBER(2) DEFAULT 1 NOT NULL" },
+		{ "NO_GUESS", "no_guess NUMBER(1) DEFAULT 0 NOT NULL" },
+	};
 	
 	private Connection con;
 	private Statement stmt;
@@ -44,6 +57,8 @@ public class Scoreboard {
 	
 	private PreparedStatement pstGetScores;
 	private PreparedStatement pstInsertScore;
+	// Plays each submitted game again before its score is inserted.
+	private ScoreVerifier verifier = new ScoreVerifier();
 	
 	/**
 	 * Constructs a new Scoreboard instance by connecting to the database.
@@ -84,10 +99,34 @@ public class Scoreboard {
 		
 		stmt = con.createStatement();
 		
+		addColumns();
 		fetchNextId();
 		createPreparedStatements();
 	}
 	
+	/**
+	 * Adds any of the columns for each kind of grid missing from a table
+	 * made before them.
+	 */
+	private void addColumns() throws SQLException {
+		DatabaseMetaData meta = con.getMetaData();
+		ResultSet columns;
+		boolean found;
+
+		for (String[] column : ADDED_COLUMNS) {
+			columns = meta.getColumns(null, null, "HIGHSCORES", column[0]);
+			try {
+				found = columns.next();
+			}
+			finally {
+				columns.close();
+			}
+			if (!found) {
+				stmt.executeUpdate("ALTER TABLE highscores ADD (" + column[1] + ")");
+			}
+		}
+	}
+
 	/**
 	 * Requests and stores the next ID value to use when inserting new score records. 
 	 */
@@ -103,23 +142,30 @@ public class Scoreboard {
 	 */
 	private void createPreparedStatements() throws SQLException {
 		
+		// Each kind of grid has a board of its own.
 		pstGetScores = con.prepareStatement(
-			"SELECT name, score, time, width, height, mines, lives FROM highscores ORDER BY score DESC");
+			"SELECT name, score, time, width, height, mines, lives, depth, topology, generator, no_guess"
+			+ " FROM highscores ORDER BY depth, topology, generator, no_guess, score DESC");
 		
 		pstInsertScore = con.prepareStatement(
-			"INSERT INTO highscores (id, name, score, time, width, height, mines, lives) VALUES (?, ?, ?, ?, ?, ?, ?, ?)");
+			"INSERT INTO highscores (id, name, score, time, width, height, mines, lives, depth, topology, generator, no_guess)"
+			+ " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
 	}
 	
 	/**
 	 * Requests all the scores from the database and returns them ready for display.
+	 * Scores are ranked separately for each kind of grid: its depth,
+	 * topology, mine generator and whether it needs guesses.
 	 * 
 	 * @return	a list of rows of objects containing the value of each cell
 	 */
-	public ArrayList<Object[]> getScores() {
+	public synchronized ArrayList<Object[]> getScores() {
 		
 		ArrayList<Object[]> scores = new ArrayList<Object[]>();
 		Object[] score;
 		String grid;
+		String kind;
+		String lastKind = null;
 		int rank = 1;
 		
 		try {
@@ -127,8 +173,14 @@ public class Scoreboard {
 
 			while (rs.next()) {
 				
-				grid = String.format("%dx%d",
-					rs.getLong("width"), rs.getLong("height"));
+				kind = describeKind(rs.getInt("depth"), rs.getInt("topology"), rs.getInt("generator"),
+					rs.getInt("no_guess") != 0);
+				if (!kind.equals(lastKind)) {
+					rank = 1;
+					lastKind = kind;
+				}
+				grid = String.format("%dx%d%s",
+					rs.getLong("width"), rs.getLong("height"), kind);
 				
 				score = new Object[] {
 					rank++,
@@ -151,9 +203,30 @@ public class Scoreboard {
 	}
 	
 	/**
-	 * Inserts a new score record into the database.
+	 * Inserts a new score record into the database, once the recorded game
+	 * has been played again and found to be won with the given score and
+	 * time. The grid, mines, lives and generator are taken from the
+	 * recording. Playing the game again takes as long as the game has
+	 * actions, so this is never called on the event thread, and only the
+	 * insert itself holds the connection.
+	 * 
+	 * @return	whether the score was verified and inserted
 	 */
-	public boolean insertScore(String name, int score, long time, int width, int height, int mines, int lives) throws SQLException {
+	public boolean insertScore(String name, Recording recording, int score, long time) throws SQLException {
+		
+		if (!verifier.verify(recording, score, time)) {
+			return false;
+		}
+		return insertVerified(name, recording.getSettings(), score, time);
+	}
+
+	/**
+	 * Inserts a score record whose game has been verified.
+	 * 
+	 * @return	whether the score was inserted
+	 */
+	private synchronized boolean insertVerified(String name, MineGridSettings settings, int score, long time)
+			throws SQLException {
 		
 		int param = 1;
 		int rows;
@@ -162,13 +235,42 @@ public class Scoreboard {
 		pstInsertScore.setString(param++, name);
 		pstInsertScore.setInt(param++, score);
 		pstInsertScore.setLong(param++, time);
-		pstInsertScore.setInt(param++, width);
-		pstInsertScore.setInt(param++, height);
-		pstInsertScore.setInt(param++, mines);
-		pstInsertScore.setInt(param++, lives);
+		pstInsertScore.setInt(param++, settings.getGridWidth());
+		pstInsertScore.setInt(param++, settings.getGridHeight());
+		pstInsertScore.setInt(param++, settings.getMines());
+		pstInsertScore.setInt(param++, settings.getLives());
+		pstInsertScore.setInt(param++, settings.getDepth());
+		pstInsertScore.setInt(param++, settings.getTopology());
+		pstInsertScore.setInt(param++, settings.getGeneratorVersion());
+		pstInsertScore.setInt(param++, settings.isNoGuess() ? 1 : 0);
 		rows = pstInsertScore.executeUpdate();
 		
 		return (rows == 1);
 	}
 
+	/**
+	 * Returns how a kind of grid is shown after its size, which is nothing
+	 * for the original single layer square grids.
+	 */
+	private static String describeKind(int depth, int topology, int generator, boolean noGuess) {
+		StringBuilder kind = new StringBuilder();
+
+		if (depth > 1) {
+			kind.append("x").append(depth);
+		}
+		if (topology == MineGrid.TOPOLOGY_TORUS) {
+			kind.append(" torus");
+		}
+		else if (topology == MineGrid.TOPOLOGY_HEX) {
+			kind.append(" hex");
+		}
+		if (generator != MineGrid.GENERATOR_LEGACY) {
+			kind.append(" v").append(generator);
+		}
+		if (noGuess) {
+			kind.append(" no guess");
+		}
+		return kind.toString();
+	}
+
 }
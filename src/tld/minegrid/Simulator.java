@@ -0,0 +1,684 @@
+/**
+ * Plays large numbers of complete games without a screen, for measuring
+ * strategies and the engine.
+ *
+ * Each game is numbered and played with the simulator's settings seeded by
+ * its number, so a run can be repeated. A strategy chooses every action and
+ * the time the engine takes to play it is measured apart from the time the
+ * strategy takes to choose it. Games are handed out in blocks to a thread
+ * for every core, each with its own strategy and a single engine that is
+ * restarted for every game rather than built again. Nothing from the
+ * screens is loaded.
+ *
+ * Run from the command line with options such as
+ * --games 100000 --width 30 --height 16 --mines 99 --strategy solver.
+ *
+ * @author arlsr
+ * @date 2014
+ */
+
+package tld.minegrid;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class Simulator {
+	// The games a thread takes at a time.
+	private static final int BLOCK_SIZE = 64;
+	// Cascade sizes are counted in buckets of powers of two.
+	private static final int CASCADE_BUCKETS = 32;
+
+	/**
+	 * Chooses the actions of simulated games. Each thread plays with its own
+	 * copy.
+	 */
+	public interface Strategy {
+		/**
+		 * Returns a new instance that plays the same way.
+		 */
+		public Strategy copy();
+
+		/**
+		 * Returns the settings to play a game with.
+		 *
+		 * @param	number		the number of the game
+		 * @param	settings	the simulator's settings, seeded by the
+		 * 						game's number
+		 */
+		public MineGridSettings prepare(long number, MineGridSettings settings);
+
+		/**
+		 * Starts playing a new game, before its first action.
+		 */
+		public void start(MineGrid game);
+
+		/**
+		 * Chooses the next action, learning from the last one first.
+		 *
+		 * @return	whether there is an action to play, or false once the
+		 * 			strategy has finished the game
+		 */
+		public boolean choose(MineGrid game);
+
+		/**
+		 * Plays the action chosen on the game.
+		 */
+		public void act(MineGrid game);
+	}
+
+	/**
+	 * Reveals the cells the Solver proves safe, and when it can't prove
+	 * any, the cell it finds least likely to be a mine. One Solver is reset
+	 * for each game.
+	 */
+	public static class SolverStrategy implements Strategy {
+		private Solver solver;
+		private int[] coords = new int[3];
+		private boolean acted;
+
+		@Override
+		public Strategy copy() {
+			return new SolverStrategy();
+		}
+
+		@Override
+		public MineGridSettings prepare(long number, MineGridSettings settings) {
+			return settings;
+		}
+
+		@Override
+		public void start(MineGrid game) {
+			if (solver == null) {
+				solver = new Solver(game);
+			}
+			else {
+				solver.reset(game);
+			}
+			acted = false;
+		}
+
+		@Override
+		public boolean choose(MineGrid game) {
+			if (acted) {
+				solver.update();
+			}
+			if (!isPlaying(game)) {
+				return false;
+			}
+			return solver.findSafeCell(coords) || solver.findGuess(coords);
+		}
+
+		@Override
+		public void act(MineGrid game) {
+			game.revealCell(coords[0], coords[1], coords[2]);
+			acted = true;
+		}
+	}
+
+	/**
+	 * Reveals unrevealed cells at random, drawn from the game's seed.
+	 */
+	public static class RandomStrategy implements Strategy {
+		private SplittableRandom random;
+		private long cell;
+
+		@Override
+		public Strategy copy() {
+			return new RandomStrategy();
+		}
+
+		@Override
+		public MineGridSettings prepare(long number, MineGridSettings settings) {
+			random = new SplittableRandom(settings.getSeed().longValue());
+			return settings;
+		}
+
+		@Override
+		public void start(MineGrid game) {
+		}
+
+		@Override
+		public boolean choose(MineGrid game) {
+			CellStore store = game.getStore();
+			int numCells = game.getWidth() * game.getHeight() * game.getDepth();
+
+			if (!isPlaying(game)) {
+				return false;
+			}
+			do {
+				cell = random.nextInt(numCells);
+			} while ((store.get(cell) & (CellStore.REVEALED_BIT | CellStore.FLAG_BIT)) != 0);
+			return true;
+		}
+
+		@Override
+		public void act(MineGrid game) {
+			game.revealCell(game.cellX(cell), game.cellY(cell), game.cellZ(cell));
+		}
+	}
+
+	/**
+	 * Plays recorded games again, game number n playing recording n modulo
+	 * the number of recordings, with the settings it was recorded with.
+	 */
+	public static class ReplayStrategy implements Strategy {
+		private List<Recording> recordings;
+		private Recording recording;
+		private Recording.Cursor cursor;
+		private int played;
+
+		public ReplayStrategy(List<Recording> recordings) {
+			if (recordings.isEmpty()) {
+				throw new IllegalArgumentException("There are no recordings to play");
+			}
+			this.recordings = recordings;
+		}
+
+		@Override
+		public Strategy copy() {
+			return new ReplayStrategy(recordings);
+		}
+
+		@Override
+		public MineGridSettings prepare(long number, MineGridSettings settings) {
+			recording = recordings.get((int)(number % recordings.size()));
+			return recording.getSettings();
+		}
+
+		@Override
+		public void start(MineGrid game) {
+			cursor = recording.cursor();
+			played = 0;
+		}
+
+		@Override
+		public boolean choose(MineGrid game) {
+			return played < recording.size();
+		}
+
+		@Override
+		public void act(MineGrid game) {
+			Replay.play(game, cursor);
+			played++;
+		}
+	}
+
+	/**
+	 * The totals of the games played.
+	 */
+	public static class Results {
+		private long games;
+		private long wins;
+		private long boardValues;
+		private long actions;
+		private long engineTime;
+		private long strategyTime;
+		private long cascades;
+		private long cascadeCells;
+		private int largestCascade;
+		private long[] cascadeCounts = new long[CASCADE_BUCKETS];
+		private long elapsedTime;
+
+		/**
+		 * Returns the average 3BV of the boards played, the fewest clicks
+		 * that clear them: one for each opening and one for each number not
+		 * bordering an opening.
+		 */
+		public double getAverageBoardValue() {
+			return games > 0 ? (double)boardValues / games : 0;
+		}
+
+		/**
+		 * Returns the average number of cells revealed by an action that
+		 * revealed any.
+		 */
+		public double getAverageCascade() {
+			return cascades > 0 ? (double)cascadeCells / cascades : 0;
+		}
+
+		/**
+		 * Returns the number of actions that revealed between 2^i and
+		 * 2^(i+1) - 1 cells.
+		 */
+		public long getCascadeCount(int i) {
+			return cascadeCounts[i];
+		}
+
+		/**
+		 * Returns the average nanoseconds the engine took to play an action.
+		 */
+		public double getEngineTimePerAction() {
+			return actions > 0 ? (double)engineTime / actions : 0;
+		}
+
+		public long getGames() {
+			return games;
+		}
+
+		public int getLargestCascade() {
+			return largestCascade;
+		}
+
+		/**
+		 * Returns the average nanoseconds the strategy took to choose an
+		 * action.
+		 */
+		public double getStrategyTimePerAction() {
+			return actions > 0 ? (double)strategyTime / actions : 0;
+		}
+
+		public double getWinRate() {
+			return games > 0 ? (double)wins / games : 0;
+		}
+
+		public long getWins() {
+			return wins;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder text = new StringBuilder();
+
+			text.append(String.format("Played %d games in %.2f s (%.0f games/s)%n", games, elapsedTime / 1e9,
+					elapsedTime > 0 ? games * 1e9 / elapsedTime : 0));
+			text.append(String.format("Won %d (%.2f%%)%n", wins, getWinRate() * 100));
+			text.append(String.format("Average 3BV %.2f%n", getAverageBoardValue()));
+			text.append(String.format("Actions %d, engine %.0f ns and strategy %.0f ns per action%n", actions,
+					getEngineTimePerAction(), getStrategyTimePerAction()));
+			text.append(String.format("Cascades %d, %.2f cells on average, largest %d%n", cascades,
+					getAverageCascade(), largestCascade));
+			for (int i = 0; i < CASCADE_BUCKETS; i++) {
+				if (cascadeCounts[i] > 0) {
+					text.append(String.format("  %d-%d cells: %d%n", 1L << i, (1L << (i + 1)) - 1, cascadeCounts[i]));
+				}
+			}
+			return text.toString();
+		}
+
+		private void add(Results other) {
+			games += other.games;
+			wins += other.wins;
+			boardValues += other.boardValues;
+			actions += other.actions;
+			engineTime += other.engineTime;
+			strategyTime += other.strategyTime;
+			cascades += other.cascades;
+			cascadeCells += other.cascadeCells;
+			largestCascade = Math.max(largestCascade, other.largestCascade);
+			for (int i = 0; i < CASCADE_BUCKETS; i++) {
+				cascadeCounts[i] += other.cascadeCounts[i];
+			}
+		}
+	}
+
+	/**
+	 * Plays games on one thread until none are left.
+	 */
+	private class Worker implements Runnable {
+		private Strategy strategy;
+		private MineGridSettings seeded = new MineGridSettings();
+		private MineGrid engine;
+		private Results results = new Results();
+		// Work space for finding the 3BV of a board.
+		private boolean[] counted = new boolean[0];
+		private int[] stack = new int[64];
+		private long[] around = new long[0];
+
+		public Worker(Strategy strategy) {
+			this.strategy = strategy;
+			copySettings(settings, seeded);
+		}
+
+		@Override
+		public void run() {
+			long first;
+
+			while ((first = nextGame.getAndAdd(BLOCK_SIZE)) < endGame) {
+				for (long number = first; number < Math.min(first + BLOCK_SIZE, endGame); number++) {
+					play(number);
+				}
+			}
+		}
+
+		private void play(long number) {
+			MineGridSettings gameSettings;
+			CellChanges changes;
+			long start;
+			long chosen;
+			long acted;
+			int revealed;
+			int state;
+
+			seeded.setSeed(Long.valueOf(number));
+			gameSettings = strategy.prepare(number, seeded);
+			if (engine == null) {
+				engine = new MineGrid(gameSettings);
+			}
+			else {
+				engine.restart(gameSettings);
+			}
+			strategy.start(engine);
+
+			start = System.nanoTime();
+			while (strategy.choose(engine)) {
+				chosen = System.nanoTime();
+				strategy.act(engine);
+				acted = System.nanoTime();
+				results.strategyTime += chosen - start;
+				results.engineTime += acted - chosen;
+				results.actions++;
+
+				// Cells revealed by a losing action are mixed up with the
+				// whole grid being shown, so only the others count, and
+				// only those small enough to be listed.
+				if (engine.getGameState() != MineGrid.GameState.LOST) {
+					changes = engine.getChanges();
+					revealed = 0;
+					for (int i = 0; i < changes.size(); i++) {
+						state = changes.getState(i);
+						if (state >= 0) {
+							revealed++;
+						}
+					}
+					if (revealed > 0) {
+						results.cascades++;
+						results.cascadeCells += revealed;
+						results.largestCascade = Math.max(results.largestCascade, revealed);
+						results.cascadeCounts[31 - Integer.numberOfLeadingZeros(revealed)]++;
+					}
+				}
+				start = System.nanoTime();
+			}
+
+			results.games++;
+			if (engine.getGameState() == MineGrid.GameState.WON) {
+				results.wins++;
+			}
+			results.boardValues += boardValue(engine);
+		}
+
+		/**
+		 * Returns the 3BV of a game's board.
+		 */
+		private int boardValue(MineGrid game) {
+			CellStore store = game.getStore();
+			Topology topology = game.getTopology();
+			int numCells = game.getWidth() * game.getHeight() * game.getDepth();
+			int value = 0;
+			int top;
+			int cell;
+			int count;
+			int neighbour;
+
+			if (counted.length < numCells) {
+				counted = new boolean[numCells];
+			}
+			else {
+				Arrays.fill(counted, 0, numCells, false);
+			}
+			if (around.length < topology.getMaxNeighbours()) {
+				around = new long[topology.getMaxNeighbours()];
+			}
+
+			// Each opening takes one click, which also clears the numbers
+			// around it.
+			for (int zero = 0; zero < numCells; zero++) {
+				if (counted[zero] || (store.get(zero) & (CellStore.MINE_BIT | CellStore.SCORE_MASK)) != 0) {
+					continue;
+				}
+				value++;
+				counted[zero] = true;
+				stack[0] = zero;
+				top = 1;
+				while (top > 0) {
+					cell = stack[--top];
+					count = topology.neighbours(cell, around);
+					for (int i = 0; i < count; i++) {
+						neighbour = (int)around[i];
+						if (!counted[neighbour]) {
+							counted[neighbour] = true;
+							if ((store.get(neighbour) & CellStore.SCORE_MASK) == 0) {
+								if (top == stack.length) {
+									stack = Arrays.copyOf(stack, top * 2);
+								}
+								stack[top++] = neighbour;
+							}
+						}
+					}
+				}
+			}
+			// Every other number takes a click of its own.
+			for (cell = 0; cell < numCells; cell++) {
+				if (!counted[cell] && (store.get(cell) & CellStore.MINE_BIT) == 0) {
+					value++;
+				}
+			}
+			return value;
+		}
+	}
+
+	private MineGridSettings settings;
+	private Strategy strategy;
+	private int numThreads;
+	// The next game to hand out and the one after the last.
+	private AtomicLong nextGame = new AtomicLong();
+	private long endGame;
+
+	/**
+	 * Constructs a simulator that plays games with the given settings and
+	 * strategy on every core.
+	 *
+	 * @throws	IllegalArgumentException	if the settings are for an infinite
+	 * 										grid
+	 */
+	public Simulator(MineGridSettings settings, Strategy strategy) {
+		this(settings, strategy, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Constructs a simulator that plays games with the given settings and
+	 * strategy on the given number of threads.
+	 *
+	 * @throws	IllegalArgumentException	if the settings are for an infinite
+	 * 										grid
+	 */
+	public Simulator(MineGridSettings settings, Strategy strategy, int numThreads) {
+		if (settings.isInfinite()) {
+			throw new IllegalArgumentException("Games on an infinite grid never finish");
+		}
+		this.settings = new MineGridSettings();
+		copySettings(settings, this.settings);
+		this.strategy = strategy;
+		this.numThreads = numThreads;
+	}
+
+	/**
+	 * Runs the simulator from the command line, printing the results.
+	 */
+	public static void main(String[] args) throws Exception {
+		MineGridSettings settings = new MineGridSettings();
+		ArrayList<Recording> recordings = new ArrayList<Recording>();
+		String strategyName = "solver";
+		File recordingsDir = null;
+		long firstGame = 0;
+		long numGames = 10000;
+		int numThreads = Runtime.getRuntime().availableProcessors();
+		Strategy strategy;
+		String option;
+		String value;
+
+		settings.setGridSize(30, 16);
+		settings.setMines(99);
+		try {
+			for (int i = 0; i < args.length; i++) {
+				option = args[i];
+				if (option.equals("--no-guess")) {
+					settings.setNoGuess(true);
+					continue;
+				}
+				if (i + 1 == args.length) {
+					throw new IllegalArgumentException("Missing value for " + option);
+				}
+				value = args[++i];
+				if (option.equals("--games")) {
+					numGames = Long.parseLong(value);
+				}
+				else if (option.equals("--first")) {
+					firstGame = Long.parseLong(value);
+				}
+				else if (option.equals("--width")) {
+					settings.setGridWidth(Integer.parseInt(value));
+				}
+				else if (option.equals("--height")) {
+					settings.setGridHeight(Integer.parseInt(value));
+				}
+				else if (option.equals("--depth")) {
+					settings.setDepth(Integer.parseInt(value));
+				}
+				else if (option.equals("--mines")) {
+					settings.setMines(Integer.parseInt(value));
+				}
+				else if (option.equals("--lives")) {
+					settings.setLives(Integer.parseInt(value));
+				}
+				else if (option.equals("--topology")) {
+					settings.setTopology(parseTopology(value));
+				}
+				else if (option.equals("--strategy")) {
+					strategyName = value;
+				}
+				else if (option.equals("--recordings")) {
+					recordingsDir = new File(value);
+				}
+				else if (option.equals("--threads")) {
+					numThreads = Integer.parseInt(value);
+				}
+				else {
+					throw new IllegalArgumentException("Unknown option " + option);
+				}
+			}
+
+			if (strategyName.equals("solver")) {
+				strategy = new SolverStrategy();
+			}
+			else if (strategyName.equals("random")) {
+				strategy = new RandomStrategy();
+			}
+			else if (strategyName.equals("replay")) {
+				if (recordingsDir == null || !recordingsDir.isDirectory()) {
+					throw new IllegalArgumentException("The replay strategy needs a directory of --recordings");
+				}
+				for (File file : recordingsDir.listFiles()) {
+					recordings.add(Recording.fromBytes(Files.readAllBytes(file.toPath())));
+				}
+				strategy = new ReplayStrategy(recordings);
+			}
+			else {
+				throw new IllegalArgumentException("Unknown strategy " + strategyName);
+			}
+		}
+		catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println("Options: --games N --first N --width N --height N --depth N --mines N --lives N");
+			System.err.println("         --topology square|torus|hex --no-guess --threads N");
+			System.err.println("         --strategy solver|random|replay --recordings DIR");
+			System.exit(2);
+			return;
+		}
+
+		System.out.print(new Simulator(settings, strategy, numThreads).run(firstGame, numGames));
+	}
+
+	/**
+	 * Plays the games with the given numbers and returns their totals.
+	 *
+	 * @param	first		the number of the first game
+	 * @param	numGames	the number of games
+	 */
+	public Results run(long first, long numGames) throws InterruptedException {
+		ExecutorService workers = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "Simulator");
+
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		ArrayList<Worker> running = new ArrayList<Worker>();
+		ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
+		Results results = new Results();
+		long start = System.nanoTime();
+		Worker worker;
+
+		nextGame.set(first);
+		endGame = first + numGames;
+		try {
+			for (int i = 0; i < numThreads; i++) {
+				worker = new Worker(strategy.copy());
+				running.add(worker);
+				futures.add(workers.submit(worker));
+			}
+			for (Future<?> future : futures) {
+				try {
+					future.get();
+				}
+				catch (ExecutionException e) {
+					throw new IllegalStateException("A simulated game failed", e.getCause());
+				}
+			}
+		}
+		finally {
+			workers.shutdown();
+		}
+
+		for (Worker finished : running) {
+			results.add(finished.results);
+		}
+		results.elapsedTime = System.nanoTime() - start;
+		return results;
+	}
+
+	/**
+	 * Returns whether a game is yet to be won or lost.
+	 */
+	private static boolean isPlaying(MineGrid game) {
+		return game.getGameState() == MineGrid.GameState.PRESTART
+				|| game.getGameState() == MineGrid.GameState.STARTED;
+	}
+
+	private static int parseTopology(String name) {
+		if (name.equals("square")) {
+			return MineGrid.TOPOLOGY_SQUARE;
+		}
+		else if (name.equals("torus")) {
+			return MineGrid.TOPOLOGY_TORUS;
+		}
+		else if (name.equals("hex")) {
+			return MineGrid.TOPOLOGY_HEX;
+		}
+		throw new IllegalArgumentException("Unknown topology " + name);
+	}
+
+	private static void copySettings(MineGridSettings from, MineGridSettings to) {
+		to.setGridSize(from.getGridWidth(), from.getGridHeight());
+		to.setDepth(from.getDepth());
+		to.setMines(from.getMines());
+		to.setLives(from.getLives());
+		to.setGeneratorVersion(from.getGeneratorVersion());
+		to.setTopology(from.getTopology());
+		to.setHistoryLimit(from.getHistoryLimit());
+		to.setNoGuess(from.isNoGuess());
+	}
+
+}
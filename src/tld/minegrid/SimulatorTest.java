@@ -0,0 +1,88 @@
+/**
+ * Automated JUnit tests against the game simulator.
+ *
+ * @author arlsr
+ * @date 2014
+ */
+
+package tld.minegrid;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class SimulatorTest {
+
+	private MineGridSettings settings;
+
+	@Before
+	public void setUp() throws Exception {
+		settings = new MineGridSettings();
+		settings.setGridSize(16, 16);
+		settings.setMines(40);
+		settings.setLives(1);
+	}
+
+	/**
+	 * Tests the results depend only on the games played, not the number of
+	 * threads they were spread over.
+	 */
+	@Test
+	public void testRepeatable() throws Exception {
+		Simulator.Results one = new Simulator(settings, new Simulator.SolverStrategy(), 1).run(0, 500);
+		Simulator.Results many = new Simulator(settings, new Simulator.SolverStrategy(), 3).run(0, 500);
+
+		assertEquals(500, many.getGames());
+		assertEquals(one.getWins(), many.getWins());
+		assertEquals(one.getAverageBoardValue(), many.getAverageBoardValue(), 0);
+		assertEquals(one.getAverageCascade(), many.getAverageCascade(), 0);
+		assertEquals(one.getLargestCascade(), many.getLargestCascade());
+		assertTrue(one.getWins() > 0 && one.getWins() < 500);
+
+		many = new Simulator(settings, new Simulator.RandomStrategy(), 3).run(0, 500);
+		assertTrue(many.getWins() < one.getWins());
+	}
+
+	/**
+	 * Tests replaying recorded games wins the same games.
+	 */
+	@Test
+	public void testReplay() throws Exception {
+		ArrayList<Recording> recordings = new ArrayList<Recording>();
+		Simulator.Strategy solver = new Simulator.SolverStrategy();
+		int won = 0;
+		MineGrid game;
+
+		for (int seed = 0; seed < 50; seed++) {
+			settings.setSeed(Long.valueOf(seed));
+			game = new MineGrid(settings);
+			solver.start(game);
+			while (solver.choose(game)) {
+				solver.act(game);
+			}
+			if (game.getGameState() == MineGrid.GameState.WON) {
+				won++;
+			}
+			recordings.add(game.getRecording());
+		}
+		assertEquals(won, new Simulator(settings, new Simulator.ReplayStrategy(recordings)).run(0, 50).getWins());
+	}
+
+	/**
+	 * Tests the 3BV of a board with one mine in nine cells, which is one
+	 * with the mine in a corner, three on an edge and eight in the middle.
+	 */
+	@Test
+	public void testBoardValue() throws Exception {
+		Simulator.Results results;
+
+		settings.setGridSize(3, 3);
+		settings.setMines(1);
+		results = new Simulator(settings, new Simulator.SolverStrategy()).run(0, 9000);
+		assertEquals(24 / 9.0, results.getAverageBoardValue(), 0.1);
+	}
+
+}
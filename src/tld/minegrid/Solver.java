@@ -0,0 +1,469 @@
+/**
+ * Finds every unrevealed cell of a bounded grid that can be proved safe or
+ * proved to be a mine from the revealed numbers, for handing out hints.
+ *
+ * Each revealed number is a constraint: so many of its unknown neighbours
+ * are mines. A constraint with no mines left, or with as many mines left as
+ * unknown neighbours, decides all of them. Two constraints sharing cells
+ * decide the cells only one of them holds when the difference in their
+ * mines equals the number of cells the second holds alone. Each cell keeps
+ * the unknown neighbours and mines left of its constraint, and only the
+ * constraints around cells that were deduced or revealed are examined
+ * again, from a work list of cell ids, so nothing is allocated once the
+ * lists have grown. Deductions are facts about the layout, so they stand
+ * however the game goes on. Player flags are never trusted.
+ *
+ * @author arlsr
+ * @date 2014
+ */
+
+package tld.minegrid;
+
+import java.util.Arrays;
+
+public class Solver {
+	public static final int UNKNOWN = 0;
+	public static final int SAFE = 1;
+	public static final int MINE = 2;
+
+	// What is known of each cell.
+	private static final int SAFE_BIT = 0x01;
+	private static final int MINE_BIT = 0x02;
+	private static final int REVEALED_BIT = 0x04;
+	private static final int QUEUED_BIT = 0x08;
+	private static final int KNOWN_BITS = SAFE_BIT | MINE_BIT | REVEALED_BIT;
+
+	private MineGrid game;
+	private CellStore store;
+	private Topology topology;
+	private byte[] known;
+	// The unknown neighbours and mines left of each revealed number.
+	private byte[] unknown;
+	private byte[] remaining;
+	// Revealed numbers waiting to be examined.
+	private int[] queue = new int[64];
+	private int queueSize;
+	// Cells deduced safe, some of which may have been revealed since.
+	private int[] safe = new int[64];
+	private int numSafe;
+	private long[] around;
+	private long[] aroundNeighbour;
+	private long[] cells;
+	private long[] otherCells;
+	private int[] candidates;
+
+	/**
+	 * Constructs a solver for the current position of a game and makes
+	 * every deduction it can.
+	 *
+	 * @throws	UnsupportedOperationException	if the grid is infinite
+	 * @throws	IllegalArgumentException		if the grid is too large for the heap
+	 */
+	public Solver(MineGrid game) {
+		reset(game);
+	}
+
+	/**
+	 * Starts over on the current position of a game, which may be a new
+	 * game or another game altogether, keeping the solver's arrays when the
+	 * grid is the same size.
+	 *
+	 * @throws	UnsupportedOperationException	if the grid is infinite
+	 * @throws	IllegalArgumentException		if the grid is too large for the heap
+	 */
+	public void reset(MineGrid game) {
+		long numCells = (long)game.getWidth() * game.getHeight() * game.getDepth();
+		int maxNeighbours;
+
+		if (game.isInfinite()) {
+			throw new UnsupportedOperationException("An infinite grid can't be solved");
+		}
+		if (numCells > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Too many cells to solve on the heap");
+		}
+
+		this.game = game;
+		store = game.getStore();
+		topology = game.getTopology();
+		maxNeighbours = topology.getMaxNeighbours();
+		if (known == null || known.length != numCells) {
+			known = new byte[(int)numCells];
+			unknown = new byte[(int)numCells];
+			remaining = new byte[(int)numCells];
+		}
+		if (around == null || around.length != maxNeighbours) {
+			around = new long[maxNeighbours];
+			aroundNeighbour = new long[maxNeighbours];
+			cells = new long[maxNeighbours];
+			otherCells = new long[maxNeighbours];
+			candidates = new int[maxNeighbours * maxNeighbours];
+		}
+		rebuild();
+	}
+
+	/**
+	 * Finds the undecided cell least likely to be a mine, for playing on when
+	 * nothing more can be proved. A cell next to revealed numbers is judged
+	 * by the most crowded of them, and any other by the mines left over all
+	 * the undecided cells.
+	 *
+	 * @param	dest	receives the x, y and z coordinates of the cell
+	 * @return	whether there was an undecided cell
+	 */
+	public boolean findGuess(int[] dest) {
+		int minesLeft = game.getTotalMines();
+		int numUndecided = 0;
+		int bestCell = -1;
+		double best = 2;
+		double density;
+		double chance;
+		int count;
+		int neighbour;
+
+		for (int cell = 0; cell < known.length; cell++) {
+			if ((known[cell] & MINE_BIT) != 0) {
+				minesLeft--;
+			}
+			else if ((known[cell] & KNOWN_BITS) == 0) {
+				numUndecided++;
+			}
+		}
+		if (numUndecided == 0) {
+			return false;
+		}
+
+		density = (double)minesLeft / numUndecided;
+		for (int cell = 0; cell < known.length; cell++) {
+			if ((known[cell] & KNOWN_BITS) != 0) {
+				continue;
+			}
+			chance = -1;
+			count = topology.neighbours(cell, around);
+			for (int i = 0; i < count; i++) {
+				neighbour = (int)around[i];
+				if (isOpen(neighbour)) {
+					chance = Math.max(chance, (double)remaining[neighbour] / unknown[neighbour]);
+				}
+			}
+			if (chance < 0) {
+				chance = density;
+			}
+			if (chance < best) {
+				best = chance;
+				bestCell = cell;
+			}
+		}
+		dest[0] = game.cellX(bestCell);
+		dest[1] = game.cellY(bestCell);
+		dest[2] = game.cellZ(bestCell);
+		return true;
+	}
+
+	/**
+	 * Finds a cell proved safe that is still to be revealed.
+	 *
+	 * @param	dest	receives the x, y and z coordinates of the cell
+	 * @return	whether there was such a cell
+	 */
+	public boolean findSafeCell(int[] dest) {
+		int cell;
+
+		while (numSafe > 0) {
+			cell = safe[numSafe - 1];
+			if ((known[cell] & REVEALED_BIT) == 0) {
+				dest[0] = game.cellX(cell);
+				dest[1] = game.cellY(cell);
+				dest[2] = game.cellZ(cell);
+				return true;
+			}
+			numSafe--;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns what has been proved about a cell.
+	 *
+	 * @return	SAFE, MINE or UNKNOWN, with revealed cells safe unless they
+	 * 			are mines
+	 */
+	public int getDeduction(int x, int y) {
+		return getDeduction(x, y, 0);
+	}
+
+	/**
+	 * Returns what has been proved about a cell of a grid with more than one
+	 * layer.
+	 *
+	 * @return	SAFE, MINE or UNKNOWN, with revealed cells safe unless they
+	 * 			are mines
+	 */
+	public int getDeduction(int x, int y, int z) {
+		int bits = known[(int)game.cellId(x, y, z)];
+
+		if ((bits & MINE_BIT) != 0) {
+			return MINE;
+		}
+		return (bits & KNOWN_BITS) != 0 ? SAFE : UNKNOWN;
+	}
+
+	/**
+	 * Takes in the cells changed by the game's last action, examining only
+	 * the constraints around them again. Must be called after every action
+	 * that changes cells. An undo starts the solver over from the position
+	 * it leaves.
+	 */
+	public void update() {
+		CellChanges changes = game.getChanges();
+		int cell;
+		int bits;
+
+		if (changes.isFullRefresh()) {
+			rebuild();
+			return;
+		}
+		for (int i = 0; i < changes.size(); i++) {
+			cell = (int)changes.getCell(i);
+			bits = store.get(cell);
+			if ((bits & CellStore.REVEALED_BIT) != 0) {
+				if ((known[cell] & REVEALED_BIT) == 0) {
+					reveal(cell, bits);
+				}
+			}
+			else if ((known[cell] & REVEALED_BIT) != 0) {
+				rebuild();
+				return;
+			}
+		}
+		solve();
+	}
+
+	/**
+	 * Reads the whole position again and makes every deduction it can.
+	 */
+	private void rebuild() {
+		Arrays.fill(known, (byte)0);
+		queueSize = 0;
+		numSafe = 0;
+		for (int cell = 0; cell < known.length; cell++) {
+			if ((store.get(cell) & CellStore.REVEALED_BIT) != 0) {
+				reveal(cell, store.get(cell));
+			}
+		}
+		solve();
+	}
+
+	/**
+	 * Examines queued constraints until none are left.
+	 */
+	private void solve() {
+		int cell;
+
+		while (queueSize > 0) {
+			cell = queue[--queueSize];
+			known[cell] &= ~QUEUED_BIT;
+			if (unknown[cell] > 0) {
+				examine(cell);
+			}
+		}
+	}
+
+	/**
+	 * Applies the rules to one constraint, alone and against every
+	 * constraint sharing its cells, stopping at the first that deduces
+	 * anything.
+	 */
+	private void examine(int cell) {
+		int numCells = unknownNeighbours(cell, cells);
+		int numCandidates = 0;
+		int count;
+		int other;
+		int numOther;
+		int shared;
+
+		if (remaining[cell] == 0 || remaining[cell] == numCells) {
+			for (int i = 0; i < numCells; i++) {
+				deduce((int)cells[i], remaining[cell] == 0 ? SAFE_BIT : MINE_BIT);
+			}
+			return;
+		}
+
+		for (int i = 0; i < numCells; i++) {
+			count = topology.neighbours(cells[i], aroundNeighbour);
+			for (int j = 0; j < count; j++) {
+				other = (int)aroundNeighbour[j];
+				if (other != cell && isOpen(other) && !contains(candidates, numCandidates, other)) {
+					candidates[numCandidates++] = other;
+				}
+			}
+		}
+
+		for (int i = 0; i < numCandidates; i++) {
+			other = candidates[i];
+			numOther = unknownNeighbours(other, otherCells);
+			shared = 0;
+			for (int j = 0; j < numOther; j++) {
+				if (contains(cells, numCells, otherCells[j])) {
+					shared++;
+				}
+			}
+			if (numCells + numOther == 2 * shared) {
+				continue;
+			}
+			// The cells only the other holds are all mines, leaving none for
+			// the cells only this one holds, or the other way round.
+			if (remaining[other] - remaining[cell] == numOther - shared) {
+				deduceApart(otherCells, numOther, cells, numCells);
+			}
+			else if (remaining[cell] - remaining[other] == numCells - shared) {
+				deduceApart(cells, numCells, otherCells, numOther);
+			}
+			else {
+				continue;
+			}
+			// Other pairs may still deduce more once this one has.
+			enqueue(cell);
+			return;
+		}
+	}
+
+	/**
+	 * Deduces the cells of the first list missing from the second are mines
+	 * and the cells of the second missing from the first are safe.
+	 */
+	private void deduceApart(long[] mines, int numMines, long[] safeCells, int numSafeCells) {
+		for (int i = 0; i < numMines; i++) {
+			if (!contains(safeCells, numSafeCells, mines[i])) {
+				deduce((int)mines[i], MINE_BIT);
+			}
+		}
+		for (int i = 0; i < numSafeCells; i++) {
+			if (!contains(mines, numMines, safeCells[i])) {
+				deduce((int)safeCells[i], SAFE_BIT);
+			}
+		}
+	}
+
+	/**
+	 * Notes that a cell is safe or a mine, updating the constraints around it.
+	 */
+	private void deduce(int cell, int bit) {
+		if ((known[cell] & KNOWN_BITS) != 0) {
+			return;
+		}
+		if (bit == SAFE_BIT) {
+			if (numSafe == safe.length) {
+				safe = Arrays.copyOf(safe, numSafe * 2);
+			}
+			safe[numSafe++] = cell;
+		}
+		settle(cell, bit);
+	}
+
+	/**
+	 * Takes in a cell revealed by the game.
+	 */
+	private void reveal(int cell, int bits) {
+		int count;
+		int mines = 0;
+		int unknownCount = 0;
+
+		if ((known[cell] & KNOWN_BITS) == 0) {
+			settle(cell, (bits & CellStore.MINE_BIT) != 0 ? MINE_BIT : SAFE_BIT);
+		}
+		known[cell] |= REVEALED_BIT;
+		if ((bits & CellStore.MINE_BIT) != 0) {
+			return;
+		}
+
+		count = topology.neighbours(cell, around);
+		for (int i = 0; i < count; i++) {
+			if ((known[(int)around[i]] & MINE_BIT) != 0) {
+				mines++;
+			}
+			else if ((known[(int)around[i]] & KNOWN_BITS) == 0) {
+				unknownCount++;
+			}
+		}
+		unknown[cell] = (byte)unknownCount;
+		remaining[cell] = (byte)((bits & CellStore.SCORE_MASK) - mines);
+		enqueue(cell);
+	}
+
+	/**
+	 * Marks a cell as known, taking it out of the unknown cells of the
+	 * constraints around it.
+	 */
+	private void settle(int cell, int bit) {
+		int count = topology.neighbours(cell, around);
+		int neighbour;
+
+		known[cell] |= bit;
+		for (int i = 0; i < count; i++) {
+			neighbour = (int)around[i];
+			if (isOpen(neighbour)) {
+				unknown[neighbour]--;
+				if (bit == MINE_BIT) {
+					remaining[neighbour]--;
+				}
+				enqueue(neighbour);
+			}
+		}
+	}
+
+	/**
+	 * Returns whether a cell is a revealed number with unknown neighbours.
+	 */
+	private boolean isOpen(int cell) {
+		return (known[cell] & (REVEALED_BIT | MINE_BIT)) == REVEALED_BIT && unknown[cell] > 0;
+	}
+
+	/**
+	 * Queues a constraint to be examined, unless it already is.
+	 */
+	private void enqueue(int cell) {
+		if ((known[cell] & QUEUED_BIT) == 0) {
+			known[cell] |= QUEUED_BIT;
+			if (queueSize == queue.length) {
+				queue = Arrays.copyOf(queue, queueSize * 2);
+			}
+			queue[queueSize++] = cell;
+		}
+	}
+
+	/**
+	 * Finds the neighbours of a cell that are neither revealed nor deduced.
+	 *
+	 * @return	the number found
+	 */
+	private int unknownNeighbours(int cell, long[] dest) {
+		int count = topology.neighbours(cell, around);
+		int found = 0;
+
+		for (int i = 0; i < count; i++) {
+			if ((known[(int)around[i]] & KNOWN_BITS) == 0) {
+				dest[found++] = around[i];
+			}
+		}
+		return found;
+	}
+
+	private static boolean contains(long[] cells, int length, long cell) {
+		for (int i = 0; i < length; i++) {
+			if (cells[i] == cell) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean contains(int[] cells, int length, int cell) {
+		for (int i = 0; i < length; i++) {
+			if (cells[i] == cell) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+}
@@ -0,0 +1,210 @@
+/**
+ * Automated JUnit tests against the solver.
+ *
+ * @author arlsr
+ * @date 2014
+ */
+
+package tld.minegrid;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class SolverTest {
+
+	private MineGridSettings settings;
+
+	@Before
+	public void setUp() throws Exception {
+		settings = new MineGridSettings();
+		settings.setGridSize(30, 16);
+		settings.setMines(99);
+		settings.setLives(1);
+	}
+
+	/**
+	 * Tests playing only the cells the solver proves safe never hits a mine,
+	 * and wins some games outright.
+	 */
+	@Test
+	public void testHints() {
+		int[] coords = new int[3];
+		int won = 0;
+		MineGrid game;
+		Solver solver;
+
+		settings.setGridSize(9, 9);
+		settings.setMines(10);
+		for (int seed = 0; seed < 200; seed++) {
+			settings.setSeed(Long.valueOf(seed));
+			game = new MineGrid(settings);
+			openZero(game);
+			solver = new Solver(game);
+			while (solver.findSafeCell(coords)) {
+				game.revealCell(coords[0], coords[1]);
+				assertNotEquals(MineGrid.GameState.LOST, game.getGameState());
+				solver.update();
+				assertSound(game, solver);
+			}
+			if (game.getGameState() == MineGrid.GameState.WON) {
+				won++;
+			}
+		}
+		assertTrue(won > 50);
+	}
+
+	/**
+	 * Tests updating after each action deduces exactly what a solver built
+	 * from the position does, including after an undo.
+	 */
+	@Test
+	public void testIncremental() {
+		int[] coords = new int[3];
+		MineGrid game;
+		Solver solver;
+
+		for (int seed = 0; seed < 20; seed++) {
+			settings.setSeed(Long.valueOf(seed));
+			settings.setLives(MineGrid.MAX_LIVES);
+			game = new MineGrid(settings);
+			openZero(game);
+			solver = new Solver(game);
+			for (int i = 0; i < 300 && game.getGameState() == MineGrid.GameState.STARTED; i++) {
+				if (i % 50 == 49) {
+					game.undo();
+				}
+				else if (i % 7 == 6 || !solver.findSafeCell(coords)) {
+					// A guess, which may cost a life.
+					game.revealCell(i * 13 % 30, i * 5 % 16);
+				}
+				else {
+					game.revealCell(coords[0], coords[1]);
+				}
+				solver.update();
+				assertSame(new Solver(game), solver, game);
+				assertSound(game, solver);
+			}
+		}
+	}
+
+	/**
+	 * Tests deductions are sound on the other topologies and in layers.
+	 */
+	@Test
+	public void testTopologies() {
+		int[] coords = new int[3];
+		MineGrid game;
+		Solver solver;
+
+		settings.setGridSize(16, 16);
+		settings.setMines(40);
+		for (int topology = MineGrid.TOPOLOGY_SQUARE; topology <= MineGrid.TOPOLOGY_HEX; topology++) {
+			for (int depth = 1; depth <= (topology == MineGrid.TOPOLOGY_HEX ? 1 : 3); depth += 2) {
+				settings.setTopology(topology);
+				settings.setDepth(depth);
+				settings.setMines(depth == 1 ? 40 : 60);
+				for (int seed = 0; seed < 20; seed++) {
+					settings.setSeed(Long.valueOf(seed));
+					game = new MineGrid(settings);
+					openZero(game);
+					solver = new Solver(game);
+					while (solver.findSafeCell(coords)) {
+						game.revealCell(coords[0], coords[1], coords[2]);
+						assertNotEquals(MineGrid.GameState.LOST, game.getGameState());
+						solver.update();
+					}
+					assertSound(game, solver);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Tests a solver reset for each game of a restarted engine deduces what a
+	 * new solver does, as the grid's size and topology change.
+	 */
+	@Test
+	public void testReset() {
+		int[] coords = new int[3];
+		MineGrid game = null;
+		Solver solver = null;
+
+		for (int seed = 0; seed < 30; seed++) {
+			settings.setSeed(Long.valueOf(seed));
+			settings.setGridSize(9 + seed % 3 * 7, 9 + seed % 2 * 7);
+			settings.setMines(10 + seed % 3 * 10);
+			settings.setTopology(MineGrid.TOPOLOGY_SQUARE + seed / 10);
+			if (game == null) {
+				game = new MineGrid(settings);
+			}
+			else {
+				game.restart(settings);
+				assertFalse(game.canUndo());
+				assertNull(game.getRecording());
+			}
+			openZero(game);
+			if (solver == null) {
+				solver = new Solver(game);
+			}
+			else {
+				solver.reset(game);
+			}
+			assertSame(new Solver(game), solver, game);
+			while (solver.findSafeCell(coords)) {
+				game.revealCell(coords[0], coords[1]);
+				solver.update();
+			}
+			assertSame(new Solver(game), solver, game);
+			assertSound(game, solver);
+		}
+	}
+
+	/**
+	 * Reveals the first cell with no neighbouring mines.
+	 */
+	private void openZero(MineGrid game) {
+		CellStore store = game.getStore();
+
+		for (long cell = 0;; cell++) {
+			if (store.get(cell) == 0) {
+				game.revealCell(game.cellX(cell), game.cellY(cell), game.cellZ(cell));
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Checks every deduction agrees with the layout.
+	 */
+	private void assertSound(MineGrid game, Solver solver) {
+		CellStore store = game.getStore();
+		int deduction;
+		long cell;
+
+		for (int z = 0; z < game.getDepth(); z++) {
+			for (int y = 0; y < game.getHeight(); y++) {
+				for (int x = 0; x < game.getWidth(); x++) {
+					cell = game.cellId(x, y, z);
+					deduction = solver.getDeduction(x, y, z);
+					if (deduction != Solver.UNKNOWN) {
+						assertEquals((store.get(cell) & CellStore.MINE_BIT) != 0, deduction == Solver.MINE);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Checks two solvers have made the same deductions.
+	 */
+	private void assertSame(Solver expected, Solver actual, MineGrid game) {
+		for (int y = 0; y < game.getHeight(); y++) {
+			for (int x = 0; x < game.getWidth(); x++) {
+				assertEquals(expected.getDeduction(x, y), actual.getDeduction(x, y));
+			}
+		}
+	}
+
+}
@@ -0,0 +1,238 @@
+/**
+ * The neighbours of every cell of a bounded grid, precomputed as tables of
+ * cell id offsets.
+ *
+ * Cells are grouped into classes that share the same neighbour offsets: a
+ * cell's class comes from which edge, if any, its layer, row and column lie
+ * on, and for hexagonal grids whether its row is odd. The offsets of each
+ * class are stored one after another with the start of each class kept in
+ * a separate array, so finding a cell's neighbours is two table lookups and
+ * a copy however the grid is shaped.
+ *
+ * @author arlsr
+ * @date 2014
+ */
+
+package tld.minegrid;
+
+class Topology {
+	private int type;
+	private int width;
+	private int height;
+	private int depth;
+	// The first class index of each layer, the class offset of each row
+	// within a layer and the class offset of each column within a row.
+	private int[] layerClasses;
+	private int[] rowClasses;
+	private int[] columnClasses;
+	// Where each class's offsets begin, with the end as a final entry.
+	private int[] classStarts;
+	private long[] offsets;
+	private int maxNeighbours;
+
+	/**
+	 * Constructs the tables for a grid of one or more layers. Layered grids
+	 * give each cell the neighbours touching it in the layers above and below
+	 * as well, up to 26 in all.
+	 *
+	 * @param	type	one of the MineGrid TOPOLOGY_ constants
+	 */
+	public Topology(int type, int width, int height, int depth) {
+		int[] layerKeys = new int[depth];
+		int[] rowKeys = new int[height];
+		int[] columnKeys = new int[width];
+		int[] layerSamples = new int[3];
+		int[] rowSamples = new int[6];
+		int[] columnSamples = new int[3];
+		int numLayers;
+		int numRows;
+		int numColumns;
+		int numClasses;
+		int cellClass;
+		int[] xs = new int[26];
+		int[] ys = new int[26];
+		int[] zs = new int[26];
+		int count;
+		int next = 0;
+		long cell;
+
+		if (type != MineGrid.TOPOLOGY_SQUARE && type != MineGrid.TOPOLOGY_TORUS
+				&& type != MineGrid.TOPOLOGY_HEX) {
+			throw new IllegalArgumentException("Unknown topology " + type);
+		}
+		if (type == MineGrid.TOPOLOGY_HEX && depth > 1) {
+			throw new IllegalArgumentException("Hexagonal grids can't have more than one layer");
+		}
+		this.type = type;
+		this.width = width;
+		this.height = height;
+		this.depth = depth;
+
+		numLayers = findClasses(depth, false, layerKeys, layerSamples);
+		numRows = findClasses(height, type == MineGrid.TOPOLOGY_HEX, rowKeys, rowSamples);
+		numColumns = findClasses(width, false, columnKeys, columnSamples);
+		numClasses = numLayers * numRows * numColumns;
+		layerClasses = new int[depth];
+		rowClasses = new int[height];
+		columnClasses = columnKeys;
+		for (int z = 0; z < depth; z++) {
+			layerClasses[z] = layerKeys[z] * numRows * numColumns;
+		}
+		for (int y = 0; y < height; y++) {
+			rowClasses[y] = rowKeys[y] * numColumns;
+		}
+
+		classStarts = new int[numClasses + 1];
+		offsets = new long[numClasses * xs.length];
+		for (int l = 0; l < numLayers; l++) {
+			for (int r = 0; r < numRows; r++) {
+				for (int c = 0; c < numColumns; c++) {
+					cellClass = (l * numRows + r) * numColumns + c;
+					classStarts[cellClass] = next;
+					count = neighbourCoordinates(columnSamples[c], rowSamples[r], layerSamples[l], xs, ys, zs);
+					cell = cellId(columnSamples[c], rowSamples[r], layerSamples[l]);
+					for (int i = 0; i < count; i++) {
+						offsets[next++] = cellId(xs[i], ys[i], zs[i]) - cell;
+					}
+					maxNeighbours = Math.max(maxNeighbours, count);
+				}
+			}
+		}
+		classStarts[numClasses] = next;
+	}
+
+	/**
+	 * Returns whether the tables are those of a grid of the given shape.
+	 */
+	boolean fits(int type, int width, int height, int depth) {
+		return this.type == type && this.width == width && this.height == height && this.depth == depth;
+	}
+
+	/**
+	 * Returns the most neighbours any cell has.
+	 */
+	int getMaxNeighbours() {
+		return maxNeighbours;
+	}
+
+	/**
+	 * Finds the neighbours of a cell.
+	 *
+	 * @param	dest	the array to write the neighbours' cell ids to
+	 * @return	the number of neighbours found
+	 */
+	int neighbours(long cell, long[] dest) {
+		long row = cell / width;
+
+		if (depth == 1) {
+			return neighbours(cell, (int)(cell - row * width), (int)row, 0, dest);
+		}
+		return neighbours(cell, (int)(cell - row * width), (int)(row % height), (int)(row / height), dest);
+	}
+
+	/**
+	 * Finds the neighbours of a cell whose coordinates are already known.
+	 *
+	 * @param	dest	the array to write the neighbours' cell ids to
+	 * @return	the number of neighbours found
+	 */
+	int neighbours(long cell, int x, int y, int z, long[] dest) {
+		int cellClass = layerClasses[z] + rowClasses[y] + columnClasses[x];
+		int start = classStarts[cellClass];
+		int count = classStarts[cellClass + 1] - start;
+
+		for (int i = 0; i < count; i++) {
+			dest[i] = cell + offsets[start + i];
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the cell id of the given coordinates.
+	 */
+	private long cellId(int x, int y, int z) {
+		return ((long)z * height + y) * width + x;
+	}
+
+	/**
+	 * Groups the positions along one side of the grid by whether they lie on
+	 * an edge, and optionally by whether they are odd.
+	 *
+	 * @param	keys	the array to write each position's group to
+	 * @param	samples	the array to write a position from each group to
+	 * @return	the number of groups
+	 */
+	private static int findClasses(int size, boolean parity, int[] keys, int[] samples) {
+		int[] groups = { -1, -1, -1, -1, -1, -1 };
+		int count = 0;
+		int key;
+
+		for (int i = 0; i < size; i++) {
+			key = i == 0 ? 0 : i == size - 1 ? 2 : 1;
+			if (parity) {
+				key = key * 2 + (i & 1);
+			}
+			if (groups[key] < 0) {
+				groups[key] = count;
+				samples[count++] = i;
+			}
+			keys[i] = groups[key];
+		}
+		return count;
+	}
+
+	/**
+	 * Finds the coordinates of the neighbours of a cell the slow way, for
+	 * building the tables. A torus only two layers deep reaches the same
+	 * layer above and below, so each neighbour is only listed once.
+	 *
+	 * @return	the number of neighbours found
+	 */
+	private int neighbourCoordinates(int x, int y, int z, int[] xs, int[] ys, int[] zs) {
+		int layers = depth > 1 ? 1 : 0;
+		int count = 0;
+		int nx;
+		int ny;
+		int nz;
+		boolean listed;
+
+		for (int dz = -layers; dz <= layers; dz++) {
+			for (int dy = -1; dy <= 1; dy++) {
+				for (int dx = -1; dx <= 1; dx++) {
+					if (dx == 0 && dy == 0 && dz == 0) {
+						continue;
+					}
+					// Odd rows of a hexagonal grid sit half a cell to the right,
+					// so only two cells of each neighbouring row touch.
+					if (type == MineGrid.TOPOLOGY_HEX && dy != 0 && dx == ((y & 1) == 0 ? 1 : -1)) {
+						continue;
+					}
+					nx = x + dx;
+					ny = y + dy;
+					nz = z + dz;
+					if (type == MineGrid.TOPOLOGY_TORUS) {
+						nx = (nx + width) % width;
+						ny = (ny + height) % height;
+						nz = (nz + depth) % depth;
+					}
+					else if (nx < 0 || nx >= width || ny < 0 || ny >= height || nz < 0 || nz >= depth) {
+						continue;
+					}
+					listed = false;
+					for (int i = 0; i < count; i++) {
+						listed |= xs[i] == nx && ys[i] == ny && zs[i] == nz;
+					}
+					if (listed) {
+						continue;
+					}
+					xs[count] = nx;
+					ys[count] = ny;
+					zs[count] = nz;
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+}